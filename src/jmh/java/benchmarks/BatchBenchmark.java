@@ -0,0 +1,81 @@
+package benchmarks;
+
+import exception.LuaException;
+import org.openjdk.jmh.annotations.*;
+import scriptengine.LuaExecutorPool;
+import scriptengine.LuaScriptEngine;
+
+import javax.script.ScriptException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * records per second of one rule evaluated over many records, by an eval per record against the batch api run by
+ * one executor and by a fork-join pool with an executor per worker
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(BatchBenchmark.RECORDS)
+public class BatchBenchmark {
+    static final int RECORDS = 10000;
+    private static final int WORKERS = 4;
+
+    private static final String RULE = "return amount * rate > limit and region ~= 'blocked'";
+
+    private LuaScriptEngine engine;
+    private LuaScriptEngine pooledEngine;
+    private ForkJoinPool workers;
+    private List<Map<String, ?>> records;
+
+    @Setup
+    public void setup() throws LuaException {
+        records = new ArrayList<>(RECORDS);
+        for (int i = 0; i < RECORDS; i++) {
+            Map<String, Object> record = new HashMap<>();
+            record.put("amount", (long) i);
+            record.put("rate", 1.5);
+            record.put("region", i % 10 == 0 ? "blocked" : "region-" + (i % 3));
+            records.add(record);
+        }
+        engine = new LuaScriptEngine();
+        engine.put("limit", 5000L);
+        pooledEngine = new LuaScriptEngine(new LuaExecutorPool(WORKERS));
+        pooledEngine.put("limit", 5000L);
+        workers = new ForkJoinPool(WORKERS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        workers.shutdown();
+    }
+
+    @Benchmark
+    public Object evalPerRecord() throws ScriptException {
+        Object result = null;
+        for (Map<String, ?> record : records) {
+            for (Map.Entry<String, ?> entry : record.entrySet()) {
+                engine.put(entry.getKey(), entry.getValue());
+            }
+            result = engine.eval(RULE);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<Object> evalBatch() throws ScriptException {
+        return engine.evalBatch(RULE, records.iterator());
+    }
+
+    @Benchmark
+    public List<Object> evalBatchParallel() throws ScriptException {
+        return pooledEngine.evalBatch(RULE, records.iterator(), workers);
+    }
+}
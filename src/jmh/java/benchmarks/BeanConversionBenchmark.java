@@ -0,0 +1,155 @@
+package benchmarks;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import exception.LuaException;
+import org.openjdk.jmh.annotations.*;
+import scriptengine.ConversionMode;
+import scriptengine.LuaExecutor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * converting a bean to a table and back through cached accessors, against the former jackson round trip which
+ * serialized the bean to a json string and parsed it into a map, and against viewing the bean through a proxy
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BeanConversionBenchmark {
+
+    public static class Item {
+        private String sku;
+        private long quantity;
+        private double price;
+
+        public String getSku() {
+            return sku;
+        }
+
+        public void setSku(String sku) {
+            this.sku = sku;
+        }
+
+        public long getQuantity() {
+            return quantity;
+        }
+
+        public void setQuantity(long quantity) {
+            this.quantity = quantity;
+        }
+
+        public double getPrice() {
+            return price;
+        }
+
+        public void setPrice(double price) {
+            this.price = price;
+        }
+    }
+
+    public static class Order {
+        private long id;
+        private String customer;
+        private String country;
+        private List<Item> items = new ArrayList<>();
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(long id) {
+            this.id = id;
+        }
+
+        public String getCustomer() {
+            return customer;
+        }
+
+        public void setCustomer(String customer) {
+            this.customer = customer;
+        }
+
+        public String getCountry() {
+            return country;
+        }
+
+        public void setCountry(String country) {
+            this.country = country;
+        }
+
+        public List<Item> getItems() {
+            return items;
+        }
+
+        public void setItems(List<Item> items) {
+            this.items = items;
+        }
+    }
+
+    private LuaExecutor executor;
+    private LuaExecutor proxyExecutor;
+    private Order order;
+    private Object table;
+    private Map<String, Object> map;
+
+    @Setup
+    public void setup() throws LuaException, IOException {
+        order = new Order();
+        order.setId(42);
+        order.setCustomer("customer");
+        order.setCountry("CN");
+        for (int i = 0; i < 10; i++) {
+            Item item = new Item();
+            item.setSku("sku-" + i);
+            item.setQuantity(i);
+            item.setPrice(i * 1.5);
+            order.getItems().add(item);
+        }
+        executor = new LuaExecutor();
+        table = executor.run("return ...", order)[0];
+        proxyExecutor = new LuaExecutor();
+        proxyExecutor.setConversionMode(ConversionMode.PROXY);
+        ObjectMapper mapper = new ObjectMapper();
+        map = mapper.readValue(mapper.writeValueAsString(order), new TypeReference<Map<String, Object>>() {
+        });
+    }
+
+    @Benchmark
+    public void jacksonToTable() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        Map<String, Object> converted = mapper.readValue(mapper.writeValueAsString(order),
+                new TypeReference<Map<String, Object>>() {
+                });
+        executor.putContext(Collections.singletonMap("order", converted));
+    }
+
+    @Benchmark
+    public void accessorToTable() {
+        executor.putContext(Collections.singletonMap("order", order));
+    }
+
+    @Benchmark
+    public void proxyToTable() {
+        proxyExecutor.putContext(Collections.singletonMap("order", order));
+    }
+
+    @Benchmark
+    public Order jacksonToBean() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        return mapper.readValue(mapper.writeValueAsString(map), Order.class);
+    }
+
+    @Benchmark
+    public Order accessorToBean() {
+        return LuaExecutor.toJavaObject(table, Order.class);
+    }
+}
@@ -0,0 +1,58 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import scriptengine.LuaScriptEngine;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * evaluating a new script through {@link LuaScriptEngine#eval(String)} compiles it on every call, while a
+ * {@link CompiledScript} only binds and calls the loaded function. evaluating the same text again finds the chunk
+ * in the shared cache and pays for the lookup only
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompiledScriptBenchmark {
+    private static final String SCRIPT = "local total = 0\n" +
+            "for i = 1, count do\n" +
+            "  if i % 3 == 0 then total = total + price * i else total = total - i end\n" +
+            "end\n" +
+            "return total";
+
+    private LuaScriptEngine engine;
+    private CompiledScript compiled;
+    private SimpleBindings bindings;
+    private long serial;
+
+    @Setup
+    public void setup() throws ScriptException {
+        engine = new LuaScriptEngine();
+        compiled = engine.compile(SCRIPT);
+        bindings = new SimpleBindings();
+        bindings.put("price", 7L);
+        bindings.put("count", 10L);
+    }
+
+    @Benchmark
+    public Object eval() throws ScriptException {
+        // a new comment makes a new script text, so the chunk cache misses every time
+        return engine.eval("-- " + serial++ + "\n" + SCRIPT, bindings);
+    }
+
+    @Benchmark
+    public Object cachedEval() throws ScriptException {
+        return engine.eval(SCRIPT, bindings);
+    }
+
+    @Benchmark
+    public Object compiledEval() throws ScriptException {
+        return compiled.eval(bindings);
+    }
+}
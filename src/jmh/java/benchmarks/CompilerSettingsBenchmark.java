@@ -0,0 +1,77 @@
+package benchmarks;
+
+import exception.LuaException;
+import net.sandius.rembulan.compiler.CompilerSettings;
+import net.sandius.rembulan.runtime.LuaFunction;
+import org.openjdk.jmh.annotations.*;
+import scriptengine.LuaEnvironment;
+import scriptengine.LuaExecutor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * throughput of representative scripts for every combination of compiler settings: cpu accounting, constant
+ * folding and constant caching. numeric loops, table building and string handling with function calls stress
+ * different parts of the generated code
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompilerSettingsBenchmark {
+    private static final String ARITHMETIC = "local total = 0\n" +
+            "for i = 1, 1000 do\n" +
+            "  if i % 3 == 0 then total = total + 7 * i * 2 else total = total - i / 4 end\n" +
+            "end\n" +
+            "return total";
+    private static final String TABLES = "local t = {}\n" +
+            "for i = 1, 200 do t[i] = { id = i, price = i * 1.5, tag = 'item' } end\n" +
+            "local sum = 0\n" +
+            "for _, item in ipairs(t) do sum = sum + item.price end\n" +
+            "return sum";
+    private static final String STRINGS = "local function label(n) return 'rule-' .. n .. ':' .. string.rep('x', 3) end\n" +
+            "local parts = {}\n" +
+            "for i = 1, 100 do parts[#parts + 1] = label(i) end\n" +
+            "return #table.concat(parts, ',')";
+
+    @Param({"arithmetic", "tables", "strings"})
+    public String script;
+
+    @Param({"IN_EVERY_BASIC_BLOCK", "NO_CPU_ACCOUNTING"})
+    public CompilerSettings.CPUAccountingMode accounting;
+
+    @Param({"true", "false"})
+    public boolean constFolding;
+
+    @Param({"true", "false"})
+    public boolean constCaching;
+
+    private LuaExecutor executor;
+    private LuaFunction function;
+
+    @Setup
+    public void setup() throws LuaException {
+        executor = new LuaExecutor(LuaEnvironment.standard());
+        executor.setCompilerSettings(CompilerSettings.defaultSettings()
+                .withCPUAccountingMode(accounting)
+                .withConstFolding(constFolding)
+                .withConstCaching(constCaching));
+        switch (script) {
+            case "arithmetic":
+                function = executor.load(ARITHMETIC);
+                break;
+            case "tables":
+                function = executor.load(TABLES);
+                break;
+            default:
+                function = executor.load(STRINGS);
+        }
+    }
+
+    @Benchmark
+    public Object[] call() throws LuaException {
+        return executor.call(function);
+    }
+}
@@ -0,0 +1,68 @@
+package benchmarks;
+
+import exception.LuaException;
+import org.openjdk.jmh.annotations.*;
+import scriptengine.LuaExecutorPool;
+import scriptengine.LuaScriptEngine;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * four threads sharing one engine: a default engine serializes them on its single executor, a pooled engine runs
+ * them on executors of its pool
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class EngineThroughputBenchmark {
+    private static final String SCRIPT = "local total = 0\n" +
+            "for i = 1, count do total = total + price * i end\n" +
+            "return total";
+    private static final String FUNCTION = "function total(price, count)\n" +
+            "  local total = 0\n" +
+            "  for i = 1, count do total = total + price * i end\n" +
+            "  return total\n" +
+            "end";
+
+    @Param({"single", "pooled"})
+    public String engineType;
+
+    private LuaScriptEngine engine;
+    private CompiledScript compiled;
+
+    @Setup
+    public void setup() throws LuaException, ScriptException {
+        engine = engineType.equals("single") ? new LuaScriptEngine()
+                : new LuaScriptEngine(new LuaExecutorPool(4, FUNCTION));
+        engine.eval(FUNCTION);
+        compiled = engine.compile(SCRIPT);
+    }
+
+    @State(Scope.Thread)
+    public static class Bindings {
+        SimpleBindings bindings = new SimpleBindings();
+
+        @Setup
+        public void setup() {
+            bindings.put("price", 7L);
+            bindings.put("count", 20L);
+        }
+    }
+
+    @Benchmark
+    public Object compiledEval(Bindings bindings) throws ScriptException {
+        return compiled.eval(bindings.bindings);
+    }
+
+    @Benchmark
+    public Object invokeFunction() throws ScriptException, NoSuchMethodException {
+        return engine.invokeFunction("total", 7L, 20L);
+    }
+}
@@ -0,0 +1,42 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import scriptengine.LuaEnvironment;
+import scriptengine.LuaExecutor;
+import scriptengine.LuaProfile;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * creating an executor with its own libraries against creating one on a shared base environment, for every
+ * library profile. run with -prof gc, the normalized allocation rate is about the heap footprint of a new state
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecutorCreationBenchmark {
+    @Param({"minimal", "pure-compute", "full"})
+    public String profile;
+
+    private LuaProfile libraries;
+    private LuaEnvironment environment;
+
+    @Setup
+    public void setup() {
+        libraries = LuaProfile.named(profile);
+        environment = LuaEnvironment.snapshot(libraries);
+    }
+
+    @Benchmark
+    public LuaExecutor standardLibrary() {
+        return new LuaExecutor(libraries);
+    }
+
+    @Benchmark
+    public LuaExecutor snapshot() {
+        return new LuaExecutor(environment);
+    }
+}
@@ -0,0 +1,55 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import scriptengine.LuaScriptEngine;
+
+import javax.script.ScriptException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * calling a lua function through a generated interface implementation, against looking it up by name for every call
+ * and against the reflective proxy used for interfaces which are not public
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterfaceBenchmark {
+
+    public interface Discount {
+        double apply(double price, int quantity);
+    }
+
+    interface HiddenDiscount {
+        double apply(double price, int quantity);
+    }
+
+    private LuaScriptEngine engine;
+    private Discount discount;
+    private HiddenDiscount hiddenDiscount;
+
+    @Setup
+    public void setup() throws ScriptException {
+        engine = new LuaScriptEngine();
+        engine.eval("function apply(price, quantity) if quantity > 10 then return price * 0.9 end return price end");
+        discount = engine.getInterface(Discount.class);
+        hiddenDiscount = engine.getInterface(HiddenDiscount.class);
+    }
+
+    @Benchmark
+    public Object invokeFunction() throws ScriptException, NoSuchMethodException {
+        return engine.invokeFunction("apply", 100.0, 12);
+    }
+
+    @Benchmark
+    public double generatedInterface() {
+        return discount.apply(100.0, 12);
+    }
+
+    @Benchmark
+    public double proxyInterface() {
+        return hiddenDiscount.apply(100.0, 12);
+    }
+}
@@ -0,0 +1,96 @@
+package benchmarks;
+
+import exception.LuaException;
+import net.sandius.rembulan.Conversions;
+import net.sandius.rembulan.runtime.AbstractFunctionAnyArg;
+import net.sandius.rembulan.runtime.ExecutionContext;
+import net.sandius.rembulan.runtime.LuaFunction;
+import org.openjdk.jmh.annotations.*;
+import scriptengine.LuaEnvironment;
+import scriptengine.LuaExecutor;
+import scriptengine.LuaFunctions;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a script calling a java helper a thousand times: a hand-written function invoking the method by reflection on
+ * boxed arguments, a boxed lambda, an unboxed double lambda and a method adapted by {@link LuaFunctions}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NativeFunctionBenchmark {
+    private static final String SCRIPT = "local total = 0\n" +
+            "for i = 1, 1000 do total = total + distance(i, i + 0.5) end\n" +
+            "return total";
+
+    @Param({"reflective", "lambda", "double", "method"})
+    public String adapter;
+
+    private LuaExecutor executor;
+    private LuaFunction function;
+
+    public static double distance(double x, double y) {
+        return Math.sqrt(x * x + y * y);
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        executor = new LuaExecutor(LuaEnvironment.standard());
+        switch (adapter) {
+            case "reflective":
+                executor.register("distance", new Reflective(NativeFunctionBenchmark.class.getMethod("distance",
+                        double.class, double.class)));
+                break;
+            case "lambda":
+                executor.register("distance", LuaFunctions.of("distance", (x, y) ->
+                        distance(((Number) x).doubleValue(), ((Number) y).doubleValue())));
+                break;
+            case "double":
+                executor.register("distance", LuaFunctions.ofDouble("distance", NativeFunctionBenchmark::distance));
+                break;
+            default:
+                executor.register("distance", LuaFunctions.ofStatic(NativeFunctionBenchmark.class, "distance"));
+        }
+        function = executor.load(SCRIPT);
+    }
+
+    @Benchmark
+    public Object[] call() throws LuaException {
+        return executor.call(function);
+    }
+
+    /**
+     * the way a helper was exposed before: packed arguments converted by type and a reflective call
+     */
+    private static final class Reflective extends AbstractFunctionAnyArg {
+        private final Method method;
+
+        Reflective(Method method) {
+            this.method = method;
+        }
+
+        @Override
+        public void invoke(ExecutionContext context, Object[] args) {
+            Class<?>[] types = method.getParameterTypes();
+            Object[] values = new Object[types.length];
+            for (int i = 0; i < types.length; i++) {
+                values[i] = i < args.length ? Conversions.floatValueOf(args[i]) : null;
+            }
+            try {
+                context.getReturnBuffer().setTo(method.invoke(null, values));
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void resume(ExecutionContext context, Object suspendedState) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
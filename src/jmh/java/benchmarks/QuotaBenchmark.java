@@ -0,0 +1,75 @@
+package benchmarks;
+
+import exception.LuaException;
+import net.sandius.rembulan.runtime.LuaFunction;
+import org.openjdk.jmh.annotations.*;
+import scriptengine.LuaEnvironment;
+import scriptengine.LuaExecutor;
+import scriptengine.LuaQuota;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * overhead of memory accounting: the same scripts without a quota, with the default quota checks and with the
+ * allocation counter read ten times as often
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuotaBenchmark {
+    private static final String ARITHMETIC = "local total = 0\n" +
+            "for i = 1, 1000 do\n" +
+            "  if i % 3 == 0 then total = total + 7 * i * 2 else total = total - i / 4 end\n" +
+            "end\n" +
+            "return total";
+    private static final String TABLES = "local t = {}\n" +
+            "for i = 1, 200 do t[i] = { id = i, price = i * 1.5, tag = 'item' } end\n" +
+            "local sum = 0\n" +
+            "for _, item in ipairs(t) do sum = sum + item.price end\n" +
+            "return sum";
+    private static final String STRINGS = "local parts = {}\n" +
+            "for i = 1, 100 do parts[#parts + 1] = 'rule-' .. i .. ':' .. string.rep('x', 3) end\n" +
+            "return #table.concat(parts, ',')";
+
+    @Param({"arithmetic", "tables", "strings"})
+    public String script;
+
+    @Param({"none", "default", "frequent"})
+    public String quota;
+
+    private LuaExecutor executor;
+    private LuaFunction function;
+
+    @Setup
+    public void setup() throws LuaException {
+        executor = new LuaExecutor(LuaEnvironment.standard());
+        switch (quota) {
+            case "default":
+                executor.setQuota(LuaQuota.ofBytes(64 << 20));
+                break;
+            case "frequent":
+                executor.setQuota(LuaQuota.ofBytes(64 << 20).withCheckTicks(1000));
+                break;
+            default:
+                executor.setQuota(LuaQuota.NONE);
+        }
+        switch (script) {
+            case "arithmetic":
+                function = executor.load(ARITHMETIC);
+                break;
+            case "tables":
+                function = executor.load(TABLES);
+                break;
+            default:
+                function = executor.load(STRINGS);
+        }
+    }
+
+    @Benchmark
+    public Object[] call() throws LuaException {
+        return executor.call(function);
+    }
+}
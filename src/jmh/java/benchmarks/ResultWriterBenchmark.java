@@ -0,0 +1,72 @@
+package benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import exception.LuaException;
+import org.openjdk.jmh.annotations.*;
+import scriptengine.LuaEnvironment;
+import scriptengine.LuaExecutor;
+import scriptengine.LuaJson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * writing a result table built by a script as json, streamed from the table against converting it to java maps and
+ * lists for an object mapper, and reading it into beans
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultWriterBenchmark {
+    private static final String SCRIPT = "local lines = {}\n" +
+            "for i = 1, 200 do\n" +
+            "  lines[i] = { sku = 'sku-' .. i, quantity = i % 7, price = i * 1.25, tags = { 'a', 'b' } }\n" +
+            "end\n" +
+            "return { id = 42, customer = 'someone', lines = lines }";
+
+    public static class Line {
+        public String sku;
+        public long quantity;
+        public double price;
+        public List<String> tags;
+    }
+
+    public static class Receipt {
+        public long id;
+        public String customer;
+        public List<Line> lines;
+    }
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(64 << 10);
+    private Object result;
+
+    @Setup
+    public void setup() throws LuaException {
+        result = new LuaExecutor(LuaEnvironment.standard()).run(SCRIPT)[0];
+    }
+
+    @Benchmark
+    public int streamJson() throws IOException {
+        out.reset();
+        LuaJson.write(result, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int mapsThenJson() throws IOException {
+        out.reset();
+        mapper.writeValue(out, LuaExecutor.toJavaObject(result, Object.class));
+        return out.size();
+    }
+
+    @Benchmark
+    public Receipt toBean() {
+        return LuaExecutor.toJavaObject(result, Receipt.class);
+    }
+}
@@ -0,0 +1,66 @@
+package benchmarks;
+
+import exception.LuaException;
+import net.sandius.rembulan.runtime.LuaFunction;
+import org.openjdk.jmh.annotations.*;
+import scriptengine.HistogramMetrics;
+import scriptengine.LuaEnvironment;
+import scriptengine.LuaExecutor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LuaExecutor#run(String, Object...)} of a script never seen before, which parses and compiles it, against
+ * running a cached script and calling a loaded function. calling with {@link HistogramMetrics} shows the cost of
+ * recording latency and allocations, the default no-op metrics are in warmCall
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RunBenchmark {
+    private static final String SCRIPT = "local price, count = ...\n" +
+            "local total = 0\n" +
+            "for i = 1, count do\n" +
+            "  if i % 3 == 0 then total = total + price * i else total = total - i end\n" +
+            "end\n" +
+            "return total";
+
+    private LuaExecutor executor;
+    private LuaFunction function;
+    private LuaExecutor measured;
+    private LuaFunction measuredFunction;
+    private long serial;
+
+    @Setup
+    public void setup() throws LuaException {
+        executor = new LuaExecutor(LuaEnvironment.standard());
+        function = executor.load(SCRIPT);
+        measured = new LuaExecutor(LuaEnvironment.standard());
+        measured.setMetrics(new HistogramMetrics());
+        measuredFunction = measured.load(SCRIPT);
+    }
+
+    @Benchmark
+    public Object[] coldCompile() throws LuaException {
+        // a new comment makes a new script text, so the chunk cache misses every time
+        return executor.run("-- " + serial++ + "\n" + SCRIPT, 7L, 10L);
+    }
+
+    @Benchmark
+    public Object[] warmRun() throws LuaException {
+        return executor.run(SCRIPT, 7L, 10L);
+    }
+
+    @Benchmark
+    public Object[] warmCall() throws LuaException {
+        return executor.call(function, 7L, 10L);
+    }
+
+    @Benchmark
+    public Object[] warmCallWithMetrics() throws LuaException {
+        return measured.call(measuredFunction, 7L, 10L);
+    }
+}
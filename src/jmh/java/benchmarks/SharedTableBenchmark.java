@@ -0,0 +1,98 @@
+package benchmarks;
+
+import exception.LuaException;
+import net.sandius.rembulan.runtime.LuaFunction;
+import org.openjdk.jmh.annotations.*;
+import scriptengine.LuaEnvironment;
+import scriptengine.LuaExecutor;
+import scriptengine.LuaSharedTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * reference data of 100000 records bound to an executor and looked up by a script, copied into the executor as
+ * before against shared tables on the heap, off the heap and mapped from a file. the allocation of bind (-prof gc)
+ * is the heap an executor takes for its own copy
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SharedTableBenchmark {
+    private static final int RECORDS = 100000;
+    private static final String LOOKUP = "local sum = 0\n" +
+            "for i = 1, #codes do\n" +
+            "  local tariff = ref.tariffs[codes[i]]\n" +
+            "  if tariff.zone == 'eu' then sum = sum + tariff.rate else sum = sum + tariff.base end\n" +
+            "end\n" +
+            "return sum";
+
+    @Param({"copy", "heap", "offHeap", "mapped"})
+    public String storage;
+
+    private Map<String, Object> context;
+    private LuaExecutor executor;
+    private LuaFunction lookup;
+    private Path file;
+
+    @Setup
+    public void setup() throws LuaException, IOException {
+        Map<String, Object> tariffs = new HashMap<>();
+        for (int i = 0; i < RECORDS; i++) {
+            Map<String, Object> tariff = new HashMap<>();
+            tariff.put("code", "T" + i);
+            tariff.put("zone", i % 4 == 0 ? "eu" : "world");
+            tariff.put("rate", i * 0.01);
+            tariff.put("base", (long) (i % 100));
+            tariffs.put("T" + i, tariff);
+        }
+        Map<String, Object> reference = Collections.singletonMap("tariffs", tariffs);
+        Object data;
+        switch (storage) {
+            case "heap":
+                data = LuaSharedTable.of(reference);
+                break;
+            case "offHeap":
+                data = LuaSharedTable.offHeap(reference);
+                break;
+            case "mapped":
+                file = File.createTempFile("tariffs", ".lua-table").toPath();
+                LuaSharedTable.write(reference, file);
+                data = LuaSharedTable.map(file);
+                break;
+            default:
+                data = reference;
+        }
+        context = Collections.singletonMap("ref", data);
+        executor = new LuaExecutor(LuaEnvironment.standard());
+        executor.run("codes = {} for i = 1, 1000 do codes[i] = 'T' .. (i * 97 % " + RECORDS + ") end");
+        executor.putContext(context);
+        lookup = executor.load(LOOKUP);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (file != null) {
+            file.toFile().delete();
+        }
+    }
+
+    @Benchmark
+    public LuaExecutor bind() {
+        executor.putContext(context);
+        return executor;
+    }
+
+    @Benchmark
+    public Object[] lookup() throws LuaException {
+        return executor.call(lookup);
+    }
+}
@@ -0,0 +1,107 @@
+package benchmarks;
+
+import exception.LuaException;
+import net.sandius.rembulan.runtime.LuaFunction;
+import org.openjdk.jmh.annotations.*;
+import scriptengine.LuaEnvironment;
+import scriptengine.LuaExecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * building a table from a java list, then reading it by index and iterating it by pairs() in lua, iterating a
+ * table built from a map checks each step of next() stays constant time on the hash parts. binding and reading a
+ * double[] of the same size compares the zero-copy view of primitive arrays with the copied list. converting the
+ * table back to a java list is measured by toJavaList
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableBenchmark {
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int size;
+
+    private LuaExecutor executor;
+    private List<Object> list;
+    private double[] series;
+    private Map<String, Object> map;
+    private Object table;
+    private LuaFunction read;
+    private LuaFunction iterate;
+    private LuaFunction iterateMap;
+    private LuaFunction readArray;
+
+    @Setup
+    public void setup() throws LuaException {
+        list = new ArrayList<>(size);
+        for (long i = 0; i < size; i++) {
+            list.add(i);
+        }
+        series = new double[size];
+        for (int i = 0; i < size; i++) {
+            series[i] = i;
+        }
+        executor = new LuaExecutor(LuaEnvironment.standard());
+        map = new HashMap<>(size * 2);
+        for (long i = 0; i < size; i++) {
+            map.put("key" + i, i);
+        }
+        executor.putContext(Collections.singletonMap("t", list));
+        executor.putContext(Collections.singletonMap("m", map));
+        executor.putContext(Collections.singletonMap("xs", series));
+        read = executor.load("local s = 0 for i = 1, #t do s = s + t[i] end return s");
+        iterate = executor.load("local s = 0 for k, v in pairs(t) do s = s + v end return s");
+        iterateMap = executor.load("local s = 0 for k, v in pairs(m) do s = s + v end return s");
+        table = executor.run("return t")[0];
+        readArray = executor.load("local s = 0 for i = 1, #xs do s = s + xs[i] end return s");
+    }
+
+    @Benchmark
+    public void build() {
+        executor.putContext(Collections.singletonMap("built", list));
+    }
+
+    @Benchmark
+    public void buildMap() {
+        executor.putContext(Collections.singletonMap("built", map));
+    }
+
+    @Benchmark
+    public List<?> toJavaList() {
+        return LuaExecutor.toJavaList(table);
+    }
+
+    @Benchmark
+    public Object[] read() throws LuaException {
+        return executor.call(read);
+    }
+
+    @Benchmark
+    public Object[] iterate() throws LuaException {
+        return executor.call(iterate);
+    }
+
+    @Benchmark
+    public Object[] iterateMap() throws LuaException {
+        return executor.call(iterateMap);
+    }
+
+    @Benchmark
+    public void bindArray() {
+        executor.putContext(Collections.singletonMap("bound", series));
+    }
+
+    @Benchmark
+    public Object[] readArray() throws LuaException {
+        return executor.call(readArray);
+    }
+}
@@ -0,0 +1,31 @@
+package exception;
+
+/**
+ * thrown when a run or call of a script goes over its memory or table size quota, the script is aborted
+ */
+public class LuaQuotaException extends LuaException {
+    private static final long serialVersionUID = 1L;
+
+    private final long used;
+    private final long limit;
+
+    public LuaQuotaException(String msg, long used, long limit) {
+        super(msg);
+        this.used = used;
+        this.limit = limit;
+    }
+
+    /**
+     * @return bytes allocated, or entries of the table, when the quota was found exceeded
+     */
+    public long getUsed() {
+        return used;
+    }
+
+    /**
+     * @return the quota in bytes, or in entries of a table
+     */
+    public long getLimit() {
+        return limit;
+    }
+}
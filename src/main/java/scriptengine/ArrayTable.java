@@ -0,0 +1,302 @@
+package scriptengine;
+
+import net.sandius.rembulan.Conversions;
+import net.sandius.rembulan.LuaRuntimeException;
+import net.sandius.rembulan.Table;
+
+import java.nio.ByteBuffer;
+
+/**
+ * a table viewing a java primitive array or byte buffer, element i of the table is element i - 1 of the storage.
+ * <p>
+ * nothing is copied in either direction: lua reads and writes go straight to the array, and the array passed in is
+ * the one the caller gets back from {@link LuaArrays}. elements are unboxed on write, only integers can be written
+ * to integer arrays. bytes are read as unsigned integers 0..255 like string.byte, -128..255 can be written. the
+ * length of a view is fixed, writing out of 1..#t, writing nil or a non-number, or writing an integer the element
+ * type can't hold raises an error
+ */
+abstract class ArrayTable extends Table {
+
+    /**
+     * @param storage a java object
+     * @return a view of a long[], double[], int[], byte[] or ByteBuffer, or null for other objects
+     */
+    static ArrayTable of(Object storage) {
+        if (storage instanceof long[]) {
+            return new OfLong((long[]) storage);
+        } else if (storage instanceof double[]) {
+            return new OfDouble((double[]) storage);
+        } else if (storage instanceof int[]) {
+            return new OfInt((int[]) storage);
+        } else if (storage instanceof byte[]) {
+            return new OfByte((byte[]) storage);
+        } else if (storage instanceof ByteBuffer) {
+            return new OfBuffer((ByteBuffer) storage);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * @param type a java class
+     * @return whether instances of the class can be viewed
+     */
+    static boolean isViewable(Class<?> type) {
+        return type == long[].class || type == double[].class || type == int[].class || type == byte[].class
+                || ByteBuffer.class.isAssignableFrom(type);
+    }
+
+    /**
+     * @return the array or buffer viewed by the table
+     */
+    abstract Object storage();
+
+    abstract int length();
+
+    /**
+     * @param index 0-based index in range
+     */
+    abstract Object get(int index);
+
+    /**
+     * @param index 0-based index in range
+     * @param value a non-null lua value
+     */
+    abstract void set(int index, Object value);
+
+    @Override
+    public Object rawget(Object key) {
+        if (key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte) {
+            return rawget(((Number) key).longValue());
+        } else if (key instanceof Double || key instanceof Float) {
+            Long index = Conversions.integerValueOf((Number) key);
+            return index != null ? rawget(index.longValue()) : null;
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public Object rawget(long key) {
+        return key >= 1 && key <= length() ? get((int) (key - 1)) : null;
+    }
+
+    @Override
+    public void rawset(Object key, Object value) {
+        Long index = key instanceof Number ? Conversions.integerValueOf((Number) key) : null;
+        if (index == null) {
+            throw new IllegalArgumentException("a java array has no field " + key);
+        }
+        rawset(index.longValue(), value);
+    }
+
+    @Override
+    public void rawset(long key, Object value) {
+        if (key < 1 || key > length()) {
+            throw new IllegalArgumentException("index " + key + " out of range of a java array of length " + length());
+        }
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException("a java array element must be a number, got " + value);
+        }
+        set((int) (key - 1), value);
+    }
+
+    @Override
+    public long rawlen() {
+        return length();
+    }
+
+    @Override
+    public Object initialKey() {
+        return length() > 0 ? 1L : null;
+    }
+
+    @Override
+    public Object successorKeyOf(Object key) {
+        long index = key instanceof Long ? (Long) key : 0L;
+        if (index < 1 || index > length()) {
+            throw new IllegalArgumentException("invalid key to 'next'");
+        }
+        return index < length() ? index + 1 : null;
+    }
+
+    @Override
+    protected void setMode(boolean weakKeys, boolean weakValues) {
+        // elements are numbers, weak modes have no effect
+    }
+
+    private static long integerOf(Object value) {
+        Long integer = Conversions.integerValueOf((Number) value);
+        if (integer == null) {
+            throw new IllegalArgumentException("number has no integer representation: " + value);
+        }
+        return integer;
+    }
+
+    private static int intOf(Object value) {
+        long integer = integerOf(value);
+        if (integer != (int) integer) {
+            throw new LuaRuntimeException("value out of range");
+        }
+        return (int) integer;
+    }
+
+    /**
+     * @return the byte of a signed or unsigned value
+     */
+    private static byte byteOf(Object value) {
+        long integer = integerOf(value);
+        if (integer < Byte.MIN_VALUE || integer > 0xFF) {
+            throw new LuaRuntimeException("value out of range");
+        }
+        return (byte) integer;
+    }
+
+    private static final class OfLong extends ArrayTable {
+        private final long[] array;
+
+        OfLong(long[] array) {
+            this.array = array;
+        }
+
+        @Override
+        Object storage() {
+            return array;
+        }
+
+        @Override
+        int length() {
+            return array.length;
+        }
+
+        @Override
+        Object get(int index) {
+            return array[index];
+        }
+
+        @Override
+        void set(int index, Object value) {
+            array[index] = integerOf(value);
+        }
+    }
+
+    private static final class OfDouble extends ArrayTable {
+        private final double[] array;
+
+        OfDouble(double[] array) {
+            this.array = array;
+        }
+
+        @Override
+        Object storage() {
+            return array;
+        }
+
+        @Override
+        int length() {
+            return array.length;
+        }
+
+        @Override
+        Object get(int index) {
+            return array[index];
+        }
+
+        @Override
+        void set(int index, Object value) {
+            array[index] = ((Number) value).doubleValue();
+        }
+    }
+
+    private static final class OfInt extends ArrayTable {
+        private final int[] array;
+
+        OfInt(int[] array) {
+            this.array = array;
+        }
+
+        @Override
+        Object storage() {
+            return array;
+        }
+
+        @Override
+        int length() {
+            return array.length;
+        }
+
+        @Override
+        Object get(int index) {
+            return (long) array[index];
+        }
+
+        @Override
+        void set(int index, Object value) {
+            array[index] = intOf(value);
+        }
+    }
+
+    private static final class OfByte extends ArrayTable {
+        private final byte[] array;
+
+        OfByte(byte[] array) {
+            this.array = array;
+        }
+
+        @Override
+        Object storage() {
+            return array;
+        }
+
+        @Override
+        int length() {
+            return array.length;
+        }
+
+        @Override
+        Object get(int index) {
+            return (long) (array[index] & 0xFF);
+        }
+
+        @Override
+        void set(int index, Object value) {
+            array[index] = byteOf(value);
+        }
+    }
+
+    /**
+     * views the remaining bytes of a buffer, from its position to its limit when the view is created. reads and
+     * writes are absolute and don't move the position
+     */
+    private static final class OfBuffer extends ArrayTable {
+        private final ByteBuffer buffer;
+        private final int offset;
+        private final int length;
+
+        OfBuffer(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.offset = buffer.position();
+            this.length = buffer.remaining();
+        }
+
+        @Override
+        Object storage() {
+            return buffer;
+        }
+
+        @Override
+        int length() {
+            return length;
+        }
+
+        @Override
+        Object get(int index) {
+            return (long) (buffer.get(offset + index) & 0xFF);
+        }
+
+        @Override
+        void set(int index, Object value) {
+            buffer.put(offset + index, byteOf(value));
+        }
+    }
+}
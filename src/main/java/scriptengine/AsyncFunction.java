@@ -0,0 +1,66 @@
+package scriptengine;
+
+import net.sandius.rembulan.Conversions;
+import net.sandius.rembulan.LuaRuntimeException;
+import net.sandius.rembulan.runtime.AbstractFunctionAnyArg;
+import net.sandius.rembulan.runtime.ExecutionContext;
+import net.sandius.rembulan.runtime.ResolvedControlThrowable;
+import net.sandius.rembulan.runtime.UnresolvedControlThrowable;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * a java function exposed to lua which returns a future, e.g. of a slow I/O call.
+ * <p>
+ * the calling script is suspended until the future completes, on a {@link LuaScheduler} no thread waits for it
+ * meanwhile, a blocking call such as {@link LuaExecutor#run(String, Object...)} waits on its own thread. the value of
+ * the future is returned to lua, an array is returned as multiple values, a failed future raises a lua error
+ */
+public abstract class AsyncFunction extends AbstractFunctionAnyArg {
+
+    /**
+     * start the work of the function
+     *
+     * @param args arguments passed by lua
+     * @return future of the result
+     */
+    protected abstract CompletionStage<?> call(Object[] args);
+
+    @Override
+    public void invoke(ExecutionContext context, Object[] args) throws ResolvedControlThrowable {
+        CompletableFuture<?> future = call(args).toCompletableFuture();
+        if (future.isDone()) {
+            returnResult(context, future);
+            return;
+        }
+        try {
+            context.resumeAfter(callback -> future.whenComplete((value, error) -> callback.finished()));
+        } catch (UnresolvedControlThrowable ct) {
+            throw ct.resolve(this, future);
+        }
+    }
+
+    @Override
+    public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
+        returnResult(context, (CompletableFuture<?>) suspendedState);
+    }
+
+    private static void returnResult(ExecutionContext context, CompletableFuture<?> future) {
+        Object value;
+        try {
+            value = future.join();
+        } catch (CompletionException e) {
+            throw new LuaRuntimeException(e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+        } catch (CancellationException e) {
+            throw new LuaRuntimeException("cancelled");
+        }
+        if (value instanceof Object[]) {
+            context.getReturnBuffer().setToContentsOf(Conversions.copyAsCanonicalValues((Object[]) value));
+        } else {
+            context.getReturnBuffer().setTo(Conversions.canonicalRepresentationOf(value));
+        }
+    }
+}
@@ -0,0 +1,519 @@
+package scriptengine;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import net.sandius.rembulan.ByteString;
+import net.sandius.rembulan.Table;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * reads and writes properties of a java bean through method handles.
+ * <p>
+ * an accessor is built once per class and cached, properties are public getters and setters following the bean
+ * naming convention or public fields. like jackson, a property is renamed by {@link JsonProperty} on any of its
+ * accessors, dropped by {@link JsonIgnore} on any of them, and a non-public field annotated by {@link JsonProperty}
+ * is a property too. accessors the lookup can't access are skipped. values of properties are not converted to
+ * text in either direction
+ */
+class BeanAccessor {
+    private static final ClassValue<BeanAccessor> ACCESSORS = new ClassValue<BeanAccessor>() {
+        @Override
+        protected BeanAccessor computeValue(Class<?> type) {
+            return new BeanAccessor(type);
+        }
+    };
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final Class<?> type;
+    /**
+     * no-arg constructor, null if the class can not be instantiated
+     */
+    private final MethodHandle constructor;
+    private final Property[] readable;
+    private final Property[] writable;
+    private final Map<String, Integer> readableIndex = new HashMap<>();
+    private final Map<String, Property> writableByName = new HashMap<>();
+
+    private BeanAccessor(Class<?> type) {
+        this.type = type;
+        this.constructor = findConstructor(type);
+
+        // accessors by implicit name, properties backed by fields keep declaration order
+        Map<String, Accessors> accessors = new LinkedHashMap<>();
+        for (Field field : fields(type)) {
+            Accessors property = accessors.computeIfAbsent(field.getName(), Accessors::new);
+            property.annotate(field);
+            if (Modifier.isPublic(field.getModifiers()) || field.isAnnotationPresent(JsonProperty.class)) {
+                property.field = field;
+            }
+        }
+        for (Method method : type.getMethods()) {
+            if (Modifier.isStatic(method.getModifiers()) || method.isBridge() || method.getDeclaringClass() == Object.class) {
+                continue;
+            }
+            String name = method.getName();
+            if (method.getParameterCount() == 0 && method.getReturnType() != void.class) {
+                String property = propertyName(name, "get");
+                if (property == null && method.getReturnType() == boolean.class) {
+                    property = propertyName(name, "is");
+                }
+                if (property != null) {
+                    Accessors getter = accessors.computeIfAbsent(property, Accessors::new);
+                    getter.annotate(method);
+                    getter.getter = method;
+                }
+            } else if (method.getParameterCount() == 1) {
+                String property = propertyName(name, "set");
+                if (property != null) {
+                    Accessors setter = accessors.computeIfAbsent(property, Accessors::new);
+                    setter.annotate(method);
+                    setter.setter = method;
+                }
+            }
+        }
+        List<Property> getters = new ArrayList<>();
+        List<Property> setters = new ArrayList<>();
+        for (Accessors property : accessors.values()) {
+            if (property.ignored) {
+                continue;
+            }
+            String name = property.name();
+            Field field = property.field;
+            MethodHandle getter = property.getter != null ? unreflect(property.getter, GETTER_TYPE)
+                    : field != null ? unreflectGetter(field) : null;
+            if (getter != null) {
+                Type getterType = property.getter != null ? property.getter.getGenericReturnType() : field.getGenericType();
+                getters.add(new Property(name, getterType, getter));
+            }
+            MethodHandle setter = property.setter != null ? unreflect(property.setter, SETTER_TYPE)
+                    : field != null && !Modifier.isFinal(field.getModifiers()) ? unreflectSetter(field) : null;
+            if (setter != null) {
+                Type setterType = property.setter != null ? property.setter.getGenericParameterTypes()[0] : field.getGenericType();
+                setters.add(new Property(name, setterType, setter));
+            }
+        }
+        this.readable = getters.toArray(new Property[0]);
+        this.writable = setters.toArray(new Property[0]);
+        for (int i = 0; i < readable.length; i++) {
+            readableIndex.put(readable[i].name, i);
+        }
+        for (Property property : writable) {
+            writableByName.put(property.name, property);
+        }
+    }
+
+    /**
+     * @param type class of beans
+     * @return the cached accessor of the class
+     */
+    static BeanAccessor of(Class<?> type) {
+        return ACCESSORS.get(type);
+    }
+
+    /**
+     * @return true if the class has any readable property
+     */
+    boolean hasProperties() {
+        return readable.length > 0;
+    }
+
+    /**
+     * pass every non-null property value of the bean to the visitor
+     *
+     * @param bean    an instance of the class
+     * @param visitor called with property name and value
+     */
+    void forEachProperty(Object bean, PropertyVisitor visitor) {
+        for (Property property : readable) {
+            Object value;
+            try {
+                value = property.handle.invokeExact(bean);
+            } catch (Throwable e) {
+                throw new IllegalStateException("fail to read property " + property.name + " of " + type.getName(), e);
+            }
+            if (value != null) {
+                visitor.visit(property.name, value);
+            }
+        }
+    }
+
+    /**
+     * @return count of readable properties
+     */
+    int propertyCount() {
+        return readable.length;
+    }
+
+    /**
+     * @param index index of a readable property
+     * @return name of the property
+     */
+    String propertyName(int index) {
+        return readable[index].name;
+    }
+
+    /**
+     * @param name name of a property
+     * @return index of the readable property, or -1 if there is no such property
+     */
+    int propertyIndex(String name) {
+        Integer index = readableIndex.get(name);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * read a property by index
+     *
+     * @param bean  an instance of the class
+     * @param index index of a readable property
+     * @return value of the property
+     */
+    Object get(Object bean, int index) {
+        Property property = readable[index];
+        try {
+            return property.handle.invokeExact(bean);
+        } catch (Throwable e) {
+            throw new IllegalStateException("fail to read property " + property.name + " of " + type.getName(), e);
+        }
+    }
+
+    /**
+     * write a property, the value is converted to the type of the property
+     *
+     * @param bean  an instance of the class
+     * @param name  name of the property
+     * @param value a lua or java value
+     * @return false if there is no such writable property
+     */
+    boolean set(Object bean, String name, Object value) {
+        Property property = writableByName.get(name);
+        if (property == null) {
+            return false;
+        }
+        try {
+            property.handle.invokeExact(bean, toJava(value, property.type));
+        } catch (Throwable e) {
+            throw new IllegalStateException("fail to write property " + property.name + " of " + type.getName(), e);
+        }
+        return true;
+    }
+
+    /**
+     * create a bean from a table, values of the table are converted to the types of the properties and missing
+     * properties are left unset
+     *
+     * @param table a table keyed by property names
+     * @return a new bean or null if the class has no accessible no-arg constructor
+     */
+    Object toBean(Table table) {
+        if (constructor == null) {
+            return null;
+        }
+        Object bean;
+        try {
+            bean = constructor.invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("fail to create an instance of " + type.getName(), e);
+        }
+        for (Property property : writable) {
+            Object value = table.rawget(property.name);
+            if (value == null) {
+                continue;
+            }
+            try {
+                property.handle.invokeExact(bean, toJava(value, property.type));
+            } catch (Throwable e) {
+                throw new IllegalStateException("fail to write property " + property.name + " of " + type.getName(), e);
+            }
+        }
+        return bean;
+    }
+
+    /**
+     * convert a lua value to a java value of the given type
+     *
+     * @param value a lua value, tables are converted to beans, maps, collections or arrays
+     * @param type  target type, may be generic
+     * @return converted value
+     */
+    static Object toJava(Object value, Type type) {
+        Class<?> raw = rawClass(type);
+        if (value == null) {
+            return defaultValue(raw);
+        }
+        if (value instanceof ProxyTable && raw.isInstance(((ProxyTable) value).target())) {
+            return ((ProxyTable) value).target();
+        }
+        if (value instanceof ArrayTable && raw.isInstance(((ArrayTable) value).storage())) {
+            return ((ArrayTable) value).storage();
+        }
+        if (value instanceof ByteString && raw != ByteString.class) {
+            value = value.toString();
+        }
+        if (raw.isInstance(value) && !(value instanceof Table)) {
+            return value;
+        }
+        if (value instanceof Number) {
+            Number number = (Number) value;
+            if (raw == long.class || raw == Long.class) return number.longValue();
+            if (raw == int.class || raw == Integer.class) return number.intValue();
+            if (raw == double.class || raw == Double.class) return number.doubleValue();
+            if (raw == float.class || raw == Float.class) return number.floatValue();
+            if (raw == short.class || raw == Short.class) return number.shortValue();
+            if (raw == byte.class || raw == Byte.class) return number.byteValue();
+            if (raw == BigDecimal.class) return new BigDecimal(number.toString());
+            if (raw == BigInteger.class) return BigInteger.valueOf(number.longValue());
+            if (raw == Date.class) return new Date(number.longValue());
+            if (raw == String.class) return number.toString();
+        }
+        if (value instanceof String) {
+            String string = (String) value;
+            if (raw == char.class || raw == Character.class) return string.isEmpty() ? defaultValue(raw) : string.charAt(0);
+            if (raw.isEnum()) return enumOf(raw, string);
+            if (raw == BigDecimal.class) return new BigDecimal(string);
+            if (raw == BigInteger.class) return new BigInteger(string);
+        }
+        if (value instanceof Table) {
+            Table table = (Table) value;
+            if (raw.isArray()) {
+                List<Object> list = toList(table, raw.getComponentType());
+                Object array = Array.newInstance(raw.getComponentType(), list.size());
+                for (int i = 0; i < list.size(); i++) {
+                    Array.set(array, i, list.get(i));
+                }
+                return array;
+            }
+            if (Collection.class.isAssignableFrom(raw)) {
+                Collection<Object> collection = Set.class.isAssignableFrom(raw) ? new LinkedHashSet<>() : new ArrayList<>();
+                collection.addAll(toList(table, typeArgument(type, 0)));
+                return collection;
+            }
+            if (Map.class.isAssignableFrom(raw)) {
+                return toMap(table, typeArgument(type, 0), typeArgument(type, 1));
+            }
+            if (raw == Object.class) {
+                return table.rawlen() > 0 && table.rawget(1L) != null ? toList(table, Object.class) : toMap(table, String.class, Object.class);
+            }
+            return of(raw).toBean(table);
+        }
+        if (raw == String.class) {
+            return value.toString();
+        }
+        return value;
+    }
+
+    /**
+     * values of the sequence 1..n of the table
+     */
+    static List<Object> toList(Table table, Type elementType) {
+        long length = table.rawlen();
+        List<Object> list = new ArrayList<>((int) Math.min(length, Integer.MAX_VALUE));
+        for (long i = 1; i <= length; i++) {
+            list.add(toJava(table.rawget(i), elementType));
+        }
+        return list;
+    }
+
+    static Map<Object, Object> toMap(Table table, Type keyType, Type valueType) {
+        Map<Object, Object> map = new LinkedHashMap<>();
+        for (Object key = table.initialKey(); key != null; key = table.successorKeyOf(key)) {
+            map.put(toJava(key, keyType), toJava(table.rawget(key), valueType));
+        }
+        return map;
+    }
+
+    private static Class<?> rawClass(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return rawClass(((ParameterizedType) type).getRawType());
+        }
+        if (type instanceof GenericArrayType) {
+            return Array.newInstance(rawClass(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        }
+        if (type instanceof WildcardType) {
+            return rawClass(((WildcardType) type).getUpperBounds()[0]);
+        }
+        return Object.class;
+    }
+
+    private static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (index < arguments.length) {
+                return arguments[index];
+            }
+        }
+        return Object.class;
+    }
+
+    /**
+     * @param type an enum class
+     * @param name name of a constant of the enum
+     */
+    @SuppressWarnings("unchecked")
+    private static <E extends Enum<E>> E enumOf(Class<?> type, String name) {
+        return Enum.valueOf((Class<E>) type, name);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive()) return null;
+        if (type == boolean.class) return false;
+        if (type == char.class) return '\0';
+        if (type == long.class) return 0L;
+        if (type == double.class) return 0.0;
+        if (type == float.class) return 0.0f;
+        if (type == int.class) return 0;
+        if (type == short.class) return (short) 0;
+        return (byte) 0;
+    }
+
+    /**
+     * property name of an accessor method following jackson's convention, leading upper case letters are lowered
+     *
+     * @return the name or null if the method name doesn't start with the prefix
+     */
+    private static String propertyName(String methodName, String prefix) {
+        if (!methodName.startsWith(prefix) || methodName.length() == prefix.length()) {
+            return null;
+        }
+        char[] name = methodName.substring(prefix.length()).toCharArray();
+        for (int i = 0; i < name.length && Character.isUpperCase(name[i]); i++) {
+            name[i] = Character.toLowerCase(name[i]);
+        }
+        return new String(name);
+    }
+
+    /**
+     * non-static fields from the top of the class hierarchy down
+     */
+    private static List<Field> fields(Class<?> type) {
+        Deque<Class<?>> hierarchy = new ArrayDeque<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            hierarchy.push(c);
+        }
+        List<Field> fields = new ArrayList<>();
+        for (Class<?> c : hierarchy) {
+            for (Field field : c.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()) {
+                    fields.add(field);
+                }
+            }
+        }
+        return fields;
+    }
+
+    private static MethodHandle findConstructor(Class<?> type) {
+        if (type.isInterface() || Modifier.isAbstract(type.getModifiers()) || type.isEnum() || type.isPrimitive()) {
+            return null;
+        }
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor();
+            makeAccessible(constructor);
+            return MethodHandles.lookup().unreflectConstructor(constructor);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return handle of the method, or null if it can't be accessed
+     */
+    private static MethodHandle unreflect(Method method, MethodType methodType) {
+        makeAccessible(method);
+        try {
+            return MethodHandles.lookup().unreflect(method).asType(methodType);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static MethodHandle unreflectGetter(Field field) {
+        makeAccessible(field);
+        try {
+            return MethodHandles.lookup().unreflectGetter(field).asType(GETTER_TYPE);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static MethodHandle unreflectSetter(Field field) {
+        makeAccessible(field);
+        try {
+            return MethodHandles.lookup().unreflectSetter(field).asType(SETTER_TYPE);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * public members of non-public classes are only accessible after setAccessible
+     */
+    static void makeAccessible(AccessibleObject member) {
+        try {
+            member.setAccessible(true);
+        } catch (RuntimeException e) {
+            // left to the access check of the lookup
+        }
+    }
+
+    interface PropertyVisitor {
+        void visit(String name, Object value);
+    }
+
+    /**
+     * field and methods of a property by its implicit name, with what its jackson annotations say
+     */
+    private static class Accessors {
+        private final String implicitName;
+        /**
+         * name given by {@link JsonProperty}, null if not renamed
+         */
+        private String explicitName;
+        private boolean ignored;
+        private Field field;
+        private Method getter;
+        private Method setter;
+
+        Accessors(String implicitName) {
+            this.implicitName = implicitName;
+        }
+
+        void annotate(AnnotatedElement member) {
+            JsonIgnore ignore = member.getAnnotation(JsonIgnore.class);
+            if (ignore != null && ignore.value()) {
+                ignored = true;
+            }
+            JsonProperty property = member.getAnnotation(JsonProperty.class);
+            if (property != null && !property.value().isEmpty()) {
+                explicitName = property.value();
+            }
+        }
+
+        String name() {
+            return explicitName != null ? explicitName : implicitName;
+        }
+    }
+
+    private static class Property {
+        private final String name;
+        private final Type type;
+        private final MethodHandle handle;
+
+        Property(String name, Type type, MethodHandle handle) {
+            this.name = name;
+            this.type = type;
+            this.handle = handle;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package scriptengine;
+
+import net.sandius.rembulan.Variable;
+import net.sandius.rembulan.compiler.CompilerSettings;
+import net.sandius.rembulan.load.LoaderException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+/**
+ * a jar of chunk classes compiled ahead of time by {@link LuaPrecompiler}.
+ * <p>
+ * the manifest of the archive maps the path of every script to the digest of its text and every digest to the
+ * main class of its chunk. an archive added to a {@link ChunkCache} is consulted before compiling: a script whose
+ * text has the digest of an archived chunk, compiled under the same chunk name and settings, is loaded from the
+ * archive without parsing or code generation, any other script is compiled live. classes are loaded on first use
+ * by one class loader per archive, they stay loaded as long as the archive is referenced
+ */
+public final class ChunkArchive {
+    static final String MANIFEST = "META-INF/lua-crystal/chunks.properties";
+
+    static final String CHUNK_NAME = "chunk.name";
+    static final String CPU_ACCOUNTING = "compiler.cpuAccounting";
+    static final String CONST_FOLDING = "compiler.constFolding";
+    static final String CONST_CACHING = "compiler.constCaching";
+    static final String BYTE_STRINGS = "compiler.byteStrings";
+    static final String NODE_SIZE_LIMIT = "compiler.nodeSizeLimit";
+    static final String CLASS_PREFIX = "class.";
+    static final String SCRIPT_PREFIX = "script.";
+
+    private final Path path;
+    private final String chunkName;
+    private final CompilerSettings settings;
+    /**
+     * main class name and bytecode size by digest of the script
+     */
+    private final Map<String, String[]> classes;
+    private final Map<String, String> scripts;
+    private final ClassLoader loader;
+
+    private ChunkArchive(Path path, Properties manifest) throws IOException {
+        this.path = path;
+        this.chunkName = manifest.getProperty(CHUNK_NAME);
+        if (chunkName == null) {
+            throw new IOException("no chunk name in the manifest of " + path);
+        }
+        try {
+            this.settings = CompilerSettings.of(
+                    CompilerSettings.CPUAccountingMode.valueOf(manifest.getProperty(CPU_ACCOUNTING)),
+                    Boolean.parseBoolean(manifest.getProperty(CONST_FOLDING)),
+                    Boolean.parseBoolean(manifest.getProperty(CONST_CACHING)),
+                    Boolean.parseBoolean(manifest.getProperty(BYTE_STRINGS)),
+                    Integer.parseInt(manifest.getProperty(NODE_SIZE_LIMIT)));
+        } catch (RuntimeException e) {
+            throw new IOException("invalid compiler settings in the manifest of " + path, e);
+        }
+        Map<String, String[]> classes = new HashMap<>();
+        Map<String, String> scripts = new HashMap<>();
+        for (String name : manifest.stringPropertyNames()) {
+            if (name.startsWith(CLASS_PREFIX)) {
+                classes.put(name.substring(CLASS_PREFIX.length()), manifest.getProperty(name).split(" "));
+            } else if (name.startsWith(SCRIPT_PREFIX)) {
+                scripts.put(name.substring(SCRIPT_PREFIX.length()), manifest.getProperty(name));
+            }
+        }
+        this.classes = classes;
+        this.scripts = Collections.unmodifiableMap(scripts);
+        this.loader = new URLClassLoader(new URL[]{path.toUri().toURL()}, ChunkArchive.class.getClassLoader());
+    }
+
+    /**
+     * open an archive built by {@link LuaPrecompiler}
+     *
+     * @param path path of the jar
+     * @return the archive
+     * @throws IOException if the jar can not be read or has no valid manifest
+     */
+    public static ChunkArchive open(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath().normalize();
+        try (JarFile jar = new JarFile(absolute.toFile())) {
+            ZipEntry entry = jar.getEntry(MANIFEST);
+            if (entry == null) {
+                throw new IOException("no " + MANIFEST + " in " + absolute);
+            }
+            Properties manifest = new Properties();
+            try (InputStream in = jar.getInputStream(entry)) {
+                manifest.load(in);
+            }
+            return new ChunkArchive(absolute, manifest);
+        }
+    }
+
+    /**
+     * @return digest of the text of every archived script by path relative to the source directory
+     */
+    public Map<String, String> getScripts() {
+        return scripts;
+    }
+
+    public CompilerSettings getSettings() {
+        return settings;
+    }
+
+    public String getChunkName() {
+        return chunkName;
+    }
+
+    /**
+     * @return the archived chunk of a script, or null if the script is not archived
+     * @throws LoaderException if the archived class can not be loaded
+     */
+    ChunkCache.Chunk find(String digest, String chunkName, CompilerSettings settings) throws LoaderException {
+        if (!this.chunkName.equals(chunkName) || !this.settings.equals(settings)) {
+            return null;
+        }
+        String[] archived = classes.get(digest);
+        if (archived == null) {
+            return null;
+        }
+        try {
+            Class<?> mainClass = Class.forName(archived[0], true, loader);
+            return new ChunkCache.Chunk(mainClass.getConstructor(Variable.class), Long.parseLong(archived[1]),
+                    digest);
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            throw new LoaderException(e, chunkName + " in " + path);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkArchive(" + path + ")";
+    }
+}
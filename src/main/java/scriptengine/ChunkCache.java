@@ -0,0 +1,583 @@
+package scriptengine;
+
+import net.sandius.rembulan.Variable;
+import net.sandius.rembulan.compiler.CompiledModule;
+import net.sandius.rembulan.compiler.CompilerSettings;
+import net.sandius.rembulan.compiler.LuaCompiler;
+import net.sandius.rembulan.load.ChunkClassLoader;
+import net.sandius.rembulan.load.LoaderException;
+import net.sandius.rembulan.parser.ParseException;
+import net.sandius.rembulan.parser.TokenMgrError;
+import net.sandius.rembulan.runtime.LuaFunction;
+import net.sandius.rembulan.util.ByteVector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * compiled chunk classes shared by executors, keyed by hash of the script text and the compiler settings.
+ * <p>
+ * every chunk is defined by its own class loader and the cache is the only long-lived reference to it, so once
+ * an entry is evicted and the functions created from it are gone, the loader and its classes can be unloaded.
+ * the cache is bounded by entry count and by the size of the generated bytecode, the least recently used entries
+ * are evicted first. chunks missing from the cache are loaded from the added {@link ChunkArchive}s if archived,
+ * archived chunks stay loaded with their archive
+ */
+public class ChunkCache {
+    /**
+     * default max entry count of the shared cache, can be set by system property <b>lua.crystal.cache.maxEntries</b>
+     */
+    public static final int DEFAULT_MAX_ENTRIES = Integer.getInteger("lua.crystal.cache.maxEntries", 1024);
+    /**
+     * default bytecode budget of the shared cache, can be set by system property <b>lua.crystal.cache.maxBytes</b>
+     */
+    public static final long DEFAULT_MAX_BYTES = Long.getLong("lua.crystal.cache.maxBytes", 64L * 1024 * 1024);
+
+    /**
+     * archives added to the shared cache, paths separated by the path separator of the platform, can be set by
+     * system property <b>lua.crystal.cache.archives</b>
+     */
+    public static final String ARCHIVES_PROPERTY = "lua.crystal.cache.archives";
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkCache.class);
+
+    private static final ChunkCache SHARED = newShared();
+
+    private static final String ROOT_CLASS_PREFIX = "LUA_CLASSES";
+    /**
+     * files of at least this size are memory-mapped when read
+     */
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+
+    /**
+     * length of the prefix of the digest of a script naming it in metrics
+     */
+    private static final int SCRIPT_NAME_LENGTH = 16;
+    /**
+     * names of scripts by the main class of their chunk, entries go with the classes
+     */
+    private static final Map<Class<?>, String> SCRIPT_NAMES = Collections.synchronizedMap(new WeakHashMap<>());
+    /**
+     * name of the script declaring a function class, the class name if it is not compiled from a script
+     */
+    private static final ClassValue<String> SCRIPT_NAME_OF = new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            String name = SCRIPT_NAMES.get(type);
+            if (name != null) {
+                return name;
+            }
+            int nested = type.getName().indexOf('$');
+            if (nested > 0) {
+                try {
+                    name = SCRIPT_NAMES.get(Class.forName(type.getName().substring(0, nested), false,
+                            type.getClassLoader()));
+                } catch (ClassNotFoundException | LinkageError e) {
+                    name = null;
+                }
+                if (name != null) {
+                    return name + type.getName().substring(nested);
+                }
+            }
+            return type.getName();
+        }
+    };
+
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    /**
+     * entries in access order, guarded by this
+     */
+    private final LinkedHashMap<Key, Chunk> chunks = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * modification time and size of source files when they were last read, with the key of their content
+     */
+    private final LinkedHashMap<Key, FileStamp> files = new LinkedHashMap<Key, FileStamp>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, FileStamp> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    private long bytes = 0;
+    private int maxEntries;
+    private long maxBytes;
+
+    private final AtomicLong classIndex = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong fileReadCount = new AtomicLong();
+    private final AtomicLong archiveLoadCount = new AtomicLong();
+
+    /**
+     * chunks compiled ahead of time, looked up before compiling
+     */
+    private final List<ChunkArchive> archives = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param maxEntries max count of cached chunks
+     * @param maxBytes   max total size of the bytecode of cached chunks
+     */
+    public ChunkCache(int maxEntries, long maxBytes) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be positive");
+        if (maxBytes < 1) throw new IllegalArgumentException("maxBytes must be positive");
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    private static ChunkCache newShared() {
+        ChunkCache cache = new ChunkCache(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+        String archives = System.getProperty(ARCHIVES_PROPERTY);
+        if (archives != null) {
+            for (String path : archives.split(File.pathSeparator)) {
+                if (path.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    cache.addArchive(ChunkArchive.open(Paths.get(path.trim())));
+                } catch (IOException e) {
+                    logger.info(e.getMessage(), e);
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @return the cache used by every {@link LuaExecutor} in the JVM
+     */
+    public static ChunkCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * look up chunks in an archive before compiling them, archives are searched in the order they are added
+     *
+     * @param archive chunks compiled ahead of time
+     */
+    public void addArchive(ChunkArchive archive) {
+        if (archive == null) throw new NullPointerException("archive must not be null");
+        archives.add(archive);
+    }
+
+    /**
+     * load a code chunk as a function bound to env, the chunk is compiled only if it is not cached yet
+     *
+     * @param env       env of the function
+     * @param chunkName name of the chunk, used in error messages
+     * @param script    text of the chunk
+     * @param settings  settings of the compiler
+     * @return the main function of the chunk
+     * @throws LoaderException if the chunk can not be compiled or loaded
+     */
+    public LuaFunction load(Variable env, String chunkName, String script, CompilerSettings settings)
+            throws LoaderException {
+        return get(chunkName, script, settings).newInstance(env, chunkName);
+    }
+
+    /**
+     * get a compiled chunk from cache or compile it
+     */
+    Chunk get(String chunkName, String script, CompilerSettings settings) throws LoaderException {
+        return get(chunkName, script, settings, LuaMetrics.NONE);
+    }
+
+    /**
+     * get a compiled chunk from cache or compile it, reporting the lookup to metrics
+     */
+    Chunk get(String chunkName, String script, CompilerSettings settings, LuaMetrics metrics)
+            throws LoaderException {
+        long start = metrics != LuaMetrics.NONE ? System.nanoTime() : 0L;
+        Key key = new Key(digest(script), chunkName, settings);
+        Chunk chunk = cached(key);
+        boolean cached = chunk != null;
+        if (!cached) {
+            chunk = compile(key, chunkName, script, settings);
+        }
+        if (metrics != LuaMetrics.NONE) {
+            metrics.compiled(chunk.getName(), System.nanoTime() - start, cached);
+        }
+        return chunk;
+    }
+
+    /**
+     * load a source file as a function bound to env, the file is read only if its modification time or size has
+     * changed since it was last read, and compiled only if its content is not cached yet
+     *
+     * @param env       env of the function
+     * @param chunkName name of the chunk, used in error messages
+     * @param file      a lua source file encoded in UTF-8
+     * @param settings  settings of the compiler
+     * @return the main function of the chunk
+     * @throws LoaderException if the chunk can not be compiled or loaded
+     * @throws IOException     if the file can not be read or is not valid UTF-8
+     */
+    public LuaFunction load(Variable env, String chunkName, Path file, CompilerSettings settings)
+            throws LoaderException, IOException {
+        return get(chunkName, file, settings).newInstance(env, chunkName);
+    }
+
+    /**
+     * get the compiled chunk of a file from cache or read and compile it
+     */
+    Chunk get(String chunkName, Path file, CompilerSettings settings) throws LoaderException, IOException {
+        return get(chunkName, file, settings, LuaMetrics.NONE);
+    }
+
+    /**
+     * get the compiled chunk of a file from cache or read and compile it, reporting the lookup to metrics
+     */
+    Chunk get(String chunkName, Path file, CompilerSettings settings, LuaMetrics metrics)
+            throws LoaderException, IOException {
+        long start = metrics != LuaMetrics.NONE ? System.nanoTime() : 0L;
+        Path path = file.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        Key fileKey = new Key(path.toString(), chunkName, settings);
+        Chunk chunk = null;
+        synchronized (this) {
+            FileStamp stamp = files.get(fileKey);
+            if (stamp != null && stamp.matches(attributes)) {
+                chunk = cached(stamp.key);
+            }
+        }
+        boolean cached = chunk != null;
+        if (!cached) {
+            String script = read(path);
+            fileReadCount.incrementAndGet();
+            Key key = new Key(digest(script), chunkName, settings);
+            chunk = cached(key);
+            cached = chunk != null;
+            if (!cached) {
+                chunk = compile(key, chunkName, script, settings);
+            }
+            synchronized (this) {
+                files.put(fileKey, new FileStamp(attributes, key));
+            }
+        }
+        if (metrics != LuaMetrics.NONE) {
+            metrics.compiled(chunk.getName(), System.nanoTime() - start, cached);
+        }
+        return chunk;
+    }
+
+    /**
+     * @return the cached chunk, or null if it is not cached
+     */
+    private synchronized Chunk cached(Key key) {
+        Chunk chunk = chunks.get(key);
+        if (chunk != null) {
+            hitCount.incrementAndGet();
+        }
+        return chunk;
+    }
+
+    /**
+     * load a chunk missing from the cache from archives or compile it, then cache it
+     */
+    private Chunk compile(Key key, String chunkName, String script, CompilerSettings settings)
+            throws LoaderException {
+        missCount.incrementAndGet();
+        Chunk compiled = fromArchives(key);
+        if (compiled == null) {
+            compiled = compile(key.digest, chunkName, script, settings);
+        }
+        synchronized (this) {
+            Chunk chunk = chunks.get(key);
+            if (chunk != null) {
+                // compiled concurrently by another thread, keep the cached one
+                return chunk;
+            }
+            chunks.put(key, compiled);
+            bytes += compiled.size;
+            evict();
+        }
+        return compiled;
+    }
+
+    private Chunk fromArchives(Key key) throws LoaderException {
+        for (ChunkArchive archive : archives) {
+            Chunk chunk = archive.find(key.digest, key.chunkName, key.settings);
+            if (chunk != null) {
+                archiveLoadCount.incrementAndGet();
+                return chunk;
+            }
+        }
+        return null;
+    }
+
+    private Chunk compile(String digest, String chunkName, String script, CompilerSettings settings)
+            throws LoaderException {
+        try {
+            CompiledModule module = new LuaCompiler(settings)
+                    .compile(script, chunkName, ROOT_CLASS_PREFIX + classIndex.getAndIncrement());
+            long size = 0;
+            for (ByteVector bytecode : module.classMap().values()) {
+                size += bytecode.size();
+            }
+            ChunkClassLoader loader = new ChunkClassLoader(ChunkCache.class.getClassLoader());
+            Class<?> mainClass = loader.loadClass(loader.install(module));
+            return new Chunk(mainClass.getConstructor(Variable.class), size, digest);
+        } catch (TokenMgrError e) {
+            String message = e.getMessage();
+            boolean partial = message != null && message.contains("Encountered: <EOF>");
+            throw new LoaderException(e, chunkName, 0, partial);
+        } catch (ParseException e) {
+            boolean partial = e.currentToken != null && e.currentToken.next != null && e.currentToken.next.kind == 0;
+            int line = e.currentToken != null ? e.currentToken.beginLine : 0;
+            throw new LoaderException(e, chunkName, line, partial);
+        } catch (RuntimeException | LinkageError | ReflectiveOperationException e) {
+            throw new LoaderException(e, chunkName, 0, false);
+        }
+    }
+
+    /**
+     * drop least recently used entries until the cache is within its bounds, the newest entry is always kept
+     */
+    private void evict() {
+        Iterator<Chunk> iterator = chunks.values().iterator();
+        while (chunks.size() > 1 && (chunks.size() > maxEntries || bytes > maxBytes)) {
+            Chunk eldest = iterator.next();
+            iterator.remove();
+            bytes -= eldest.size;
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * read a file as UTF-8 by a channel, large files are memory-mapped instead of copied to the heap first
+     */
+    static String read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("file is too large: " + file);
+            }
+            ByteBuffer bytes;
+            if (size >= MAP_THRESHOLD) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                bytes = ByteBuffer.allocate((int) size);
+                while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                    // read until the buffer is full or the end of the file
+                }
+                bytes.flip();
+            }
+            if (bytes.remaining() >= 3 && bytes.get(0) == (byte) 0xEF && bytes.get(1) == (byte) 0xBB
+                    && bytes.get(2) == (byte) 0xBF) {
+                bytes.position(3);
+            }
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(bytes)
+                    .toString();
+        }
+    }
+
+    /**
+     * @param function a function class
+     * @return name of the script declaring the function in metrics, the prefix of the digest of the script text
+     * followed by $ and the index of the function if it is not the main function. functions not compiled from a
+     * script are named by their class
+     */
+    static String scriptNameOf(Class<?> function) {
+        return SCRIPT_NAME_OF.get(function);
+    }
+
+    static String digest(String script) {
+        MessageDigest digest = DIGEST.get();
+        byte[] hash = digest.digest(script.getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    public synchronized void setMaxEntries(int maxEntries) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be positive");
+        this.maxEntries = maxEntries;
+        evict();
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        if (maxBytes < 1) throw new IllegalArgumentException("maxBytes must be positive");
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    public synchronized int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * drop all the entries, counters are not reset
+     */
+    public synchronized void clear() {
+        chunks.clear();
+        files.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return count of cached chunks
+     */
+    public synchronized int size() {
+        return chunks.size();
+    }
+
+    /**
+     * @return total size of the bytecode of cached chunks
+     */
+    public synchronized long byteSize() {
+        return bytes;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return count of chunks loaded from archives instead of being compiled
+     */
+    public long getArchiveLoadCount() {
+        return archiveLoadCount.get();
+    }
+
+    /**
+     * @return count of source files read, a file unchanged since it was last read is not read again
+     */
+    public long getFileReadCount() {
+        return fileReadCount.get();
+    }
+
+    /**
+     * a compiled chunk, holding the constructor of its main class keeps the class loader of the chunk alive
+     */
+    static class Chunk {
+        private final Constructor<?> constructor;
+        private final long size;
+        private final String name;
+
+        /**
+         * @param digest digest of the script text, the chunk is named by its prefix
+         */
+        Chunk(Constructor<?> constructor, long size, String digest) {
+            this.constructor = constructor;
+            this.size = size;
+            this.name = digest.substring(0, SCRIPT_NAME_LENGTH);
+            SCRIPT_NAMES.put(constructor.getDeclaringClass(), name);
+        }
+
+        /**
+         * create the main function of the chunk bound to env
+         */
+        LuaFunction newInstance(Variable env, String chunkName) throws LoaderException {
+            try {
+                return (LuaFunction) constructor.newInstance(env);
+            } catch (ReflectiveOperationException e) {
+                throw new LoaderException(e, chunkName);
+            }
+        }
+
+        ClassLoader getClassLoader() {
+            return constructor.getDeclaringClass().getClassLoader();
+        }
+
+        /**
+         * @return name of the script in metrics, stable across class loaders and processes
+         */
+        String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * modification time and size of a file when it was read
+     */
+    private static class FileStamp {
+        private final FileTime modified;
+        private final long size;
+        private final Key key;
+
+        FileStamp(BasicFileAttributes attributes, Key key) {
+            this.modified = attributes.lastModifiedTime();
+            this.size = attributes.size();
+            this.key = key;
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return modified.equals(attributes.lastModifiedTime()) && size == attributes.size();
+        }
+    }
+
+    /**
+     * key of a chunk by digest of its text, or key of a file by its path
+     */
+    private static class Key {
+        private final String digest;
+        private final String chunkName;
+        private final CompilerSettings settings;
+
+        Key(String digest, String chunkName, CompilerSettings settings) {
+            this.digest = digest;
+            this.chunkName = chunkName;
+            this.settings = settings;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return digest.equals(that.digest) && chunkName.equals(that.chunkName) && settings.equals(that.settings);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(digest, chunkName, settings);
+        }
+    }
+}
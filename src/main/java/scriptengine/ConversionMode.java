@@ -0,0 +1,16 @@
+package scriptengine;
+
+/**
+ * how java maps, collections and beans passed to lua become tables
+ */
+public enum ConversionMode {
+    /**
+     * the whole object graph is copied into tables when it is passed, changes made by lua are not seen by java
+     */
+    COPY,
+    /**
+     * the object is viewed by a table reading and writing it on demand, nested objects are wrapped when they are
+     * read and changes made by lua are written to the object
+     */
+    PROXY
+}
@@ -0,0 +1,241 @@
+package scriptengine;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * metrics kept in memory as histograms, per script for compile time, call latency and allocations, and for the
+ * whole executor or engine otherwise. a listener can be shared by many executors and dumped at any time.
+ * <p>
+ * a histogram takes about 30KB, so the scripts tracked are bounded: once the bound is reached, the script recorded
+ * the fewest times is dropped for a new one
+ */
+public class HistogramMetrics implements LuaMetrics {
+    /**
+     * default max count of scripts tracked per metric, can be set by system property
+     * <b>lua.crystal.metrics.maxScripts</b>
+     */
+    public static final int DEFAULT_MAX_SCRIPTS = Integer.getInteger("lua.crystal.metrics.maxScripts", 256);
+
+    private final boolean recordsAllocations;
+    private final int maxScripts;
+
+    private final ConcurrentMap<String, LuaHistogram> compileNanos = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LuaHistogram> callNanos = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LuaHistogram> callBytes = new ConcurrentHashMap<>();
+    private final LuaHistogram argumentNanos = new LuaHistogram();
+    private final LuaHistogram bindingNanos = new LuaHistogram();
+    private final LuaHistogram resultNanos = new LuaHistogram();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder pauses = new LongAdder();
+    private final LongAdder resumes = new LongAdder();
+
+    /**
+     * create metrics recording allocations of calls where the JVM supports it
+     */
+    public HistogramMetrics() {
+        this(true);
+    }
+
+    /**
+     * @param recordsAllocations whether bytes allocated by calls are recorded
+     */
+    public HistogramMetrics(boolean recordsAllocations) {
+        this(recordsAllocations, DEFAULT_MAX_SCRIPTS);
+    }
+
+    /**
+     * @param recordsAllocations whether bytes allocated by calls are recorded
+     * @param maxScripts         max count of scripts tracked per metric
+     */
+    public HistogramMetrics(boolean recordsAllocations, int maxScripts) {
+        if (maxScripts < 1) throw new IllegalArgumentException("maxScripts must be positive");
+        this.recordsAllocations = recordsAllocations;
+        this.maxScripts = maxScripts;
+    }
+
+    private LuaHistogram histogramOf(ConcurrentMap<String, LuaHistogram> histograms, String name) {
+        LuaHistogram histogram = histograms.get(name);
+        if (histogram != null) {
+            return histogram;
+        }
+        if (histograms.size() >= maxScripts) {
+            dropRarest(histograms);
+        }
+        return histograms.computeIfAbsent(name, key -> new LuaHistogram());
+    }
+
+    /**
+     * drop the histogram with the fewest values, concurrent threads may drop one each
+     */
+    private static void dropRarest(ConcurrentMap<String, LuaHistogram> histograms) {
+        String rarest = null;
+        long fewest = Long.MAX_VALUE;
+        for (Map.Entry<String, LuaHistogram> entry : histograms.entrySet()) {
+            long count = entry.getValue().getCount();
+            if (count < fewest) {
+                rarest = entry.getKey();
+                fewest = count;
+            }
+        }
+        if (rarest != null) {
+            histograms.remove(rarest);
+        }
+    }
+
+    @Override
+    public void compiled(String chunk, long nanos, boolean cached) {
+        histogramOf(compileNanos, chunk).record(nanos);
+        if (cached) {
+            cacheHits.increment();
+        } else {
+            cacheMisses.increment();
+        }
+    }
+
+    @Override
+    public void called(String function, long nanos, long allocatedBytes) {
+        histogramOf(callNanos, function).record(nanos);
+        if (allocatedBytes >= 0) {
+            histogramOf(callBytes, function).record(allocatedBytes);
+        }
+    }
+
+    @Override
+    public void failed(String function, long nanos) {
+        failures.increment();
+    }
+
+    @Override
+    public void argumentsConverted(int count, long nanos) {
+        argumentNanos.record(nanos);
+    }
+
+    @Override
+    public void bindingsConverted(int count, long nanos) {
+        bindingNanos.record(nanos);
+    }
+
+    @Override
+    public void resultConverted(long nanos) {
+        resultNanos.record(nanos);
+    }
+
+    @Override
+    public void paused() {
+        pauses.increment();
+    }
+
+    @Override
+    public void resumed() {
+        resumes.increment();
+    }
+
+    @Override
+    public boolean recordsAllocations() {
+        return recordsAllocations;
+    }
+
+    /**
+     * @return histograms of lookup and compile time by chunk, in nanoseconds
+     */
+    public Map<String, LuaHistogram> getCompileNanos() {
+        return compileNanos;
+    }
+
+    /**
+     * @return histograms of call latency by function, in nanoseconds
+     */
+    public Map<String, LuaHistogram> getCallNanos() {
+        return callNanos;
+    }
+
+    /**
+     * @return histograms of bytes allocated by calls by function, empty if not recorded
+     */
+    public Map<String, LuaHistogram> getCallBytes() {
+        return callBytes;
+    }
+
+    public LuaHistogram getArgumentNanos() {
+        return argumentNanos;
+    }
+
+    public LuaHistogram getBindingNanos() {
+        return bindingNanos;
+    }
+
+    public LuaHistogram getResultNanos() {
+        return resultNanos;
+    }
+
+    public long getCacheHitCount() {
+        return cacheHits.sum();
+    }
+
+    public long getCacheMissCount() {
+        return cacheMisses.sum();
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    public long getPauseCount() {
+        return pauses.sum();
+    }
+
+    public long getResumeCount() {
+        return resumes.sum();
+    }
+
+    /**
+     * forget everything recorded so far
+     */
+    public void reset() {
+        compileNanos.clear();
+        callNanos.clear();
+        callBytes.clear();
+        argumentNanos.reset();
+        bindingNanos.reset();
+        resultNanos.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+        failures.reset();
+        pauses.reset();
+        resumes.reset();
+    }
+
+    /**
+     * @return a text report of all the metrics, one histogram per line, scripts sorted by name
+     */
+    public String dump() {
+        StringBuilder dump = new StringBuilder();
+        dump.append("cache hits=").append(getCacheHitCount()).append(" misses=").append(getCacheMissCount())
+                .append(" failures=").append(getFailureCount()).append(" paused=").append(getPauseCount())
+                .append(" resumed=").append(getResumeCount()).append('\n');
+        dump.append("arguments ns ").append(argumentNanos).append('\n');
+        dump.append("bindings ns ").append(bindingNanos).append('\n');
+        dump.append("results ns ").append(resultNanos).append('\n');
+        dump(dump, "compile ns ", compileNanos);
+        dump(dump, "call ns ", callNanos);
+        dump(dump, "call bytes ", callBytes);
+        return dump.toString();
+    }
+
+    private static void dump(StringBuilder dump, String title, Map<String, LuaHistogram> histograms) {
+        for (Map.Entry<String, LuaHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            dump.append(title).append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+    }
+
+    @Override
+    public String toString() {
+        return dump();
+    }
+}
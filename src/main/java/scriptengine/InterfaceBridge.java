@@ -0,0 +1,337 @@
+package scriptengine;
+
+import net.sandius.rembulan.Conversions;
+import net.sandius.rembulan.LuaRuntimeException;
+import net.sandius.rembulan.runtime.LuaFunction;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import javax.script.ScriptException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * base of the classes generated by {@link LuaScriptEngine#getInterface(Class)}, not meant to be extended by hand.
+ * <p>
+ * a class implementing a public interface is generated once per interface, each of its methods boxes primitive
+ * arguments straight into lua numbers and booleans and calls the lua function of the same name, functions are
+ * resolved once per executor of the engine. a lua error is thrown as {@link UndeclaredThrowableException} of a
+ * {@link ScriptException}, like by a {@link java.lang.reflect.Proxy}
+ */
+public abstract class InterfaceBridge {
+    private static final String GENERATED_PACKAGE = "scriptengine/generated/";
+    private static final AtomicInteger classIndex = new AtomicInteger();
+
+    private static final ClassValue<Constructor<?>> bridges = new ClassValue<Constructor<?>>() {
+        @Override
+        protected Constructor<?> computeValue(Class<?> type) {
+            return generate(type);
+        }
+    };
+
+    private final LuaScriptEngine engine;
+    private final Method[] methods;
+    /**
+     * functions resolved on the executor used last time, most engines have a single executor
+     */
+    private volatile Binding last;
+    private final Map<LuaExecutor, LuaFunction[]> functions = Collections.synchronizedMap(new WeakHashMap<>());
+
+    protected InterfaceBridge(LuaScriptEngine engine, Method[] methods) {
+        this.engine = engine;
+        this.methods = methods;
+    }
+
+    /**
+     * implement a public interface by lua functions of an engine
+     *
+     * @return the implementation, or null if the interface is not public
+     */
+    static <T> T create(Class<T> type, LuaScriptEngine engine) {
+        if (!type.isInterface() || !Modifier.isPublic(type.getModifiers())) {
+            return null;
+        }
+        try {
+            return type.cast(bridges.get(type).newInstance(engine, bridgedMethods(type)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * abstract methods of an interface in a fixed order, indexes of methods in generated classes refer to it
+     */
+    static Method[] bridgedMethods(Class<?> type) {
+        Map<String, Method> signatures = new HashMap<>();
+        for (Method method : type.getMethods()) {
+            if (Modifier.isAbstract(method.getModifiers())) {
+                // a method inherited from two interfaces is implemented once
+                signatures.putIfAbsent(method.getName() + Type.getMethodDescriptor(method), method);
+            }
+        }
+        List<Method> methods = new ArrayList<>(signatures.values());
+        methods.sort((a, b) -> {
+            int result = a.getName().compareTo(b.getName());
+            return result != 0 ? result : Type.getMethodDescriptor(a).compareTo(Type.getMethodDescriptor(b));
+        });
+        return methods.toArray(new Method[0]);
+    }
+
+    /**
+     * call the lua function of a method
+     *
+     * @param index      index of the method
+     * @param args       arguments, primitives already boxed as lua values
+     * @param references bits of the arguments which are java objects to be converted by the executor
+     * @return the first result of the function
+     */
+    protected final Object invoke(int index, Object[] args, long references) {
+        Object[] results;
+        try {
+            results = engine.withExecutor(executor -> {
+                LuaFunction function = functionsOf(executor)[index];
+                for (int i = 0; i < args.length; i++) {
+                    if ((i >= 64 || (references & (1L << i)) != 0)) {
+                        args[i] = executor.toLuaValue(args[i]);
+                    }
+                }
+                return executor.callConverted(function, args);
+            });
+        } catch (ScriptException | NoSuchMethodException e) {
+            throw new UndeclaredThrowableException(e);
+        }
+        return results != null && results.length > 0 ? results[0] : null;
+    }
+
+    private LuaFunction[] functionsOf(LuaExecutor executor) throws NoSuchMethodException {
+        Binding binding = last;
+        if (binding != null && binding.executor == executor) {
+            return binding.functions;
+        }
+        LuaFunction[] resolved = functions.get(executor);
+        if (resolved == null) {
+            resolved = new LuaFunction[methods.length];
+            for (int i = 0; i < methods.length; i++) {
+                engine.checkFunction(executor, methods[i].getName());
+                resolved[i] = executor.getFunction(methods[i].getName());
+            }
+            functions.put(executor, resolved);
+        }
+        last = new Binding(executor, resolved);
+        return resolved;
+    }
+
+    /**
+     * convert a result to the return type of a method
+     */
+    protected final Object toReturnType(int index, Object value) {
+        LuaMetrics metrics = engine.getMetrics();
+        if (metrics == LuaMetrics.NONE) {
+            return BeanAccessor.toJava(value, methods[index].getGenericReturnType());
+        }
+        long start = System.nanoTime();
+        Object converted = BeanAccessor.toJava(value, methods[index].getGenericReturnType());
+        metrics.resultConverted(System.nanoTime() - start);
+        return converted;
+    }
+
+    protected static boolean toBoolean(Object value) {
+        return value != null && !Boolean.FALSE.equals(value);
+    }
+
+    protected static int toInt(Object value) {
+        return value instanceof Number ? ((Number) value).intValue() : (Integer) BeanAccessor.toJava(value, int.class);
+    }
+
+    protected static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : (Long) BeanAccessor.toJava(value, long.class);
+    }
+
+    protected static double toDouble(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue()
+                : (Double) BeanAccessor.toJava(value, double.class);
+    }
+
+    protected static char toChar(Object value) {
+        if (value instanceof Number) {
+            // a number is coerced to its string like an argument of a java function
+            return Conversions.stringValueOf((Number) value).toString().charAt(0);
+        }
+        Object converted = BeanAccessor.toJava(value, char.class);
+        if (!(converted instanceof Character)) {
+            throw new LuaRuntimeException("character expected, got " + LuaFunctions.typeName(value));
+        }
+        return (Character) converted;
+    }
+
+    private static class Binding {
+        private final LuaExecutor executor;
+        private final LuaFunction[] functions;
+
+        Binding(LuaExecutor executor, LuaFunction[] functions) {
+            this.executor = executor;
+            this.functions = functions;
+        }
+    }
+
+    /**
+     * generate the implementation class of an interface
+     */
+    private static Constructor<?> generate(Class<?> type) {
+        String name = GENERATED_PACKAGE + type.getSimpleName() + "$Lua" + classIndex.incrementAndGet();
+        String base = Type.getInternalName(InterfaceBridge.class);
+        String constructorDescriptor = Type.getMethodDescriptor(Type.VOID_TYPE,
+                Type.getType(LuaScriptEngine.class), Type.getType(Method[].class));
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, name, null, base,
+                new String[]{Type.getInternalName(type)});
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", constructorDescriptor, null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, base, "<init>", constructorDescriptor, false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        Method[] methods = bridgedMethods(type);
+        for (int index = 0; index < methods.length; index++) {
+            generateMethod(cw, base, methods[index], index);
+        }
+        cw.visitEnd();
+
+        BridgeLoader loader = new BridgeLoader(type.getClassLoader());
+        Class<?> generated = loader.define(name.replace('/', '.'), cw.toByteArray());
+        try {
+            return generated.getConstructor(LuaScriptEngine.class, Method[].class);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void generateMethod(ClassWriter cw, String base, Method method, int index) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, method.getName(), Type.getMethodDescriptor(method),
+                null, null);
+        mv.visitCode();
+        Class<?> returnType = method.getReturnType();
+        boolean reference = !returnType.isPrimitive();
+        if (reference) {
+            // receiver and index of toReturnType
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitLdcInsn(index);
+        }
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitLdcInsn(index);
+        Class<?>[] parameters = method.getParameterTypes();
+        mv.visitLdcInsn(parameters.length);
+        mv.visitTypeInsn(Opcodes.ANEWARRAY, "java/lang/Object");
+        long references = 0;
+        int slot = 1;
+        for (int i = 0; i < parameters.length; i++) {
+            Class<?> parameter = parameters[i];
+            mv.visitInsn(Opcodes.DUP);
+            mv.visitLdcInsn(i);
+            Type parameterType = Type.getType(parameter);
+            mv.visitVarInsn(parameterType.getOpcode(Opcodes.ILOAD), slot);
+            slot += parameterType.getSize();
+            if (parameter == boolean.class) {
+                box(mv, "java/lang/Boolean", "Z");
+            } else if (parameter == long.class) {
+                box(mv, "java/lang/Long", "J");
+            } else if (parameter == int.class || parameter == short.class || parameter == byte.class) {
+                mv.visitInsn(Opcodes.I2L);
+                box(mv, "java/lang/Long", "J");
+            } else if (parameter == double.class) {
+                box(mv, "java/lang/Double", "D");
+            } else if (parameter == float.class) {
+                mv.visitInsn(Opcodes.F2D);
+                box(mv, "java/lang/Double", "D");
+            } else if (parameter == char.class) {
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/String", "valueOf", "(C)Ljava/lang/String;",
+                        false);
+            } else if (i < 64) {
+                references |= 1L << i;
+            }
+            mv.visitInsn(Opcodes.AASTORE);
+        }
+        mv.visitLdcInsn(references);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, base, "invoke", "(I[Ljava/lang/Object;J)Ljava/lang/Object;", false);
+
+        if (returnType == void.class) {
+            mv.visitInsn(Opcodes.POP);
+            mv.visitInsn(Opcodes.RETURN);
+        } else if (reference) {
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, base, "toReturnType", "(ILjava/lang/Object;)Ljava/lang/Object;",
+                    false);
+            mv.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(returnType));
+            mv.visitInsn(Opcodes.ARETURN);
+        } else if (returnType == boolean.class) {
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, base, "toBoolean", "(Ljava/lang/Object;)Z", false);
+            mv.visitInsn(Opcodes.IRETURN);
+        } else if (returnType == long.class) {
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, base, "toLong", "(Ljava/lang/Object;)J", false);
+            mv.visitInsn(Opcodes.LRETURN);
+        } else if (returnType == double.class || returnType == float.class) {
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, base, "toDouble", "(Ljava/lang/Object;)D", false);
+            if (returnType == float.class) {
+                mv.visitInsn(Opcodes.D2F);
+                mv.visitInsn(Opcodes.FRETURN);
+            } else {
+                mv.visitInsn(Opcodes.DRETURN);
+            }
+        } else if (returnType == char.class) {
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, base, "toChar", "(Ljava/lang/Object;)C", false);
+            mv.visitInsn(Opcodes.IRETURN);
+        } else {
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, base, "toInt", "(Ljava/lang/Object;)I", false);
+            if (returnType == short.class) {
+                mv.visitInsn(Opcodes.I2S);
+            } else if (returnType == byte.class) {
+                mv.visitInsn(Opcodes.I2B);
+            }
+            mv.visitInsn(Opcodes.IRETURN);
+        }
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private static void box(MethodVisitor mv, String owner, String primitive) {
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, owner, "valueOf", "(" + primitive + ")L" + owner + ";", false);
+    }
+
+    /**
+     * defines a generated class seeing both the interface and this package
+     */
+    private static class BridgeLoader extends ClassLoader {
+        BridgeLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            try {
+                return super.loadClass(name, resolve);
+            } catch (ClassNotFoundException e) {
+                return InterfaceBridge.class.getClassLoader().loadClass(name);
+            }
+        }
+
+        Class<?> define(String name, byte[] bytecode) {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package scriptengine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * get primitive arrays and byte buffers back from lua results.
+ * <p>
+ * a long[], double[], int[], byte[] or ByteBuffer passed to lua is viewed by a table without copying, when a script
+ * returns that table the methods here return the original array. pass an output array to the script to get results
+ * without copying them, other tables returned by a script are copied to a new array
+ */
+public final class LuaArrays {
+
+    private LuaArrays() {
+    }
+
+    /**
+     * @param value a lua value
+     * @return the array or buffer viewed by the value, or null if the value is no view of one
+     */
+    public static Object storageOf(Object value) {
+        return value instanceof ArrayTable ? ((ArrayTable) value).storage() : null;
+    }
+
+    /**
+     * @param value a table returned by lua
+     * @return the viewed array, or a copy of the sequence of the table
+     */
+    public static long[] toLongArray(Object value) {
+        return (long[]) BeanAccessor.toJava(value, long[].class);
+    }
+
+    /**
+     * @param value a table returned by lua
+     * @return the viewed array, or a copy of the sequence of the table
+     */
+    public static double[] toDoubleArray(Object value) {
+        return (double[]) BeanAccessor.toJava(value, double[].class);
+    }
+
+    /**
+     * @param value a table returned by lua
+     * @return the viewed array, or a copy of the sequence of the table
+     */
+    public static int[] toIntArray(Object value) {
+        return (int[]) BeanAccessor.toJava(value, int[].class);
+    }
+
+    /**
+     * @param value a table returned by lua
+     * @return the viewed array, or a copy of the sequence of the table
+     */
+    public static byte[] toByteArray(Object value) {
+        return (byte[]) BeanAccessor.toJava(value, byte[].class);
+    }
+
+    /**
+     * @param value a table returned by lua
+     * @return the viewed buffer, or a heap buffer wrapping a copy of the sequence of the table
+     */
+    public static ByteBuffer toByteBuffer(Object value) {
+        Object storage = storageOf(value);
+        if (storage instanceof ByteBuffer) {
+            return (ByteBuffer) storage;
+        }
+        byte[] bytes = toByteArray(value);
+        return bytes != null ? ByteBuffer.wrap(bytes) : null;
+    }
+}
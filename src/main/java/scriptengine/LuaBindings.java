@@ -0,0 +1,112 @@
+package scriptengine;
+
+import javax.script.SimpleBindings;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * bindings recording which keys have changed, so an executor installs only the keys put or removed since its
+ * previous eval instead of converting all the bindings again.
+ * <p>
+ * every change gets a new version and each key remembers the version of its last change. java objects copied into
+ * tables are copied again on every eval anyway, so objects modified in place are seen by the next eval. views of
+ * the bindings are read-only, changes go through put and remove. the bindings are thread-safe
+ */
+public class LuaBindings extends SimpleBindings {
+    private final Map<String, Object> map;
+    private long version = 0;
+    /**
+     * version of the last change of every key, including removed keys
+     */
+    private final Map<String, Long> keyVersions = new HashMap<>();
+    /**
+     * changed keys by version of their last change
+     */
+    private final TreeMap<Long, String> changes = new TreeMap<>();
+
+    public LuaBindings() {
+        this(Collections.synchronizedMap(new HashMap<>()));
+    }
+
+    private LuaBindings(Map<String, Object> map) {
+        super(map);
+        this.map = map;
+    }
+
+    private void changed(String key) {
+        version++;
+        Long previous = keyVersions.put(key, version);
+        if (previous != null) {
+            changes.remove(previous);
+        }
+        changes.put(version, key);
+    }
+
+    @Override
+    public synchronized Object put(String name, Object value) {
+        Object previous = super.put(name, value);
+        changed(name);
+        return previous;
+    }
+
+    @Override
+    public synchronized void putAll(Map<? extends String, ? extends Object> toMerge) {
+        super.putAll(toMerge);
+    }
+
+    @Override
+    public synchronized Object remove(Object key) {
+        if (!super.containsKey(key)) {
+            return null;
+        }
+        Object previous = super.remove(key);
+        changed((String) key);
+        return previous;
+    }
+
+    @Override
+    public synchronized void clear() {
+        for (String key : map.keySet()) {
+            changed(key);
+        }
+        super.clear();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(super.keySet());
+    }
+
+    @Override
+    public Collection<Object> values() {
+        return Collections.unmodifiableCollection(super.values());
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return Collections.unmodifiableMap(map).entrySet();
+    }
+
+    /**
+     * @param keys receives all the keys of the bindings
+     * @return version of the bindings when the keys are taken
+     */
+    synchronized long keys(Set<String> keys) {
+        keys.addAll(map.keySet());
+        return version;
+    }
+
+    /**
+     * @param since a version returned before
+     * @param keys  receives keys put or removed after the version
+     * @return the current version
+     */
+    synchronized long changedKeys(long since, Set<String> keys) {
+        keys.addAll(changes.tailMap(since, false).values());
+        return version;
+    }
+}
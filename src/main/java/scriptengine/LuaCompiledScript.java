@@ -0,0 +1,30 @@
+package scriptengine;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+/**
+ * a code chunk compiled once by {@link LuaScriptEngine}, evaluating it only binds the context and calls the
+ * chunk loaded into an executor of the engine
+ */
+public class LuaCompiledScript extends CompiledScript {
+    private final LuaScriptEngine engine;
+    private final ChunkCache.Chunk chunk;
+
+    LuaCompiledScript(LuaScriptEngine engine, ChunkCache.Chunk chunk) {
+        this.engine = engine;
+        this.chunk = chunk;
+    }
+
+    @Override
+    public Object eval(ScriptContext context) throws ScriptException {
+        return engine.eval(chunk, context);
+    }
+
+    @Override
+    public ScriptEngine getEngine() {
+        return engine;
+    }
+}
@@ -0,0 +1,254 @@
+package scriptengine;
+
+import net.sandius.rembulan.ByteString;
+import net.sandius.rembulan.Table;
+import net.sandius.rembulan.runtime.Coroutine;
+import net.sandius.rembulan.runtime.LuaFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * registry deciding how java values passed to lua are converted, keyed by class.
+ * <p>
+ * the way to convert a class is looked up once and cached: lua values such as numbers, strings and tables are
+ * passed as they are, long[], double[], int[], byte[] and byte buffers are viewed by tables without copying, a
+ * {@link LuaSharedTable} is its read-only table in every state, maps,
+ * collections, other arrays and beans become tables, enums, dates and classes without properties stay userdata.
+ * a converter registered for one of our own types, its subclasses or implementations takes priority over the
+ * built-in strategies. no exception is thrown to find out what a value is
+ */
+public final class LuaConverters {
+    private static final Logger logger = LoggerFactory.getLogger(LuaConverters.class);
+
+    /**
+     * converts a java type to a lua value
+     *
+     * @param <T> the java type
+     */
+    @FunctionalInterface
+    public interface Converter<T> {
+        /**
+         * @param value a non-null java value
+         * @return a lua value, or a map, collection, array or bean which is converted to a table in turn
+         */
+        Object toLua(T value);
+    }
+
+    private enum Kind {
+        AS_IS, CUSTOM, VIEW, SHARED, MAP, COLLECTION, ARRAY, BEAN
+    }
+
+    /**
+     * converters keyed by the type they are registered for, only called with instances of that type
+     */
+    private static final Map<Class<?>, Converter<Object>> converters = new ConcurrentHashMap<>();
+    /**
+     * changed by every registration, strategies computed before are stale
+     */
+    private static final AtomicInteger generation = new AtomicInteger();
+
+    private static final ClassValue<Strategy> STRATEGIES = new ClassValue<Strategy>() {
+        @Override
+        protected Strategy computeValue(Class<?> type) {
+            return strategyOf(type);
+        }
+    };
+
+    private LuaConverters() {
+    }
+
+    /**
+     * register a converter of a type, also used for subclasses and implementations of the type unless they have
+     * a converter of their own. registering a type again replaces its converter
+     *
+     * @param type      a java class or interface
+     * @param converter the converter
+     * @param <T>       the java type
+     */
+    public static <T> void register(Class<T> type, Converter<? super T> converter) {
+        if (type == null) throw new NullPointerException("type must not be null");
+        if (converter == null) throw new NullPointerException("converter must not be null");
+        @SuppressWarnings("unchecked") Converter<Object> any = (Converter<Object>) converter;
+        converters.put(type, any);
+        generation.incrementAndGet();
+    }
+
+    /**
+     * remove the converter of a type, the type is converted by the built-in strategies again
+     *
+     * @param type a java class or interface
+     */
+    public static void unregister(Class<?> type) {
+        if (converters.remove(type) != null) {
+            generation.incrementAndGet();
+        }
+    }
+
+    /**
+     * convert a java value to a lua value
+     *
+     * @param value a java value
+     * @param mode  whether maps, lists and beans are copied to tables or viewed by proxies
+     * @return a lua value
+     */
+    static Object toLua(Object value, ConversionMode mode) {
+        if (value == null) {
+            return null;
+        }
+        Strategy strategy = strategyOf(value);
+        switch (strategy.kind) {
+            case AS_IS:
+                return value;
+            case CUSTOM:
+                Object converted = strategy.converter.toLua(value);
+                return converted == value ? value : toLua(converted, mode);
+            case VIEW:
+                return ArrayTable.of(value);
+            case SHARED:
+                return ((LuaSharedTable) value).table();
+            case MAP:
+                return mode == ConversionMode.PROXY ? ProxyTable.of(value) : new MetaTable((Map) value);
+            case COLLECTION:
+                return mode == ConversionMode.PROXY && value instanceof List
+                        ? ProxyTable.of(value) : new MetaTable((Collection) value);
+            case ARRAY:
+                return mode == ConversionMode.PROXY && value instanceof Object[]
+                        ? ProxyTable.of(Arrays.asList((Object[]) value)) : MetaTable.ofArray(value);
+            case BEAN:
+                if (mode == ConversionMode.PROXY) {
+                    return ProxyTable.of(value);
+                }
+                try {
+                    return MetaTable.ofBean(value, strategy.accessor);
+                } catch (IllegalStateException e) {
+                    logger.info(e.getMessage(), e);
+                    return value;
+                }
+            default:
+                throw new IllegalStateException("unknown conversion " + strategy.kind);
+        }
+    }
+
+    /**
+     * whether a value is viewed by a {@link ProxyTable} in {@link ConversionMode#PROXY}: maps, lists and beans
+     * without a converter of their own
+     *
+     * @param value a non-null java value
+     */
+    static boolean isProxied(Object value) {
+        switch (strategyOf(value).kind) {
+            case MAP:
+            case BEAN:
+                return true;
+            case COLLECTION:
+                return value instanceof List;
+            default:
+                return false;
+        }
+    }
+
+    private static Strategy strategyOf(Object value) {
+        Class<?> type = value.getClass();
+        Strategy strategy = STRATEGIES.get(type);
+        if (strategy.generation != generation.get()) {
+            STRATEGIES.remove(type);
+            strategy = STRATEGIES.get(type);
+        }
+        return strategy;
+    }
+
+    private static Strategy strategyOf(Class<?> type) {
+        int current = generation.get();
+        Converter<Object> converter = converterOf(type);
+        if (converter != null) {
+            return new Strategy(Kind.CUSTOM, converter, null, current);
+        }
+        if (ArrayTable.isViewable(type)) {
+            return new Strategy(Kind.VIEW, null, null, current);
+        } else if (type == LuaSharedTable.class) {
+            return new Strategy(Kind.SHARED, null, null, current);
+        } else if (Map.class.isAssignableFrom(type)) {
+            return new Strategy(Kind.MAP, null, null, current);
+        } else if (Collection.class.isAssignableFrom(type)) {
+            return new Strategy(Kind.COLLECTION, null, null, current);
+        } else if (type.isArray()) {
+            return new Strategy(Kind.ARRAY, null, null, current);
+        } else if (!isUserdata(type) || Enum.class.isAssignableFrom(type) || Date.class.isAssignableFrom(type)) {
+            return new Strategy(Kind.AS_IS, null, null, current);
+        }
+        BeanAccessor accessor = BeanAccessor.of(type);
+        if (!accessor.hasProperties()) {
+            return new Strategy(Kind.AS_IS, null, null, current);
+        }
+        return new Strategy(Kind.BEAN, null, accessor, current);
+    }
+
+    /**
+     * the converter of the nearest superclass, then of the interfaces in declaration order
+     */
+    private static Converter<Object> converterOf(Class<?> type) {
+        if (converters.isEmpty()) {
+            return null;
+        }
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            Converter<Object> converter = converters.get(c);
+            if (converter != null) {
+                return converter;
+            }
+        }
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            for (Class<?> i : c.getInterfaces()) {
+                Converter<Object> converter = converterOfInterface(i);
+                if (converter != null) {
+                    return converter;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Converter<Object> converterOfInterface(Class<?> type) {
+        Converter<Object> converter = converters.get(type);
+        if (converter != null) {
+            return converter;
+        }
+        for (Class<?> i : type.getInterfaces()) {
+            converter = converterOfInterface(i);
+            if (converter != null) {
+                return converter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * classes of lua values have a lua type other than userdata, as {@code LuaType.typeOf} decides
+     */
+    private static boolean isUserdata(Class<?> type) {
+        return !(Boolean.class == type || String.class == type || Number.class.isAssignableFrom(type)
+                || ByteString.class.isAssignableFrom(type) || Table.class.isAssignableFrom(type)
+                || LuaFunction.class.isAssignableFrom(type) || Coroutine.class.isAssignableFrom(type));
+    }
+
+    private static final class Strategy {
+        private final Kind kind;
+        private final Converter<Object> converter;
+        private final BeanAccessor accessor;
+        private final int generation;
+
+        Strategy(Kind kind, Converter<Object> converter, BeanAccessor accessor, int generation) {
+            this.kind = kind;
+            this.converter = converter;
+            this.accessor = accessor;
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package scriptengine;
+
+import net.sandius.rembulan.StateContext;
+import net.sandius.rembulan.Table;
+import net.sandius.rembulan.env.RuntimeEnvironments;
+import net.sandius.rembulan.impl.StateContexts;
+import net.sandius.rembulan.lib.ModuleLib;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * a frozen base environment built once and shared by many executors.
+ * <p>
+ * every executor created from the environment gets copy-on-write overlays of the globals and of the basic type
+ * metatables, reads fall through to the shared base and writes go to a small per-executor layer, so creating an
+ * executor doesn't rebuild the standard library. the <b>package</b> library is the exception: library functions
+ * keep referring to the tables they were installed with, so every executor gets its own <b>package</b> and
+ * <b>require</b>, and modules loaded by one executor are cached in its own <b>package.loaded</b> only
+ */
+public class LuaEnvironment {
+    private final StateContext state;
+    private final Table globals;
+    /**
+     * whether executors get their own package library
+     */
+    private final boolean modules;
+
+    private LuaEnvironment(StateContext state, Table globals, boolean modules) {
+        this.state = state;
+        this.globals = globals;
+        this.modules = modules;
+    }
+
+    /**
+     * build a snapshot of the standard library of lua 5.3
+     *
+     * @return a new environment
+     */
+    public static LuaEnvironment snapshot() {
+        return snapshot(LuaProfile.FULL);
+    }
+
+    /**
+     * build a snapshot of the libraries of a profile
+     *
+     * @param profile libraries to install
+     * @return a new environment
+     */
+    public static LuaEnvironment snapshot(LuaProfile profile) {
+        StateContext state = StateContexts.newDefaultInstance();
+        Table globals = profile.installInto(state);
+        return new LuaEnvironment(state, globals, profile.getLibraries().contains(LuaProfile.Library.PACKAGE));
+    }
+
+    /**
+     * @return the snapshot of the standard library shared by the JVM, built on first use
+     */
+    public static LuaEnvironment standard() {
+        return LuaProfile.FULL.environment();
+    }
+
+    /**
+     * create overlays of the globals and the basic type metatables for a new executor
+     *
+     * @param target a new state of the executor
+     * @return overlay of the globals
+     */
+    Table install(StateContext target) {
+        Map<Table, OverlayTable> overlays = new IdentityHashMap<>();
+        Table env = new OverlayTable(globals, overlays);
+        target.setNilMetatable(OverlayTable.overlay(state.getNilMetatable(), overlays));
+        target.setBooleanMetatable(OverlayTable.overlay(state.getBooleanMetatable(), overlays));
+        target.setNumberMetatable(OverlayTable.overlay(state.getNumberMetatable(), overlays));
+        target.setStringMetatable(OverlayTable.overlay(state.getStringMetatable(), overlays));
+        target.setFunctionMetatable(OverlayTable.overlay(state.getFunctionMetatable(), overlays));
+        target.setThreadMetatable(OverlayTable.overlay(state.getThreadMetatable(), overlays));
+        target.setLightUserdataMetatable(OverlayTable.overlay(state.getLightUserdataMetatable(), overlays));
+        if (modules) {
+            installModules(target, env, overlays);
+        }
+        return env;
+    }
+
+    /**
+     * install a package library of the executor into the overlay of the globals, its <b>package.loaded</b> starts
+     * with the overlays of the libraries loaded in the base
+     */
+    private void installModules(StateContext target, Table env, Map<Table, OverlayTable> overlays) {
+        ModuleLib.installInto(target, env, RuntimeEnvironments.system(), null, null);
+        Table baseLoaded = (Table) ((Table) globals.rawget("package")).rawget("loaded");
+        Table loaded = (Table) ((Table) env.rawget("package")).rawget("loaded");
+        for (Object key = baseLoaded.initialKey(); key != null; key = baseLoaded.successorKeyOf(key)) {
+            if (loaded.rawget(key) == null) {
+                loaded.rawset(key, OverlayTable.overlay(baseLoaded.rawget(key), overlays));
+            }
+        }
+    }
+}
@@ -1,56 +1,134 @@
 package scriptengine;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import exception.LuaException;
+import exception.LuaQuotaException;
 import net.sandius.rembulan.*;
-import net.sandius.rembulan.compiler.CompilerChunkLoader;
-import net.sandius.rembulan.env.RuntimeEnvironments;
+import net.sandius.rembulan.compiler.CompilerSettings;
 import net.sandius.rembulan.exec.CallException;
 import net.sandius.rembulan.exec.CallPausedException;
+import net.sandius.rembulan.exec.Continuation;
 import net.sandius.rembulan.exec.DirectCallExecutor;
 import net.sandius.rembulan.impl.StateContexts;
-import net.sandius.rembulan.lib.StandardLibrary;
-import net.sandius.rembulan.load.ChunkLoader;
 import net.sandius.rembulan.load.LoaderException;
 import net.sandius.rembulan.runtime.LuaFunction;
-import org.apache.commons.collections.map.ListOrderedMap;
+import net.sandius.rembulan.runtime.RuntimeCallInitialiser;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
+import javax.script.Bindings;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.Collection;
+import java.lang.reflect.Type;
+import java.nio.file.Path;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Created by JiangCheng on 2017/6/8.
  */
 public class LuaExecutor {
+    /**
+     * creates the tables of the state, tables created by a call under a quota are accounted
+     */
+    private final QuotaTableFactory tables = new QuotaTableFactory();
     /**
      * default context
      */
-    private StateContext state = StateContexts.newDefaultInstance();
+    private StateContext state = StateContexts.newInstance(tables, StateContexts.newDefaultInstance());
     /**
      * all the context of the executor, actually key-value map
      * default context is standard library of lua 5.3, but compilation of code chunk may add new values
      */
-    private Table env = StandardLibrary.in(RuntimeEnvironments.system()).installInto(state);
+    private Table env;
     /**
      * default executor of Rembulan
      */
     private DirectCallExecutor executor = DirectCallExecutor.newExecutor();
+    /**
+     * how userdata passed to lua become tables
+     */
+    private ConversionMode conversionMode = ConversionMode.COPY;
+    /**
+     * settings compiling the chunks loaded by the executor
+     */
+    private CompilerSettings compilerSettings = COMPILER_SETTINGS;
+    /**
+     * listener of compilations, calls and conversions
+     */
+    private LuaMetrics metrics = LuaMetrics.NONE;
+    /**
+     * memory limits of every run or call
+     */
+    private LuaQuota quota = LuaQuota.NONE;
+    /**
+     * bytes allocated by conversions for the next call under a quota
+     */
+    private long convertedBytes;
+    /**
+     * scheduler of async calls, the shared one if null
+     */
+    private LuaScheduler scheduler;
+    /**
+     * global and engine scope of the bindings last installed into env
+     */
+    private final Scope globalScope = new Scope();
+    private final Scope engineScope = new Scope();
+    /**
+     * lua values last installed from the scopes by key, a key whose value in env is another one has been assigned by
+     * a script and is installed again
+     */
+    private final Map<String, Object> installed = new HashMap<>();
+    /**
+     * installed keys bound to java objects copied into tables, copied again on every install
+     */
+    private final Set<String> copied = new HashSet<>();
+    /**
+     * values of env before the scopes first installed a key, restored when the key is no longer bound
+     */
+    private final Map<String, Object> shadowed = new HashMap<>();
 
-    static private final String ROOT_CLASS_PREFIX = "LUA_CLASSES";
-    static private final String FUNCTION_NAME = "LUA_FUNCTION";
+    static final CompilerSettings COMPILER_SETTINGS = CompilerSettings.defaultSettings();
+    static final String FUNCTION_NAME = "LUA_FUNCTION";
 
     private static final Logger logger = LoggerFactory.getLogger(LuaExecutor.class);
+    /**
+     * executor running a script on the current thread, a java function called by the script may use it again
+     */
+    private static final ThreadLocal<LuaExecutor> RUNNING = new ThreadLocal<>();
+
+    /**
+     * create an executor with its own standard library
+     */
+    public LuaExecutor() {
+        this(LuaProfile.FULL);
+    }
+
+    /**
+     * create an executor with its own copy of the libraries of a profile
+     *
+     * @param profile libraries installed into env, e.g. {@link LuaProfile#MINIMAL}
+     */
+    public LuaExecutor(LuaProfile profile) {
+        env = profile.installInto(state);
+    }
+
+    /**
+     * create an executor on a shared base environment, env of the executor is a copy-on-write overlay of the base
+     * so the standard library is not built again
+     *
+     * @param environment a frozen base environment, e.g. {@link LuaEnvironment#standard()}
+     */
+    public LuaExecutor(LuaEnvironment environment) {
+        env = environment.install(state);
+    }
 
     /**
      * run a code chunk
@@ -64,30 +142,23 @@ public class LuaExecutor {
         if (StringUtils.isBlank(script)) {
             return null;
         }
-        ChunkLoader loader = CompilerChunkLoader.of(ROOT_CLASS_PREFIX);
-        try {
-            LuaFunction function = loader.loadTextChunk(new Variable(env), FUNCTION_NAME, script);
-            return executor.call(state, function, convertArgs(args));
-        } catch (LoaderException | InterruptedException | CallException | CallPausedException e) {
-            logger.info(e.getMessage(), e);
-            throw new LuaException(e.getMessage());
-        }
+        return call(load(script), args);
     }
 
     public Object[] run(File file, Object... args) throws LuaException {
-        StringBuffer script = new StringBuffer();
-        try {
-            BufferedReader reader = new BufferedReader(new FileReader(file));
-            char[] buffer = new char[200];
-            int len = reader.read(buffer, 0, 200);
-            while (len > 0) {
-                script.append(buffer, 0, len);
-                len = reader.read(buffer, 0, 200);
-            }
-        } catch (IOException e) {
-            throw new LuaException("fail to load source file");
-        }
-        return run(script.toString(), args);
+        return run(file.toPath(), args);
+    }
+
+    /**
+     * run a lua source file encoded in UTF-8, the file is read and compiled again only after it has changed
+     *
+     * @param file a lua source file
+     * @param args optional parameters, but userdata will be converted to table in lua
+     * @return results of the chunk if anything is returned or null
+     * @throws LuaException if the file can not be read or compiled, or the chunk fails
+     */
+    public Object[] run(Path file, Object... args) throws LuaException {
+        return call(load(file), args);
     }
 
     /**
@@ -104,11 +175,203 @@ public class LuaExecutor {
         if (function == null) {
             throw new NoSuchMethodException("no such method called " + functionName);
         }
+        return call(function, args);
+    }
+
+    /**
+     * call a loaded function with given arguments
+     *
+     * @param function a function loaded by {@link #load(String)} or declared in env
+     * @param args     arguments used by the function, userdata will be converted to table in lua
+     * @return results of the function if anything is returned or null
+     * @throws LuaException
+     */
+    public Object[] call(LuaFunction function, Object... args) throws LuaException {
+        long allocated = startQuotaConversion();
+        Object[] converted = convertArgs(args);
+        quotaConverted(allocated);
+        return callConverted(function, converted);
+    }
+
+    /**
+     * run a code chunk for at most the given ticks, a script which doesn't return within its ticks is paused
+     * instead of failing, so a runaway script can't hold the thread
+     *
+     * @param script a code chunk to be compiled and called
+     * @param ticks  max ticks of the slice, roughly the count of lua operations executed
+     * @param args   optional parameters, userdata will be converted to table in lua
+     * @return results of the chunk or its continuation
+     * @throws LuaException if the chunk can not be compiled or fails
+     */
+    public LuaSlice runWithBudget(String script, long ticks, Object... args) throws LuaException {
+        return callWithBudget(load(script), ticks, args);
+    }
+
+    /**
+     * call a loaded function for at most the given ticks
+     *
+     * @param function a function loaded by {@link #load(String)} or declared in env
+     * @param ticks    max ticks of the slice
+     * @param args     arguments used by the function, userdata will be converted to table in lua
+     * @return results of the function or its continuation
+     * @throws LuaException if the function fails
+     */
+    public LuaSlice callWithBudget(LuaFunction function, long ticks, Object... args) throws LuaException {
+        LuaExecutor outer = enter();
+        try {
+            return LuaSlice.returned(
+                    DirectCallExecutor.newExecutorWithTickLimit(ticks).call(state, function, convertArgs(args)));
+        } catch (CallPausedException e) {
+            metrics.paused();
+            return LuaSlice.paused(e.getContinuation());
+        } catch (CallException | InterruptedException e) {
+            logger.info(e.getMessage(), e);
+            throw new LuaException(e.getMessage());
+        } finally {
+            exit(outer);
+        }
+    }
+
+    /**
+     * go on with a paused script for another slice of ticks
+     *
+     * @param continuation continuation of a paused {@link LuaSlice}, must not be resumed twice
+     * @param ticks        max ticks of the slice
+     * @return results of the script or its new continuation
+     * @throws LuaException if the script fails
+     */
+    public LuaSlice resume(Continuation continuation, long ticks) throws LuaException {
+        metrics.resumed();
+        LuaExecutor outer = enter();
+        try {
+            return LuaSlice.returned(DirectCallExecutor.newExecutorWithTickLimit(ticks).resume(continuation));
+        } catch (CallPausedException e) {
+            metrics.paused();
+            return LuaSlice.paused(e.getContinuation());
+        } catch (CallException | InterruptedException e) {
+            logger.info(e.getMessage(), e);
+            throw new LuaException(e.getMessage());
+        } finally {
+            exit(outer);
+        }
+    }
+
+    /**
+     * run a code chunk on the scheduler of the executor without blocking the calling thread. like blocking calls,
+     * an executor runs one script at a time, the executor must not be used again until the future completes
+     *
+     * @param script a code chunk to be compiled and called
+     * @param args   optional parameters, userdata will be converted to table in lua
+     * @return future of the results of the chunk, failed with {@link LuaException} if the chunk can not be
+     * compiled or fails
+     */
+    public CompletableFuture<Object[]> runAsync(String script, Object... args) {
+        LuaFunction function;
         try {
-            return executor.call(state, function, convertArgs(args));
+            function = load(script);
+        } catch (LuaException e) {
+            CompletableFuture<Object[]> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return callAsync(function, args);
+    }
+
+    /**
+     * call a loaded function on the scheduler of the executor without blocking the calling thread
+     *
+     * @param function a function loaded by {@link #load(String)} or declared in env
+     * @param args     arguments used by the function, userdata will be converted to table in lua
+     * @return future of the results of the function, failed with {@link LuaException} if the function fails
+     */
+    public CompletableFuture<Object[]> callAsync(LuaFunction function, Object... args) {
+        Object[] luaArgs = args != null ? Conversions.copyAsCanonicalValues(convertArgs(args)) : new Object[0];
+        return getScheduler().submit(RuntimeCallInitialiser.forState(state).newCall(function, luaArgs), this);
+    }
+
+    /**
+     * call a function with arguments already converted to lua values
+     */
+    Object[] callConverted(LuaFunction function, Object[] args) throws LuaException {
+        LuaMetrics metrics = this.metrics;
+        boolean measured = metrics != LuaMetrics.NONE;
+        long allocated = measured && metrics.recordsAllocations() ? ThreadAllocations.current() : -1L;
+        long start = measured ? System.nanoTime() : 0L;
+        LuaExecutor outer = enter();
+        try {
+            Object[] results = quota == LuaQuota.NONE ? executor.call(state, function, args) : callWithQuota(function, args);
+            if (measured) {
+                long nanos = System.nanoTime() - start;
+                metrics.called(ChunkCache.scriptNameOf(function.getClass()), nanos,
+                        allocated >= 0 ? ThreadAllocations.current() - allocated : -1L);
+            }
+            return results;
         } catch (CallException | CallPausedException | InterruptedException e) {
+            if (measured) {
+                metrics.failed(ChunkCache.scriptNameOf(function.getClass()), System.nanoTime() - start);
+            }
             logger.info(e.getMessage(), e);
             throw new LuaException(e.getMessage());
+        } catch (LuaQuotaException e) {
+            if (measured) {
+                metrics.failed(ChunkCache.scriptNameOf(function.getClass()), System.nanoTime() - start);
+            }
+            logger.info(e.getMessage());
+            throw e;
+        } finally {
+            exit(outer);
+        }
+    }
+
+    /**
+     * @return executor running a script on the current thread, null if no script is running
+     */
+    static LuaExecutor running() {
+        return RUNNING.get();
+    }
+
+    /**
+     * mark the executor running a script on the current thread
+     *
+     * @return executor marked before, restored by {@link #exit(LuaExecutor)} when the script returns
+     */
+    LuaExecutor enter() {
+        LuaExecutor outer = RUNNING.get();
+        RUNNING.set(this);
+        return outer;
+    }
+
+    static void exit(LuaExecutor outer) {
+        RUNNING.set(outer);
+    }
+
+    /**
+     * call a function accounted by a budget, which stops the function when it goes over the quota
+     */
+    private Object[] callWithQuota(LuaFunction function, Object[] args)
+            throws LuaQuotaException, CallException, CallPausedException, InterruptedException {
+        MemoryBudget budget = new MemoryBudget(quota, convertedBytes);
+        convertedBytes = 0L;
+        if (!budget.check()) {
+            throw budget.toException();
+        }
+        // a nested call from a java function keeps the budget of the script calling it
+        MemoryBudget outer = tables.budget;
+        tables.budget = budget;
+        try {
+            Object[] results = DirectCallExecutor.newExecutor(() -> budget).call(state, function, args);
+            // a failure caught by pcall doesn't make the call succeed
+            if (!budget.check()) {
+                throw budget.toException();
+            }
+            return results;
+        } catch (CallException | CallPausedException e) {
+            if (budget.isExceeded()) {
+                throw budget.toException();
+            }
+            throw e;
+        } finally {
+            tables.budget = outer;
         }
     }
 
@@ -122,18 +385,125 @@ public class LuaExecutor {
      * @throws LuaException
      */
     public Object[] runWithContext(String script, Map<String, Object> context, Object... args) throws LuaException {
-        for (String key : context.keySet()) {
-            try {
-                env.rawset(key, new MetaTable(context.get(key)));
-            } catch (LuaException e) {
-                env.rawset(key, context.get(key));
+        putContext(context);
+        return call(load(script), args);
+    }
+
+    /**
+     * run a code chunk once for every record, keys of a record are bound into env before the chunk is run.
+     * the chunk is compiled once and only keys whose values differ from the previous record are converted and bound
+     * again, keys missing from a record are cleared. once the records are exhausted the keys bound by the batch get
+     * their values from before the batch again
+     *
+     * @param script  a code chunk to be compiled
+     * @param records key-value records, a record map may be reused for the next record
+     * @return results of the chunk for every record, computed lazily by the iterator, a record failing the chunk
+     * makes {@link Iterator#next()} throw {@link IllegalStateException}
+     * @throws LuaException if the chunk can not be compiled
+     */
+    public Iterator<Object[]> runBatch(String script, Iterator<? extends Map<String, ?>> records)
+            throws LuaException {
+        Batch batch = batch(compile(script), Collections.emptyMap());
+        return new Iterator<Object[]>() {
+            @Override
+            public boolean hasNext() {
+                if (records.hasNext()) {
+                    return true;
+                }
+                batch.finish();
+                return false;
+            }
+
+            @Override
+            public Object[] next() {
+                try {
+                    return batch.run(records.next());
+                } catch (LuaException e) {
+                    throw new IllegalStateException(e.getMessage(), e);
+                }
             }
+        };
+    }
+
+    /**
+     * start a batch of a compiled chunk
+     *
+     * @param chunk    a chunk compiled by any executor
+     * @param defaults values bound again to keys missing from a record, e.g. the bindings of an engine
+     */
+    Batch batch(ChunkCache.Chunk chunk, Map<String, ?> defaults) throws LuaException {
+        return new Batch(load(chunk), defaults);
+    }
+
+    /**
+     * compile a code chunk into a function bound to executor's env, the function can be called many times
+     * without compiling the chunk again, compiled chunks are shared by all executors through {@link ChunkCache}
+     *
+     * @param script a code chunk to be compiled
+     * @return the main function of the chunk
+     * @throws LuaException if the chunk can not be compiled
+     */
+    public LuaFunction load(String script) throws LuaException {
+        return load(compile(script));
+    }
+
+    /**
+     * compile a lua source file into a function bound to executor's env, see {@link #load(String)}
+     *
+     * @param file a lua source file encoded in UTF-8
+     * @return the main function of the chunk
+     * @throws LuaException if the file can not be read or compiled
+     */
+    public LuaFunction load(Path file) throws LuaException {
+        return load(compile(file));
+    }
+
+    /**
+     * compile a lua source file without binding it to any env
+     *
+     * @param file a lua source file encoded in UTF-8
+     * @return the compiled chunk, can be loaded by any executor
+     * @throws LuaException if the file can not be read or compiled
+     */
+    ChunkCache.Chunk compile(Path file) throws LuaException {
+        try {
+            return ChunkCache.shared().get(FUNCTION_NAME, file, compilerSettings, metrics);
+        } catch (LoaderException e) {
+            logger.info(e.getMessage(), e);
+            throw new LuaException(e.getMessage());
+        } catch (IOException e) {
+            logger.info(e.getMessage(), e);
+            throw new LuaException("fail to load source file " + file + ": " + e.getMessage());
         }
-        ChunkLoader loader = CompilerChunkLoader.of(ROOT_CLASS_PREFIX);
+    }
+
+    /**
+     * compile a code chunk without binding it to any env
+     *
+     * @param script a code chunk to be compiled
+     * @return the compiled chunk, can be loaded by any executor
+     * @throws LuaException if the chunk can not be compiled
+     */
+    ChunkCache.Chunk compile(String script) throws LuaException {
         try {
-            LuaFunction function = loader.loadTextChunk(new Variable(env), FUNCTION_NAME, script);
-            return executor.call(state, function, convertArgs(args));
-        } catch (LoaderException | InterruptedException | CallException | CallPausedException e) {
+            return ChunkCache.shared().get(FUNCTION_NAME, script, compilerSettings, metrics);
+        } catch (LoaderException e) {
+            logger.info(e.getMessage(), e);
+            throw new LuaException(e.getMessage());
+        }
+    }
+
+    /**
+     * bind a compiled chunk to executor's env
+     *
+     * @param chunk a chunk compiled by any executor
+     * @return the main function of the chunk
+     * @throws LuaException if the chunk can not be loaded
+     */
+    LuaFunction load(ChunkCache.Chunk chunk) throws LuaException {
+        try {
+            return chunk.newInstance(new Variable(env), FUNCTION_NAME);
+        } catch (LoaderException e) {
             logger.info(e.getMessage(), e);
             throw new LuaException(e.getMessage());
         }
@@ -154,6 +524,16 @@ public class LuaExecutor {
         }
     }
 
+    /**
+     * put a java function into executor's env, e.g. one built by {@link LuaFunctions}
+     *
+     * @param name     global name of the function
+     * @param function the function, null removes the name
+     */
+    public void register(String name, LuaFunction function) {
+        env.rawset(name, function);
+    }
+
     /**
      * add context to executor's env
      *
@@ -164,12 +544,92 @@ public class LuaExecutor {
         if (context == null || context.isEmpty()) {
             return;
         }
+        long start = startConversion();
+        long allocated = startQuotaConversion();
         for (String key : context.keySet()) {
-            try {
-                env.rawset(key, new MetaTable(context.get(key)));
-            } catch (LuaException e) {
-                env.rawset(key, context.get(key));
+            env.rawset(key, toLuaValue(context.get(key)));
+        }
+        quotaConverted(allocated);
+        bindingsConverted(context.size(), start);
+    }
+
+    /**
+     * install the bindings of a script context into env, engine scope has higher priority. only keys changed since
+     * the previous install, or assigned by a script since, are converted and bound, java objects are copied again
+     * every time unless they are converted by {@link ConversionMode#PROXY}. a key removed from the bindings gets
+     * back the value env had before it was bound. changes of {@link LuaBindings} are tracked by version, other
+     * bindings are installed again as a whole
+     *
+     * @param global bindings of global scope, may be null
+     * @param engine bindings of engine scope, may be null
+     */
+    void putScopes(Bindings global, Bindings engine) {
+        Set<String> changed = new HashSet<>(copied);
+        globalScope.collectChanges(global, changed);
+        engineScope.collectChanges(engine, changed);
+        for (Map.Entry<String, Object> entry : installed.entrySet()) {
+            if (env.rawget(entry.getKey()) != entry.getValue()) {
+                changed.add(entry.getKey());
+            }
+        }
+        long start = startConversion();
+        long allocated = startQuotaConversion();
+        for (String key : changed) {
+            Object value;
+            if (engine != null && engine.containsKey(key)) {
+                value = engine.get(key);
+            } else {
+                value = global != null ? global.get(key) : null;
+            }
+            if (value == null) {
+                if (installed.remove(key) != null) {
+                    env.rawset(key, shadowed.remove(key));
+                }
+                copied.remove(key);
+                continue;
+            }
+            if (!installed.containsKey(key)) {
+                shadowed.put(key, env.rawget(key));
             }
+            Object luaValue = toLuaValue(value);
+            env.rawset(key, luaValue);
+            installed.put(key, luaValue);
+            if (LuaType.typeOf(value) == LuaType.USERDATA && conversionMode != ConversionMode.PROXY) {
+                copied.add(key);
+            } else {
+                copied.remove(key);
+            }
+        }
+        quotaConverted(allocated);
+        bindingsConverted(changed.size(), start);
+    }
+
+    /**
+     * @return start time of a conversion if it is measured
+     */
+    private long startConversion() {
+        return metrics != LuaMetrics.NONE ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * @return allocation counter of the thread before a conversion if the executor has a quota, -1 otherwise
+     */
+    private long startQuotaConversion() {
+        return quota != LuaQuota.NONE ? ThreadAllocations.current() : -1L;
+    }
+
+    /**
+     * charge the bytes allocated by a conversion to the next call
+     */
+    private void quotaConverted(long allocated) {
+        if (allocated >= 0) {
+            convertedBytes += ThreadAllocations.current() - allocated;
+        }
+    }
+
+    private void bindingsConverted(int count, long start) {
+        if (metrics != LuaMetrics.NONE && count > 0) {
+            metrics.bindingsConverted(count, System.nanoTime() - start);
         }
     }
 
@@ -181,301 +641,249 @@ public class LuaExecutor {
      */
     private Object[] convertArgs(Object... args) {
         if (args == null) return null;
+        long start = startConversion();
         for (int i = 0; i < args.length; i++) {
-            try {
-                args[i] = new MetaTable(args[i]);
-            } catch (LuaException e) {
-                continue;
-            }
+            args[i] = toLuaValue(args[i]);
+        }
+        if (metrics != LuaMetrics.NONE && args.length > 0) {
+            metrics.argumentsConverted(args.length, System.nanoTime() - start);
         }
         return args;
     }
 
     /**
-     * convert non-userdata lua result to exact java class object
+     * convert a java value by {@link LuaConverters} according to conversion mode of the executor
      *
-     * @param luaResult a result returned by executing scripts
-     * @param clazz     target java class
-     * @param <T>       target java type
-     * @return a java object
+     * @param value a java value
+     * @return a lua value
      */
-    public static <T> T toJavaObject(Object luaResult, Class<T> clazz) {
-        return ((MetaTable) luaResult).toExactObject(clazz);
+    Object toLuaValue(Object value) {
+        return LuaConverters.toLua(value, conversionMode);
     }
 
     /**
-     * convert lua table to java list, only number indexed value will be returned
-     *
-     * @param luaResult table indexed by number
-     * @return number indexed value in list
+     * @param conversionMode how maps, collections and beans passed to lua become tables, {@link ConversionMode#COPY}
+     *                       by default
      */
-    public static List toJavaList(Object luaResult) {
-        return ((MetaTable) luaResult).toList();
+    public void setConversionMode(ConversionMode conversionMode) {
+        this.conversionMode = conversionMode != null ? conversionMode : ConversionMode.COPY;
     }
 
-    private static class MetaTable extends Table {
-        /**
-         * to store a table whose key type is <b>Integer</b> or <b>Long</b> in Java
-         */
-        private ListOrderedMap longKeyTable = new ListOrderedMap();
-
-        /**
-         * to store a table whose key type is <b>Double</b> or <b>Float</b> in Java
-         */
-        private ListOrderedMap doubleKeyTable = new ListOrderedMap();
-
-        /**
-         * to store a table whose key type is <b>string</b> in Lua
-         */
-        private ListOrderedMap stringKeyTable = new ListOrderedMap();
-
-        /**
-         * to store a table whose key type is <b>Boolean</b> in Java
-         */
-        private ListOrderedMap boolKeyTable = new ListOrderedMap();
+    public ConversionMode getConversionMode() {
+        return conversionMode;
+    }
 
-        /**
-         * for extension, not implemented
-         */
-        private Map<Object, Object> table = new HashMap<>();
+    /**
+     * set the settings compiling chunks loaded from now on, chunks are cached by text and settings so a script
+     * compiled under other settings is compiled again. without cpu accounting a script can't be paused, tick
+     * budgets and slices of the scheduler have no effect on it, so only trusted scripts should run without it
+     *
+     * @param compilerSettings settings of the compiler, {@link CompilerSettings#defaultSettings()} by default
+     */
+    public void setCompilerSettings(CompilerSettings compilerSettings) {
+        this.compilerSettings = compilerSettings != null ? compilerSettings : COMPILER_SETTINGS;
+    }
 
-        protected MetaTable() {
-            super();
-        }
+    public CompilerSettings getCompilerSettings() {
+        return compilerSettings;
+    }
 
-        protected MetaTable(Map table) {
-            buildMetaTable(this, table);
-        }
+    /**
+     * @param metrics listener of compilations, calls and conversions of the executor, {@link LuaMetrics#NONE} by
+     *                default
+     */
+    public void setMetrics(LuaMetrics metrics) {
+        this.metrics = metrics != null ? metrics : LuaMetrics.NONE;
+    }
 
-        protected MetaTable(Collection collection) {
-            buildMetaTable(this, collection);
-        }
+    public LuaMetrics getMetrics() {
+        return metrics;
+    }
 
-        private MetaTable(Object object) throws LuaException {
-            switch (LuaType.typeOf(object)) {
-                case USERDATA:
-                    break;
-                default:
-                    throw new LuaException("fail to build a MetaTable: object type " + LuaType.typeOf(object));
-            }
+    /**
+     * @param quota memory limits of every run or call from now on, {@link LuaQuota#NONE} by default or if null. a
+     *              call over its quota fails with {@link LuaQuotaException}, async calls and calls with a tick
+     *              budget are not accounted
+     */
+    public void setQuota(LuaQuota quota) {
+        this.quota = quota != null ? quota : LuaQuota.NONE;
+    }
 
-            if (object instanceof Collection) {
-                buildMetaTable(this, (Collection) object);
-                return;
-            }
+    public LuaQuota getQuota() {
+        return quota;
+    }
 
-            if (object instanceof Map) {
-                buildMetaTable(this, (Map) object);
-                return;
-            }
+    /**
+     * @param scheduler scheduler of async calls, {@link LuaScheduler#shared()} by default
+     */
+    public void setScheduler(LuaScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
 
-            ObjectMapper mapper = new ObjectMapper();
-            Map<String, Object> table;
-            try {
-                String json = mapper.writeValueAsString(object);
-                table = mapper.readValue(json, new TypeReference<Map<String, Object>>() {
-                });
-            } catch (IOException e) {
-                logger.info(e.getMessage(), e);
-                throw new LuaException("fail to convert the object to a MetaTable: " + e.getMessage());
-            }
-            if (table == null || table.isEmpty()) {
-                return;
-            }
-            buildMetaTable(this, table);
-        }
+    public LuaScheduler getScheduler() {
+        return scheduler != null ? scheduler : LuaScheduler.shared();
+    }
 
-        public <T> T toExactObject(Class<T> clazz) {
-            ObjectMapper mapper = new ObjectMapper();
-            try {
-                String objectJson = mapper.writeValueAsString(stringKeyTable);
-                return mapper.readValue(objectJson, clazz);
-            } catch (IOException e) {
-                logger.info(e.getMessage(), e);
-                return null;
-            }
-        }
+    /**
+     * convert non-userdata lua result to exact java class object, tables of any kind are read in place into the
+     * properties of beans, collections and arrays
+     *
+     * @param luaResult a result returned by executing scripts
+     * @param clazz     target java class
+     * @param <T>       target java type
+     * @return a java object, null if the result can't be converted
+     */
+    public static <T> T toJavaObject(Object luaResult, Class<T> clazz) {
+        return (T) toJavaObject(luaResult, (Type) clazz);
+    }
 
-        public List toList() {
-            return longKeyTable.valueList();
+    /**
+     * convert non-userdata lua result to a java object of a generic type, such as a list of beans
+     *
+     * @param luaResult a result returned by executing scripts
+     * @param type      target java type
+     * @return a java object, null if the result can't be converted
+     */
+    public static Object toJavaObject(Object luaResult, Type type) {
+        try {
+            return BeanAccessor.toJava(luaResult, type);
+        } catch (RuntimeException e) {
+            logger.info(e.getMessage(), e);
+            return null;
         }
+    }
 
-        @Override
-        public Object rawget(Object key) {
-            return getFromTable(key);
+    /**
+     * convert lua table to java list, only number indexed value will be returned
+     *
+     * @param luaResult table indexed by number
+     * @return number indexed value in list
+     */
+    public static List toJavaList(Object luaResult) {
+        if (luaResult instanceof MetaTable) {
+            return ((MetaTable) luaResult).toList();
         }
+        return (List) BeanAccessor.toJava(luaResult, List.class);
+    }
 
-        @Override
-        public void rawset(Object key, Object value) {
-            insertIntoTable(key, value);
-        }
+    /**
+     * a chunk run for many records, remembers the java values bound by the previous record
+     */
+    class Batch {
+        private final LuaFunction function;
+        private final Map<String, ?> defaults;
+        private final Map<String, Object> bound = new HashMap<>();
+        /**
+         * lua values bound for the keys of bound, a key whose value in env is another one has been assigned by the
+         * chunk and is bound again
+         */
+        private final Map<String, Object> luaValues = new HashMap<>();
+        /**
+         * values of env before the batch bound the keys, restored by {@link #finish()}
+         */
+        private final Map<String, Object> saved = new HashMap<>();
 
-        @Override
-        public Object initialKey() {
-            if (!longKeyTable.isEmpty()) {
-                return longKeyTable.firstKey();
-            } else if (!stringKeyTable.isEmpty()) {
-                return stringKeyTable.firstKey();
-            } else {
-                return null;
-            }
+        private Batch(LuaFunction function, Map<String, ?> defaults) {
+            this.function = function;
+            this.defaults = defaults;
         }
 
-        @Override
-        public Object successorKeyOf(Object key) {
-            if (key instanceof Long) {
-                if (longKeyTable.lastKey().equals(key)) {
-                    if (!doubleKeyTable.isEmpty()) {
-                        return doubleKeyTable.firstKey();
-                    } else if (!stringKeyTable.isEmpty()) {
-                        return stringKeyTable.firstKey();
-                    } else if (!boolKeyTable.isEmpty()) {
-                        return boolKeyTable.firstKey();
-                    } else {
-                        return null;
-                    }
-                } else {
-                    return longKeyTable.nextKey(key);
-                }
-            } else if (key instanceof Double) {
-                if (doubleKeyTable.lastKey().equals(key)) {
-                    if (!stringKeyTable.isEmpty()) {
-                        return stringKeyTable.firstKey();
-                    } else if (!boolKeyTable.isEmpty()) {
-                        return boolKeyTable.firstKey();
-                    } else {
-                        return null;
-                    }
-                } else {
-                    return doubleKeyTable.nextKey(key);
+        /**
+         * bind the changed keys of a record and run the chunk
+         */
+        Object[] run(Map<String, ?> record) throws LuaException {
+            long start = startConversion();
+            long allocated = startQuotaConversion();
+            int count = 0;
+            Iterator<Map.Entry<String, Object>> iterator = bound.entrySet().iterator();
+            while (iterator.hasNext()) {
+                String key = iterator.next().getKey();
+                if (!record.containsKey(key)) {
+                    env.rawset(key, toLuaValue(defaults.get(key)));
+                    iterator.remove();
+                    luaValues.remove(key);
+                    count++;
                 }
-            } else if (key instanceof String) {
-                if (stringKeyTable.lastKey().equals(key)) {
-                    if (!boolKeyTable.isEmpty()) {
-                        return boolKeyTable.firstKey();
-                    } else {
-                        return null;
+            }
+            for (Map.Entry<String, ?> entry : record.entrySet()) {
+                String key = entry.getKey();
+                Object value = entry.getValue();
+                if (!bound.containsKey(key) || !isSameBinding(bound.get(key), value)
+                        || env.rawget(key) != luaValues.get(key)) {
+                    if (!saved.containsKey(key)) {
+                        saved.put(key, env.rawget(key));
                     }
-                } else {
-                    return stringKeyTable.nextKey(key);
+                    Object luaValue = toLuaValue(value);
+                    env.rawset(key, luaValue);
+                    bound.put(key, value);
+                    luaValues.put(key, luaValue);
+                    count++;
                 }
-            } else if (key instanceof Boolean) {
-                if (boolKeyTable.lastKey().equals(key)) {
-                    return null;
-                } else {
-                    return boolKeyTable.nextKey(key);
-                }
-            } else {
-                return null;
-            }
-        }
-
-        @Override
-        protected void setMode(boolean weakKey, boolean weakValue) {
-
-        }
-
-        private void buildMetaTable(MetaTable target, Map table) {
-            for (Object key : table.keySet()) {
-                target.insertIntoTable(key, table.get(key));
-            }
-        }
-
-        private void buildMetaTable(MetaTable target, Collection collection) {
-            long key = 1L;
-            for (Object o : collection) {
-                target.insertIntoLongKeyTable(key, o);
-                key++;
-            }
-        }
-
-        public void insertIntoTable(Object key, Object value) {
-            if (key == null) {
-                return;
-            }
-            if (key instanceof Long || key instanceof Integer) {
-                insertIntoLongKeyTable(((Number) key).longValue(), value);
-            } else if (key instanceof Double || key instanceof Float) {
-                insertIntoDoubleKeyTable(Double.valueOf(key.toString()), value);
-            } else if (key instanceof String) {
-                insertIntoStringKeyTable((String) key, value);
-            } else if (key instanceof Boolean) {
-                insertIntoBoolKeyTable((Boolean) key, value);
-            } else {
-                table.put(key, value);
-            }
-        }
-
-        private void insertIntoLongKeyTable(Long key, Object value) {
-            Object inputValue;
-            try {
-                inputValue = new MetaTable(value);
-            } catch (LuaException e) {
-                inputValue = value;
-            }
-            if (longKeyTable.isEmpty()) {
-                longKeyTable.put(key, inputValue);
-                return;
             }
-            binaryInsert(longKeyTable, key, inputValue, 0, longKeyTable.size());
+            quotaConverted(allocated);
+            bindingsConverted(count, start);
+            return call(function);
         }
 
-        private void insertIntoDoubleKeyTable(Double key, Object value) {
-            try {
-                MetaTable table = new MetaTable(value);
-                doubleKeyTable.put(key, table);
-            } catch (LuaException e) {
-                doubleKeyTable.put(key, value);
-            }
-        }
-
-        private void insertIntoStringKeyTable(String key, Object value) {
-            try {
-                MetaTable table = new MetaTable(value);
-                stringKeyTable.put(key, table);
-            } catch (LuaException e) {
-                stringKeyTable.put(key, value);
+        /**
+         * give every key bound by the batch its value from before the batch, keys only records had are cleared
+         */
+        void finish() {
+            for (Map.Entry<String, Object> entry : saved.entrySet()) {
+                env.rawset(entry.getKey(), entry.getValue());
             }
+            saved.clear();
+            bound.clear();
+            luaValues.clear();
         }
 
-        private void insertIntoBoolKeyTable(Boolean key, Object value) {
-            try {
-                MetaTable table = new MetaTable(value);
-                boolKeyTable.put(key, table);
-            } catch (LuaException e) {
-                boolKeyTable.put(key, value);
+        /**
+         * lua values are compared by value, a copied userdata may have been modified since it was copied so it is
+         * always copied again, a proxy views the object itself
+         */
+        private boolean isSameBinding(Object previous, Object value) {
+            if (LuaType.typeOf(value) != LuaType.USERDATA) {
+                return Objects.equals(previous, value);
             }
+            return previous == value && conversionMode == ConversionMode.PROXY;
         }
+    }
 
-        private Object getFromTable(Object key) {
-            if (key instanceof Long || key instanceof Integer) {
-                return longKeyTable.get(((Number) key).longValue());
-            } else if (key instanceof Double || key instanceof Float) {
-                return doubleKeyTable.get(((Number) key).doubleValue());
-            } else if (key instanceof String || key instanceof ByteString) {
-                return stringKeyTable.get(key.toString());
-            } else if (key instanceof Boolean) {
-                return boolKeyTable.get(key);
-            } else {
-                return table.get(key);
-            }
-        }
+    /**
+     * bindings of a scope installed into env, with their version and keys at that time
+     */
+    private static class Scope {
+        private Bindings bindings;
+        private long version;
+        private Set<String> keys = new HashSet<>();
 
-        private static void binaryInsert(ListOrderedMap table, Long key, Object value, int left, int right) {
-            List<Long> keyList = (List<Long>) table.keyList()
-                    .stream().filter(k -> k instanceof Long).collect(Collectors.toList());
-            if (left >= right) {
-                table.put(left, key, value);
+        /**
+         * collect keys to be bound again, the keys of the last installed bindings are collected too if the scope
+         * has other bindings now
+         */
+        void collectChanges(Bindings current, Set<String> changed) {
+            if (current instanceof LuaBindings && current == bindings) {
+                Set<String> changedKeys = new HashSet<>();
+                version = ((LuaBindings) current).changedKeys(version, changedKeys);
+                for (String key : changedKeys) {
+                    if (current.containsKey(key)) {
+                        keys.add(key);
+                    } else {
+                        keys.remove(key);
+                    }
+                }
+                changed.addAll(changedKeys);
                 return;
             }
-            int mid = (left + right) / 2;
-            if (keyList.get(mid) < key) {
-                binaryInsert(table, key, value, mid + 1, right);
-            } else {
-                binaryInsert(table, key, value, left, mid);
+            changed.addAll(keys);
+            keys = new HashSet<>();
+            if (current instanceof LuaBindings) {
+                version = ((LuaBindings) current).keys(keys);
+            } else if (current != null) {
+                keys.addAll(current.keySet());
             }
+            changed.addAll(keys);
+            bindings = current;
         }
-
     }
-
 }
@@ -0,0 +1,304 @@
+package scriptengine;
+
+import exception.LuaException;
+
+import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * a pool of warm executors with the libraries of a profile and preloaded scripts installed.
+ * <p>
+ * an executor is confined to one thread between {@link #borrow()} and {@link #release(LuaExecutor)}, a
+ * thread-confined pool gives every thread its own executor instead and never blocks. a java function called by a
+ * script may borrow again from the pool of the script, it is given the executor running the script instead of
+ * waiting for another one. compiled chunks are shared by all the executors through {@link ChunkCache}, so every
+ * preloaded script is compiled only once
+ */
+public class LuaExecutorPool {
+    /**
+     * idle executors of a bounded pool, null if the pool is thread-confined
+     */
+    private final BlockingQueue<LuaExecutor> idle;
+    /**
+     * executors of a thread-confined pool, null if the pool is bounded
+     */
+    private final ThreadLocal<LuaExecutor> local;
+    /**
+     * count of unreleased borrows of every executor of a bounded pool, null if the pool is thread-confined
+     */
+    private final Map<LuaExecutor, AtomicInteger> borrows;
+    /**
+     * async borrows waiting for an executor in order, guarded by itself, an executor is only put back to idle if
+     * no borrow is waiting
+     */
+    private final Queue<CompletableFuture<LuaExecutor>> waiting = new ArrayDeque<>();
+    /**
+     * scripts run on every executor before it is handed out
+     */
+    private final List<String> preloadScripts = new CopyOnWriteArrayList<>();
+    /**
+     * count of preloaded scripts already run on each executor
+     */
+    private final Map<LuaExecutor, Integer> preloaded = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final int size;
+    /**
+     * libraries installed into every executor
+     */
+    private final LuaProfile profile;
+
+    /**
+     * create a bounded pool, all the executors are created and preloaded eagerly
+     *
+     * @param size           count of executors
+     * @param preloadScripts scripts run on every executor, usually declaring functions
+     * @throws LuaException if any preloaded script fails
+     */
+    public LuaExecutorPool(int size, String... preloadScripts) throws LuaException {
+        this(size, LuaProfile.FULL, preloadScripts);
+    }
+
+    /**
+     * create a bounded pool of executors with the libraries of a profile
+     *
+     * @param size           count of executors
+     * @param profile        libraries installed into every executor
+     * @param preloadScripts scripts run on every executor, usually declaring functions
+     * @throws LuaException if any preloaded script fails
+     */
+    public LuaExecutorPool(int size, LuaProfile profile, String... preloadScripts) throws LuaException {
+        if (size < 1) throw new IllegalArgumentException("size must be positive");
+        if (profile == null) throw new NullPointerException("profile must not be null");
+        this.size = size;
+        this.profile = profile;
+        this.idle = new ArrayBlockingQueue<>(size);
+        this.local = null;
+        this.borrows = new ConcurrentHashMap<>();
+        this.preloadScripts.addAll(Arrays.asList(preloadScripts));
+        for (int i = 0; i < size; i++) {
+            LuaExecutor executor = newExecutor();
+            borrows.put(executor, new AtomicInteger());
+            idle.add(executor);
+        }
+    }
+
+    private LuaExecutorPool(LuaProfile profile, String... preloadScripts) {
+        if (profile == null) throw new NullPointerException("profile must not be null");
+        this.size = -1;
+        this.profile = profile;
+        this.idle = null;
+        this.borrows = null;
+        this.preloadScripts.addAll(Arrays.asList(preloadScripts));
+        this.local = ThreadLocal.withInitial(() -> {
+            LuaExecutor executor = new LuaExecutor(profile);
+            preloaded.put(executor, 0);
+            return executor;
+        });
+    }
+
+    /**
+     * create a pool giving every thread its own executor, executors are created and preloaded on first borrow
+     *
+     * @param preloadScripts scripts run on every executor, usually declaring functions
+     * @return a thread-confined pool
+     */
+    public static LuaExecutorPool threadConfined(String... preloadScripts) {
+        return new LuaExecutorPool(LuaProfile.FULL, preloadScripts);
+    }
+
+    /**
+     * create a thread-confined pool of executors with the libraries of a profile
+     *
+     * @param profile        libraries installed into every executor
+     * @param preloadScripts scripts run on every executor, usually declaring functions
+     * @return a thread-confined pool
+     */
+    public static LuaExecutorPool threadConfined(LuaProfile profile, String... preloadScripts) {
+        return new LuaExecutorPool(profile, preloadScripts);
+    }
+
+    private LuaExecutor newExecutor() throws LuaException {
+        LuaExecutor executor = new LuaExecutor(profile);
+        preloaded.put(executor, 0);
+        preload(executor);
+        return executor;
+    }
+
+    /**
+     * run the preloaded scripts the executor has not run yet
+     */
+    private void preload(LuaExecutor executor) throws LuaException {
+        int count = preloaded.get(executor);
+        List<String> scripts = preloadScripts;
+        for (int i = count; i < scripts.size(); i++) {
+            executor.run(scripts.get(i));
+            preloaded.put(executor, i + 1);
+        }
+    }
+
+    /**
+     * add a script run on every executor, idle executors run it when they are borrowed next time
+     *
+     * @param script a code chunk, usually declaring functions
+     */
+    public void preload(String script) {
+        preloadScripts.add(script);
+    }
+
+    /**
+     * take an executor for exclusive use of the current thread, waiting if all the executors are in use. a java
+     * function called by a script of the pool is given the executor running the script, every borrow must be
+     * released
+     *
+     * @return an executor with all the preloaded scripts run
+     * @throws LuaException if interrupted while waiting or a preloaded script fails
+     */
+    public LuaExecutor borrow() throws LuaException {
+        LuaExecutor executor;
+        if (local != null) {
+            executor = local.get();
+        } else {
+            LuaExecutor running = LuaExecutor.running();
+            AtomicInteger count = running != null ? borrows.get(running) : null;
+            if (count != null && count.get() > 0) {
+                // the script of the executor waits for the function calling back, so it can't be released meanwhile
+                count.incrementAndGet();
+                return running;
+            }
+            try {
+                executor = idle.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LuaException("interrupted while waiting for an executor");
+            }
+            borrows.get(executor).set(1);
+        }
+        try {
+            preload(executor);
+        } catch (LuaException e) {
+            release(executor);
+            throw e;
+        }
+        return executor;
+    }
+
+    /**
+     * take an executor without blocking the calling thread, the future completes at once if an executor is idle,
+     * otherwise when an executor is released. cancelling the future gives up the place of the borrow in the queue
+     *
+     * @return future of an executor with all the preloaded scripts run, failed with {@link LuaException} if a
+     * preloaded script fails, or with {@link IllegalStateException} if the pool is thread-confined since its
+     * executors must not be used by another thread
+     */
+    public CompletableFuture<LuaExecutor> borrowAsync() {
+        CompletableFuture<LuaExecutor> result = new CompletableFuture<>();
+        if (local != null) {
+            result.completeExceptionally(new IllegalStateException("a thread-confined pool can not borrow async"));
+            return result;
+        }
+        CompletableFuture<LuaExecutor> taken = new CompletableFuture<>();
+        LuaExecutor executor;
+        synchronized (waiting) {
+            executor = idle.poll();
+            if (executor == null) {
+                waiting.add(taken);
+            }
+        }
+        if (executor != null) {
+            borrows.get(executor).set(1);
+            taken.complete(executor);
+        }
+        taken.thenAccept(borrowed -> {
+            try {
+                preload(borrowed);
+            } catch (LuaException e) {
+                release(borrowed);
+                result.completeExceptionally(e);
+                return;
+            }
+            if (!result.complete(borrowed)) {
+                release(borrowed);
+            }
+        });
+        result.whenComplete((borrowed, error) -> taken.cancel(false));
+        return result;
+    }
+
+    /**
+     * give back an executor taken by {@link #borrow()} or {@link #borrowAsync()}, it must not be used by the thread
+     * any more
+     *
+     * @param executor a borrowed executor
+     * @throws IllegalArgumentException if the executor is not one of the pool
+     * @throws IllegalStateException    if the executor is not borrowed
+     */
+    public void release(LuaExecutor executor) {
+        if (executor == null) {
+            return;
+        }
+        if (local != null) {
+            if (!preloaded.containsKey(executor)) {
+                throw new IllegalArgumentException("executor does not belong to the pool");
+            }
+            return;
+        }
+        AtomicInteger count = borrows.get(executor);
+        if (count == null) {
+            throw new IllegalArgumentException("executor does not belong to the pool");
+        }
+        int borrowed;
+        do {
+            borrowed = count.get();
+            if (borrowed == 0) {
+                throw new IllegalStateException("executor is already released");
+            }
+        } while (!count.compareAndSet(borrowed, borrowed - 1));
+        if (borrowed == 1) {
+            handOver(executor);
+        }
+    }
+
+    /**
+     * give a released executor to the first async borrow still waiting, or put it back to idle
+     */
+    private void handOver(LuaExecutor executor) {
+        while (true) {
+            CompletableFuture<LuaExecutor> next;
+            synchronized (waiting) {
+                next = waiting.poll();
+                if (next == null) {
+                    idle.offer(executor);
+                    return;
+                }
+            }
+            // the borrow is completed out of the lock, it may start a script right away
+            borrows.get(executor).set(1);
+            if (next.complete(executor)) {
+                return;
+            }
+            borrows.get(executor).set(0);
+        }
+    }
+
+    public LuaProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @return count of executors of a bounded pool, or -1 if the pool is thread-confined
+     */
+    public int size() {
+        return size;
+    }
+}
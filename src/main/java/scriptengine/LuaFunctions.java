@@ -0,0 +1,937 @@
+package scriptengine;
+
+import net.sandius.rembulan.ByteString;
+import net.sandius.rembulan.Conversions;
+import net.sandius.rembulan.LuaRuntimeException;
+import net.sandius.rembulan.LuaType;
+import net.sandius.rembulan.Table;
+import net.sandius.rembulan.impl.NonsuspendableFunctionException;
+import net.sandius.rembulan.lib.BadArgumentException;
+import net.sandius.rembulan.runtime.AbstractFunction0;
+import net.sandius.rembulan.runtime.AbstractFunction1;
+import net.sandius.rembulan.runtime.AbstractFunction2;
+import net.sandius.rembulan.runtime.AbstractFunction3;
+import net.sandius.rembulan.runtime.AbstractFunction4;
+import net.sandius.rembulan.runtime.AbstractFunction5;
+import net.sandius.rembulan.runtime.AbstractFunctionAnyArg;
+import net.sandius.rembulan.runtime.ExecutionContext;
+import net.sandius.rembulan.runtime.LuaFunction;
+import net.sandius.rembulan.runtime.ResolvedControlThrowable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * java lambdas and methods exposed to lua as functions, register them by {@link LuaExecutor#register(String, LuaFunction)}
+ * or as values of script bindings.
+ * <p>
+ * a function of up to five arguments extends the rembulan function of its arity, lua passes the arguments without
+ * packing them into an array. a method is unreflected once into a method handle with a filter per parameter, a call
+ * invokes the handle without reflection. long, int, double, float and boolean parameters are unboxed from lua values,
+ * strings are decoded and other types are converted like the results of a script. arguments of a lambda are passed
+ * as lua values with strings decoded. results are converted like values passed to lua, an array is returned as
+ * multiple values. an argument which can't be coerced raises a lua error naming the function and the argument
+ */
+public final class LuaFunctions {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodHandle TO_LONG = coercion("toLong", long.class);
+    private static final MethodHandle TO_INT = coercion("toInt", int.class);
+    private static final MethodHandle TO_DOUBLE = coercion("toDouble", double.class);
+    private static final MethodHandle TO_FLOAT = coercion("toFloat", float.class);
+    private static final MethodHandle TO_BOOLEAN = coercion("toBoolean", boolean.class);
+    private static final MethodHandle TO_CHAR = coercion("toChar", char.class);
+    private static final MethodHandle TO_STRING = coercion("toStringValue", String.class);
+    private static final MethodHandle TO_INSTANCE = coercion("toInstance", Object.class, Class.class);
+    private static final MethodHandle TO_JAVA = coercion("toJava", Object.class, Type.class);
+    private static final MethodHandle FROM_CHAR = find("fromChar", MethodType.methodType(String.class, char.class));
+
+    @FunctionalInterface
+    public interface Function0 {
+        Object apply();
+    }
+
+    @FunctionalInterface
+    public interface Function1 {
+        Object apply(Object a);
+    }
+
+    @FunctionalInterface
+    public interface Function2 {
+        Object apply(Object a, Object b);
+    }
+
+    @FunctionalInterface
+    public interface Function3 {
+        Object apply(Object a, Object b, Object c);
+    }
+
+    @FunctionalInterface
+    public interface Function4 {
+        Object apply(Object a, Object b, Object c, Object d);
+    }
+
+    @FunctionalInterface
+    public interface Function5 {
+        Object apply(Object a, Object b, Object c, Object d, Object e);
+    }
+
+    @FunctionalInterface
+    public interface VarargFunction {
+        Object apply(Object[] args);
+    }
+
+    private LuaFunctions() {
+    }
+
+    /**
+     * @param name name of the function in error messages
+     * @param fn   the lambda
+     * @return a lua function calling the lambda
+     */
+    public static LuaFunction of(String name, Function0 fn) {
+        return new Lambda0(name, fn);
+    }
+
+    /**
+     * @param name name of the function in error messages
+     * @param fn   the lambda, missing arguments are null
+     * @return a lua function calling the lambda
+     */
+    public static LuaFunction of(String name, Function1 fn) {
+        return new Lambda1(name, fn);
+    }
+
+    /**
+     * @param name name of the function in error messages
+     * @param fn   the lambda, missing arguments are null
+     * @return a lua function calling the lambda
+     */
+    public static LuaFunction of(String name, Function2 fn) {
+        return new Lambda2(name, fn);
+    }
+
+    /**
+     * @param name name of the function in error messages
+     * @param fn   the lambda, missing arguments are null
+     * @return a lua function calling the lambda
+     */
+    public static LuaFunction of(String name, Function3 fn) {
+        return new Lambda3(name, fn);
+    }
+
+    /**
+     * @param name name of the function in error messages
+     * @param fn   the lambda, missing arguments are null
+     * @return a lua function calling the lambda
+     */
+    public static LuaFunction of(String name, Function4 fn) {
+        return new Lambda4(name, fn);
+    }
+
+    /**
+     * @param name name of the function in error messages
+     * @param fn   the lambda, missing arguments are null
+     * @return a lua function calling the lambda
+     */
+    public static LuaFunction of(String name, Function5 fn) {
+        return new Lambda5(name, fn);
+    }
+
+    /**
+     * @param name name of the function in error messages
+     * @param fn   the lambda taking all the arguments passed by lua
+     * @return a lua function calling the lambda
+     */
+    public static LuaFunction ofVarargs(String name, VarargFunction fn) {
+        return new LambdaN(name, fn);
+    }
+
+    /**
+     * @param name name of the function in error messages
+     * @param fn   the lambda, the argument is unboxed from a lua number or numeric string
+     * @return a lua function calling the lambda
+     */
+    public static LuaFunction ofDouble(String name, DoubleUnaryOperator fn) {
+        return new DoubleLambda1(name, fn);
+    }
+
+    /**
+     * @param name name of the function in error messages
+     * @param fn   the lambda, arguments are unboxed from lua numbers or numeric strings
+     * @return a lua function calling the lambda
+     */
+    public static LuaFunction ofDouble(String name, DoubleBinaryOperator fn) {
+        return new DoubleLambda2(name, fn);
+    }
+
+    /**
+     * @param name name of the function in error messages
+     * @param fn   the lambda, the argument must have an integer representation
+     * @return a lua function calling the lambda
+     */
+    public static LuaFunction ofLong(String name, LongUnaryOperator fn) {
+        return new LongLambda1(name, fn);
+    }
+
+    /**
+     * @param name name of the function in error messages
+     * @param fn   the lambda, arguments must have integer representations
+     * @return a lua function calling the lambda
+     */
+    public static LuaFunction ofLong(String name, LongBinaryOperator fn) {
+        return new LongLambda2(name, fn);
+    }
+
+    /**
+     * @param type  a class
+     * @param name  name of a public static method of the class, which must not be overloaded
+     * @return a lua function calling the method
+     */
+    public static LuaFunction ofStatic(Class<?> type, String name) {
+        return ofMethod(null, uniqueMethod(type, name, true));
+    }
+
+    /**
+     * @param target an object
+     * @param name   name of a public instance method of the object, which must not be overloaded
+     * @return a lua function calling the method on the object
+     */
+    public static LuaFunction ofMethod(Object target, String name) {
+        return ofMethod(target, uniqueMethod(target.getClass(), name, false));
+    }
+
+    /**
+     * @param target the object to call an instance method on, null for a static method
+     * @param method the method, a variable arity method takes an array as its last argument
+     * @return a lua function calling the method
+     */
+    public static LuaFunction ofMethod(Object target, Method method) {
+        boolean isStatic = Modifier.isStatic(method.getModifiers());
+        if (!isStatic && !method.getDeclaringClass().isInstance(target)) {
+            throw new IllegalArgumentException("no target to call " + method + " on");
+        }
+        BeanAccessor.makeAccessible(method);
+        MethodHandle handle;
+        try {
+            handle = LOOKUP.unreflect(method).asFixedArity();
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("fail to access " + method, e);
+        }
+        if (!isStatic) {
+            handle = handle.bindTo(target);
+        }
+
+        String name = method.getName();
+        Class<?>[] parameters = method.getParameterTypes();
+        Type[] genericParameters = method.getGenericParameterTypes();
+        MethodHandle[] filters = new MethodHandle[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            filters[i] = parameterFilter(parameters[i], genericParameters[i], name, i + 1);
+        }
+        handle = MethodHandles.filterArguments(handle, 0, filters);
+        handle = adaptResult(handle, method.getReturnType());
+
+        boolean noResult = method.getReturnType() == void.class;
+        switch (parameters.length) {
+            case 0:
+                return new Handle0(handle, noResult);
+            case 1:
+                return new Handle1(handle, noResult);
+            case 2:
+                return new Handle2(handle, noResult);
+            case 3:
+                return new Handle3(handle, noResult);
+            case 4:
+                return new Handle4(handle, noResult);
+            case 5:
+                return new Handle5(handle, noResult);
+            default:
+                return new HandleN(handle.asSpreader(Object[].class, parameters.length), parameters.length, noResult);
+        }
+    }
+
+    private static Method uniqueMethod(Class<?> type, String name, boolean isStatic) {
+        List<Method> found = new ArrayList<>();
+        for (Method method : type.getMethods()) {
+            if (method.getName().equals(name) && Modifier.isStatic(method.getModifiers()) == isStatic && !method.isBridge()) {
+                found.add(method);
+            }
+        }
+        if (found.size() != 1) {
+            throw new IllegalArgumentException((found.isEmpty() ? "no " : "overloaded ")
+                    + (isStatic ? "static" : "instance") + " method " + name + " in " + type.getName());
+        }
+        return found.get(0);
+    }
+
+    /**
+     * @return a filter of type (Object)parameter coercing a lua value
+     */
+    private static MethodHandle parameterFilter(Class<?> parameter, Type genericParameter, String name, int index) {
+        MethodHandle filter;
+        if (parameter == long.class) {
+            filter = TO_LONG;
+        } else if (parameter == int.class) {
+            filter = TO_INT;
+        } else if (parameter == double.class) {
+            filter = TO_DOUBLE;
+        } else if (parameter == float.class) {
+            filter = TO_FLOAT;
+        } else if (parameter == boolean.class) {
+            filter = TO_BOOLEAN;
+        } else if (parameter == char.class) {
+            filter = TO_CHAR;
+        } else if (parameter == String.class) {
+            filter = TO_STRING;
+        } else if (Table.class.isAssignableFrom(parameter) || LuaFunction.class.isAssignableFrom(parameter)) {
+            filter = MethodHandles.insertArguments(TO_INSTANCE, 1, parameter);
+        } else {
+            filter = MethodHandles.insertArguments(TO_JAVA, 1, genericParameter);
+        }
+        filter = MethodHandles.insertArguments(filter, 1, name, index);
+        return filter.asType(MethodType.methodType(parameter, Object.class));
+    }
+
+    /**
+     * @return the handle returning a boxed lua number, boolean, string or a java object, null for void
+     */
+    private static MethodHandle adaptResult(MethodHandle handle, Class<?> returnType) {
+        if (returnType == int.class || returnType == short.class || returnType == byte.class) {
+            handle = handle.asType(handle.type().changeReturnType(long.class));
+        } else if (returnType == float.class) {
+            handle = handle.asType(handle.type().changeReturnType(double.class));
+        } else if (returnType == char.class) {
+            handle = MethodHandles.filterReturnValue(handle, FROM_CHAR);
+        }
+        return handle.asType(MethodType.genericMethodType(handle.type().parameterCount()));
+    }
+
+    /**
+     * @param value a java value returned to lua
+     * @return the lua value
+     */
+    static Object toLua(Object value) {
+        if (value == null || value instanceof Long || value instanceof Double || value instanceof Boolean) {
+            return value;
+        }
+        return Conversions.canonicalRepresentationOf(LuaConverters.toLua(value, ConversionMode.COPY));
+    }
+
+    private static void returnResult(ExecutionContext context, Object result) {
+        if (result instanceof Object[]) {
+            Object[] values = ((Object[]) result).clone();
+            for (int i = 0; i < values.length; i++) {
+                values[i] = toLua(values[i]);
+            }
+            context.getReturnBuffer().setToContentsOf(values);
+        } else {
+            context.getReturnBuffer().setTo(toLua(result));
+        }
+    }
+
+    private static void returnResult(ExecutionContext context, Object result, boolean noResult) {
+        if (noResult) {
+            context.getReturnBuffer().setTo();
+        } else {
+            returnResult(context, result);
+        }
+    }
+
+    private static Object arg(Object value) {
+        return value instanceof ByteString ? value.toString() : value;
+    }
+
+    private static RuntimeException failure(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new LuaRuntimeException(t);
+    }
+
+    static String typeName(Object value) {
+        return value == null ? "nil" : LuaType.typeOf(value).name().toLowerCase(Locale.ROOT);
+    }
+
+    private static long toLong(Object value, String function, int index) {
+        if (value instanceof Long) {
+            return (Long) value;
+        }
+        Long integer = Conversions.integerValueOf(value);
+        if (integer == null) {
+            throw new BadArgumentException(index, function, Conversions.numericalValueOf(value) != null
+                    ? "number has no integer representation" : "number expected, got " + typeName(value));
+        }
+        return integer;
+    }
+
+    private static int toInt(Object value, String function, int index) {
+        long integer = toLong(value, function, index);
+        if (integer != (int) integer) {
+            throw new BadArgumentException(index, function, "value out of range");
+        }
+        return (int) integer;
+    }
+
+    private static double toDouble(Object value, String function, int index) {
+        if (value instanceof Double) {
+            return (Double) value;
+        }
+        Double number = Conversions.floatValueOf(value);
+        if (number == null) {
+            throw new BadArgumentException(index, function, "number expected, got " + typeName(value));
+        }
+        return number;
+    }
+
+    private static float toFloat(Object value, String function, int index) {
+        return (float) toDouble(value, function, index);
+    }
+
+    private static boolean toBoolean(Object value, String function, int index) {
+        return Conversions.booleanValueOf(value);
+    }
+
+    private static String toStringValue(Object value, String function, int index) {
+        if (value instanceof ByteString || value instanceof String) {
+            return value.toString();
+        } else if (value instanceof Number) {
+            return Conversions.stringValueOf((Number) value).toString();
+        } else if (value == null) {
+            return null;
+        }
+        throw new BadArgumentException(index, function, "string expected, got " + typeName(value));
+    }
+
+    private static char toChar(Object value, String function, int index) {
+        String string = toStringValue(value, function, index);
+        if (string == null || string.isEmpty()) {
+            throw new BadArgumentException(index, function, "character expected, got " + typeName(value));
+        }
+        return string.charAt(0);
+    }
+
+    private static Object toInstance(Object value, Class<?> type, String function, int index) {
+        if (value != null && !type.isInstance(value)) {
+            String expected = LuaFunction.class.isAssignableFrom(type) ? "function" : "table";
+            throw new BadArgumentException(index, function, expected + " expected, got " + typeName(value));
+        }
+        return value;
+    }
+
+    private static Object toJava(Object value, Type type, String function, int index) {
+        try {
+            return BeanAccessor.toJava(value, type);
+        } catch (RuntimeException e) {
+            throw new BadArgumentException(index, function, e);
+        }
+    }
+
+    private static String fromChar(char value) {
+        return String.valueOf(value);
+    }
+
+    private static MethodHandle coercion(String name, Class<?> returnType, Class<?>... extra) {
+        Class<?>[] parameters = new Class<?>[extra.length + 3];
+        parameters[0] = Object.class;
+        System.arraycopy(extra, 0, parameters, 1, extra.length);
+        parameters[extra.length + 1] = String.class;
+        parameters[extra.length + 2] = int.class;
+        return find(name, MethodType.methodType(returnType, parameters));
+    }
+
+    private static MethodHandle find(String name, MethodType type) {
+        try {
+            return LOOKUP.findStatic(LuaFunctions.class, name, type);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final class Lambda0 extends AbstractFunction0 {
+        private final String name;
+        private final Function0 fn;
+
+        Lambda0(String name, Function0 fn) {
+            this.name = name;
+            this.fn = fn;
+        }
+
+        @Override
+        public void invoke(ExecutionContext context) throws ResolvedControlThrowable {
+            returnResult(context, fn.apply());
+        }
+
+        @Override
+        public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
+            throw new NonsuspendableFunctionException(getClass());
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final class Lambda1 extends AbstractFunction1 {
+        private final String name;
+        private final Function1 fn;
+
+        Lambda1(String name, Function1 fn) {
+            this.name = name;
+            this.fn = fn;
+        }
+
+        @Override
+        public void invoke(ExecutionContext context, Object arg1) throws ResolvedControlThrowable {
+            returnResult(context, fn.apply(arg(arg1)));
+        }
+
+        @Override
+        public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
+            throw new NonsuspendableFunctionException(getClass());
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final class Lambda2 extends AbstractFunction2 {
+        private final String name;
+        private final Function2 fn;
+
+        Lambda2(String name, Function2 fn) {
+            this.name = name;
+            this.fn = fn;
+        }
+
+        @Override
+        public void invoke(ExecutionContext context, Object arg1, Object arg2) throws ResolvedControlThrowable {
+            returnResult(context, fn.apply(arg(arg1), arg(arg2)));
+        }
+
+        @Override
+        public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
+            throw new NonsuspendableFunctionException(getClass());
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final class Lambda3 extends AbstractFunction3 {
+        private final String name;
+        private final Function3 fn;
+
+        Lambda3(String name, Function3 fn) {
+            this.name = name;
+            this.fn = fn;
+        }
+
+        @Override
+        public void invoke(ExecutionContext context, Object arg1, Object arg2, Object arg3) throws ResolvedControlThrowable {
+            returnResult(context, fn.apply(arg(arg1), arg(arg2), arg(arg3)));
+        }
+
+        @Override
+        public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
+            throw new NonsuspendableFunctionException(getClass());
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final class Lambda4 extends AbstractFunction4 {
+        private final String name;
+        private final Function4 fn;
+
+        Lambda4(String name, Function4 fn) {
+            this.name = name;
+            this.fn = fn;
+        }
+
+        @Override
+        public void invoke(ExecutionContext context, Object arg1, Object arg2, Object arg3, Object arg4)
+                throws ResolvedControlThrowable {
+            returnResult(context, fn.apply(arg(arg1), arg(arg2), arg(arg3), arg(arg4)));
+        }
+
+        @Override
+        public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
+            throw new NonsuspendableFunctionException(getClass());
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final class Lambda5 extends AbstractFunction5 {
+        private final String name;
+        private final Function5 fn;
+
+        Lambda5(String name, Function5 fn) {
+            this.name = name;
+            this.fn = fn;
+        }
+
+        @Override
+        public void invoke(ExecutionContext context, Object arg1, Object arg2, Object arg3, Object arg4, Object arg5)
+                throws ResolvedControlThrowable {
+            returnResult(context, fn.apply(arg(arg1), arg(arg2), arg(arg3), arg(arg4), arg(arg5)));
+        }
+
+        @Override
+        public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
+            throw new NonsuspendableFunctionException(getClass());
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final class LambdaN extends AbstractFunctionAnyArg {
+        private final String name;
+        private final VarargFunction fn;
+
+        LambdaN(String name, VarargFunction fn) {
+            this.name = name;
+            this.fn = fn;
+        }
+
+        @Override
+        public void invoke(ExecutionContext context, Object[] args) throws ResolvedControlThrowable {
+            Object[] values = new Object[args.length];
+            for (int i = 0; i < args.length; i++) {
+                values[i] = arg(args[i]);
+            }
+            returnResult(context, fn.apply(values));
+        }
+
+        @Override
+        public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
+            throw new NonsuspendableFunctionException(getClass());
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final class DoubleLambda1 extends AbstractFunction1 {
+        private final String name;
+        private final DoubleUnaryOperator fn;
+
+        DoubleLambda1(String name, DoubleUnaryOperator fn) {
+            this.name = name;
+            this.fn = fn;
+        }
+
+        @Override
+        public void invoke(ExecutionContext context, Object arg1) throws ResolvedControlThrowable {
+            context.getReturnBuffer().setTo(fn.applyAsDouble(toDouble(arg1, name, 1)));
+        }
+
+        @Override
+        public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
+            throw new NonsuspendableFunctionException(getClass());
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final class DoubleLambda2 extends AbstractFunction2 {
+        private final String name;
+        private final DoubleBinaryOperator fn;
+
+        DoubleLambda2(String name, DoubleBinaryOperator fn) {
+            this.name = name;
+            this.fn = fn;
+        }
+
+        @Override
+        public void invoke(ExecutionContext context, Object arg1, Object arg2) throws ResolvedControlThrowable {
+            context.getReturnBuffer().setTo(fn.applyAsDouble(toDouble(arg1, name, 1), toDouble(arg2, name, 2)));
+        }
+
+        @Override
+        public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
+            throw new NonsuspendableFunctionException(getClass());
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final class LongLambda1 extends AbstractFunction1 {
+        private final String name;
+        private final LongUnaryOperator fn;
+
+        LongLambda1(String name, LongUnaryOperator fn) {
+            this.name = name;
+            this.fn = fn;
+        }
+
+        @Override
+        public void invoke(ExecutionContext context, Object arg1) throws ResolvedControlThrowable {
+            context.getReturnBuffer().setTo(fn.applyAsLong(toLong(arg1, name, 1)));
+        }
+
+        @Override
+        public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
+            throw new NonsuspendableFunctionException(getClass());
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final class LongLambda2 extends AbstractFunction2 {
+        private final String name;
+        private final LongBinaryOperator fn;
+
+        LongLambda2(String name, LongBinaryOperator fn) {
+            this.name = name;
+            this.fn = fn;
+        }
+
+        @Override
+        public void invoke(ExecutionContext context, Object arg1, Object arg2) throws ResolvedControlThrowable {
+            context.getReturnBuffer().setTo(fn.applyAsLong(toLong(arg1, name, 1), toLong(arg2, name, 2)));
+        }
+
+        @Override
+        public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
+            throw new NonsuspendableFunctionException(getClass());
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * calls a method handle of type (Object..)Object built by {@link #ofMethod(Object, Method)}
+     */
+    private static final class Handle0 extends AbstractFunction0 {
+        private final MethodHandle handle;
+        private final boolean noResult;
+
+        Handle0(MethodHandle handle, boolean noResult) {
+            this.handle = handle;
+            this.noResult = noResult;
+        }
+
+        @Override
+        public void invoke(ExecutionContext context) throws ResolvedControlThrowable {
+            Object result;
+            try {
+                result = (Object) handle.invokeExact();
+            } catch (Throwable t) {
+                throw failure(t);
+            }
+            returnResult(context, result, noResult);
+        }
+
+        @Override
+        public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
+            throw new NonsuspendableFunctionException(getClass());
+        }
+    }
+
+    private static final class Handle1 extends AbstractFunction1 {
+        private final MethodHandle handle;
+        private final boolean noResult;
+
+        Handle1(MethodHandle handle, boolean noResult) {
+            this.handle = handle;
+            this.noResult = noResult;
+        }
+
+        @Override
+        public void invoke(ExecutionContext context, Object arg1) throws ResolvedControlThrowable {
+            Object result;
+            try {
+                result = (Object) handle.invokeExact(arg1);
+            } catch (Throwable t) {
+                throw failure(t);
+            }
+            returnResult(context, result, noResult);
+        }
+
+        @Override
+        public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
+            throw new NonsuspendableFunctionException(getClass());
+        }
+    }
+
+    private static final class Handle2 extends AbstractFunction2 {
+        private final MethodHandle handle;
+        private final boolean noResult;
+
+        Handle2(MethodHandle handle, boolean noResult) {
+            this.handle = handle;
+            this.noResult = noResult;
+        }
+
+        @Override
+        public void invoke(ExecutionContext context, Object arg1, Object arg2) throws ResolvedControlThrowable {
+            Object result;
+            try {
+                result = (Object) handle.invokeExact(arg1, arg2);
+            } catch (Throwable t) {
+                throw failure(t);
+            }
+            returnResult(context, result, noResult);
+        }
+
+        @Override
+        public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
+            throw new NonsuspendableFunctionException(getClass());
+        }
+    }
+
+    private static final class Handle3 extends AbstractFunction3 {
+        private final MethodHandle handle;
+        private final boolean noResult;
+
+        Handle3(MethodHandle handle, boolean noResult) {
+            this.handle = handle;
+            this.noResult = noResult;
+        }
+
+        @Override
+        public void invoke(ExecutionContext context, Object arg1, Object arg2, Object arg3) throws ResolvedControlThrowable {
+            Object result;
+            try {
+                result = (Object) handle.invokeExact(arg1, arg2, arg3);
+            } catch (Throwable t) {
+                throw failure(t);
+            }
+            returnResult(context, result, noResult);
+        }
+
+        @Override
+        public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
+            throw new NonsuspendableFunctionException(getClass());
+        }
+    }
+
+    private static final class Handle4 extends AbstractFunction4 {
+        private final MethodHandle handle;
+        private final boolean noResult;
+
+        Handle4(MethodHandle handle, boolean noResult) {
+            this.handle = handle;
+            this.noResult = noResult;
+        }
+
+        @Override
+        public void invoke(ExecutionContext context, Object arg1, Object arg2, Object arg3, Object arg4)
+                throws ResolvedControlThrowable {
+            Object result;
+            try {
+                result = (Object) handle.invokeExact(arg1, arg2, arg3, arg4);
+            } catch (Throwable t) {
+                throw failure(t);
+            }
+            returnResult(context, result, noResult);
+        }
+
+        @Override
+        public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
+            throw new NonsuspendableFunctionException(getClass());
+        }
+    }
+
+    private static final class Handle5 extends AbstractFunction5 {
+        private final MethodHandle handle;
+        private final boolean noResult;
+
+        Handle5(MethodHandle handle, boolean noResult) {
+            this.handle = handle;
+            this.noResult = noResult;
+        }
+
+        @Override
+        public void invoke(ExecutionContext context, Object arg1, Object arg2, Object arg3, Object arg4, Object arg5)
+                throws ResolvedControlThrowable {
+            Object result;
+            try {
+                result = (Object) handle.invokeExact(arg1, arg2, arg3, arg4, arg5);
+            } catch (Throwable t) {
+                throw failure(t);
+            }
+            returnResult(context, result, noResult);
+        }
+
+        @Override
+        public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
+            throw new NonsuspendableFunctionException(getClass());
+        }
+    }
+
+    /**
+     * calls a method of more than five parameters, the handle spreads an argument array
+     */
+    private static final class HandleN extends AbstractFunctionAnyArg {
+        private final MethodHandle handle;
+        private final int arity;
+        private final boolean noResult;
+
+        HandleN(MethodHandle handle, int arity, boolean noResult) {
+            this.handle = handle;
+            this.arity = arity;
+            this.noResult = noResult;
+        }
+
+        @Override
+        public void invoke(ExecutionContext context, Object[] args) throws ResolvedControlThrowable {
+            Object result;
+            try {
+                result = (Object) handle.invokeExact(args.length == arity ? args : Arrays.copyOf(args, arity));
+            } catch (Throwable t) {
+                throw failure(t);
+            }
+            returnResult(context, result, noResult);
+        }
+
+        @Override
+        public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
+            throw new NonsuspendableFunctionException(getClass());
+        }
+    }
+}
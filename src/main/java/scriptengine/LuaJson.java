@@ -0,0 +1,223 @@
+package scriptengine;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerationException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.json.UTF8JsonGenerator;
+import net.sandius.rembulan.ByteString;
+import net.sandius.rembulan.LuaType;
+import net.sandius.rembulan.Table;
+import net.sandius.rembulan.runtime.Coroutine;
+import net.sandius.rembulan.runtime.LuaFunction;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * write lua results as json.
+ * <p>
+ * any table is walked in place, tables created by scripts, proxies of java values and views of java arrays alike,
+ * and its keys and values are written to the generator as they are visited, so no map or json string of the result
+ * is built. a table whose keys are exactly 1..n is written as an array, other tables as objects in the order of their
+ * keys. integers and floats are written unboxed, strings as strings, nil as null. functions and coroutines can't be
+ * written, other java values are written by the codec of the generator if it has one, else as strings.
+ * <p>
+ * strings are copied to utf-8 generators as bytes rather than decoded, and names of fields are cached in their
+ * quoted form, so writing a result allocates next to nothing besides the output
+ */
+public final class LuaJson {
+    /**
+     * tables nested deeper are most likely a cycle
+     */
+    private static final int MAX_DEPTH = 1000;
+    /**
+     * names of fields are cached with their quoted json form up to this count and length
+     */
+    private static final int MAX_NAMES = 1024;
+    private static final int MAX_NAME_LENGTH = 64;
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+    private static final Map<ByteString, SerializedString> NAMES = new ConcurrentHashMap<>();
+    /**
+     * lua strings hold what {@link ByteString#toString()} decodes with the default charset, when that is utf-8 their
+     * bytes are copied to utf-8 generators as they are, when it is another charset decoding ascii as utf-8 does, only
+     * strings of ascii bytes are
+     */
+    private static final boolean RAW_UTF8 = StandardCharsets.UTF_8.equals(Charset.defaultCharset());
+    private static final boolean RAW_ASCII = RAW_UTF8 || StandardCharsets.US_ASCII.equals(Charset.defaultCharset())
+            || StandardCharsets.ISO_8859_1.equals(Charset.defaultCharset());
+
+    private final JsonGenerator generator;
+    private final boolean rawStrings;
+    private ByteBuffer scratch;
+
+    private LuaJson(JsonGenerator generator) {
+        this.generator = generator;
+        this.rawStrings = RAW_ASCII && generator instanceof UTF8JsonGenerator;
+    }
+
+    /**
+     * @param value a lua value
+     * @param out   stream the utf-8 json is written to, it is flushed but not closed
+     * @throws IOException if the stream fails or the value can't be written
+     */
+    public static void write(Object value, OutputStream out) throws IOException {
+        JsonGenerator generator = FACTORY.createGenerator(out, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        try {
+            write(value, generator);
+        } finally {
+            generator.close();
+        }
+    }
+
+    /**
+     * @param value     a lua value
+     * @param generator generator the value is written to as one json value, it is neither flushed nor closed
+     * @throws IOException if the generator fails or the value can't be written
+     */
+    public static void write(Object value, JsonGenerator generator) throws IOException {
+        new LuaJson(generator).writeValue(value, 0);
+    }
+
+    private void writeValue(Object value, int depth) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof Long) {
+            generator.writeNumber((long) (Long) value);
+        } else if (value instanceof Double) {
+            generator.writeNumber((double) (Double) value);
+        } else if (value instanceof ByteString) {
+            writeString((ByteString) value);
+        } else if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof Table) {
+            writeTable((Table) value, depth);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            generator.writeNumber(((Number) value).longValue());
+        } else if (value instanceof Float) {
+            generator.writeNumber(((Float) value).doubleValue());
+        } else if (value instanceof Number) {
+            generator.writeNumber(value.toString());
+        } else if (value instanceof LuaFunction || value instanceof Coroutine) {
+            throw new JsonGenerationException("can't write a " + LuaType.typeOf(value).name().toLowerCase() + " as json",
+                    generator);
+        } else if (generator.getCodec() != null) {
+            generator.writeObject(value);
+        } else {
+            generator.writeString(value.toString());
+        }
+    }
+
+    private void writeString(ByteString value) throws IOException {
+        if (!rawStrings) {
+            generator.writeString(value.toString());
+            return;
+        }
+        int length = value.length();
+        if (scratch == null || scratch.capacity() < length) {
+            scratch = ByteBuffer.allocate(Math.max(length, 256));
+        }
+        scratch.clear();
+        value.putTo(scratch);
+        byte[] bytes = scratch.array();
+        if (!RAW_UTF8) {
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] < 0) {
+                    generator.writeString(value.toString());
+                    return;
+                }
+            }
+        }
+        generator.writeUTF8String(bytes, 0, length);
+    }
+
+    private void writeFieldName(Object key) throws IOException {
+        if (key instanceof Long) {
+            generator.writeFieldId((Long) key);
+        } else if (key instanceof ByteString && ((ByteString) key).length() <= MAX_NAME_LENGTH) {
+            SerializedString name = NAMES.get(key);
+            if (name == null) {
+                name = new SerializedString(key.toString());
+                if (NAMES.size() < MAX_NAMES) {
+                    NAMES.put((ByteString) key, name);
+                }
+            }
+            generator.writeFieldName(name);
+        } else {
+            generator.writeFieldName(key.toString());
+        }
+    }
+
+    private void writeTable(Table table, int depth) throws IOException {
+        if (depth >= MAX_DEPTH) {
+            throw new JsonGenerationException("tables nested deeper than " + MAX_DEPTH + ", is there a cycle?", generator);
+        }
+        Object storage = LuaArrays.storageOf(table);
+        if (storage != null && writeArray(storage)) {
+            return;
+        }
+        long length = table.rawlen();
+        if (length > 0 && isSequence(table, length)) {
+            generator.writeStartArray();
+            for (long i = 1; i <= length; i++) {
+                writeValue(table.rawget(i), depth + 1);
+            }
+            generator.writeEndArray();
+            return;
+        }
+        generator.writeStartObject();
+        for (Object key = table.initialKey(); key != null; key = table.successorKeyOf(key)) {
+            writeFieldName(key);
+            writeValue(table.rawget(key), depth + 1);
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * @param length border of the table
+     * @return whether the table has no keys besides 1..length
+     */
+    private static boolean isSequence(Table table, long length) {
+        long count = 0;
+        for (Object key = table.initialKey(); key != null; key = table.successorKeyOf(key)) {
+            if (++count > length) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * write a viewed java array without boxing its elements
+     *
+     * @return false if the storage is no primitive array
+     */
+    private boolean writeArray(Object storage) throws IOException {
+        if (storage instanceof long[]) {
+            long[] array = (long[]) storage;
+            generator.writeArray(array, 0, array.length);
+            return true;
+        }
+        if (storage instanceof double[]) {
+            double[] array = (double[]) storage;
+            generator.writeArray(array, 0, array.length);
+            return true;
+        }
+        if (storage instanceof int[]) {
+            int[] array = (int[]) storage;
+            generator.writeArray(array, 0, array.length);
+            return true;
+        }
+        return false;
+    }
+}
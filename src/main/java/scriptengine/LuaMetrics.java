@@ -0,0 +1,88 @@
+package scriptengine;
+
+/**
+ * listener of what executors spend their time on, set on a {@link LuaExecutor} or a {@link LuaScriptEngine}.
+ * <p>
+ * scripts are named by the digest of their text, so a name is the same in every executor and every run: a
+ * compiled chunk and the calls of its main function are reported under the first 16 hex digits of the SHA-256 of
+ * the script, a function declared by the script under that name followed by $ and the index of the function.
+ * java functions are named by their class.
+ * methods are called on the thread running the script and must be thread-safe if the listener is shared. the
+ * default listener {@link #NONE} ignores everything, executors using it don't even read the clock
+ */
+public interface LuaMetrics {
+    /**
+     * the listener ignoring everything
+     */
+    LuaMetrics NONE = new LuaMetrics() {
+    };
+
+    /**
+     * a chunk has been looked up in the cache and compiled if missing
+     *
+     * @param chunk  name of the chunk
+     * @param nanos  time to find or compile the chunk
+     * @param cached whether the chunk was cached, false if it was compiled or loaded from an archive
+     */
+    default void compiled(String chunk, long nanos, boolean cached) {
+    }
+
+    /**
+     * a function has returned
+     *
+     * @param function       name of the function
+     * @param nanos          latency of the call, without the conversion of arguments
+     * @param allocatedBytes bytes allocated by the thread during the call, -1 if not recorded
+     */
+    default void called(String function, long nanos, long allocatedBytes) {
+    }
+
+    /**
+     * a function has failed
+     *
+     * @param function name of the function
+     * @param nanos    time until the failure
+     */
+    default void failed(String function, long nanos) {
+    }
+
+    /**
+     * @param count count of arguments converted to lua values
+     * @param nanos time of the conversion
+     */
+    default void argumentsConverted(int count, long nanos) {
+    }
+
+    /**
+     * @param count count of bindings converted to lua values and installed into env
+     * @param nanos time of the conversion
+     */
+    default void bindingsConverted(int count, long nanos) {
+    }
+
+    /**
+     * @param nanos time to convert a result to the java type expected by the caller
+     */
+    default void resultConverted(long nanos) {
+    }
+
+    /**
+     * a script has run out of its ticks and has been paused
+     */
+    default void paused() {
+    }
+
+    /**
+     * a paused script has been resumed
+     */
+    default void resumed() {
+    }
+
+    /**
+     * @return whether bytes allocated by calls should be measured, reading the counter of the thread costs about
+     * as much as reading the clock
+     */
+    default boolean recordsAllocations() {
+        return false;
+    }
+}
@@ -0,0 +1,112 @@
+package scriptengine;
+
+import net.sandius.rembulan.compiler.CompiledModule;
+import net.sandius.rembulan.compiler.CompilerSettings;
+import net.sandius.rembulan.compiler.LuaCompiler;
+import net.sandius.rembulan.util.ByteVector;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * build-time tool compiling a directory of lua scripts into a {@link ChunkArchive}.
+ * <p>
+ * every .lua file under the directory is compiled with the chunk name and compiler settings of {@link LuaExecutor},
+ * so the archived classes are the ones the executor would generate. class names are derived from the digest of the
+ * script, identical scripts share their classes. usage:
+ * <pre>
+ * java scriptengine.LuaPrecompiler &lt;source directory&gt; &lt;archive jar&gt;
+ * </pre>
+ */
+public final class LuaPrecompiler {
+    private static final String CLASS_PACKAGE = "lua_archive.";
+
+    private LuaPrecompiler() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: LuaPrecompiler <source directory> <archive jar>");
+            System.exit(2);
+        }
+        int count = precompile(Paths.get(args[0]), Paths.get(args[1]), LuaExecutor.COMPILER_SETTINGS);
+        System.out.println("compiled " + count + " lua scripts into " + args[1]);
+    }
+
+    /**
+     * compile all the lua scripts of a directory into an archive
+     *
+     * @param sourceDir directory of .lua files encoded in UTF-8, searched recursively
+     * @param archive   the jar to write, replaced if it exists
+     * @param settings  settings of the compiler, an executor uses archived chunks only under the same settings
+     * @return count of compiled scripts
+     * @throws IOException if a script can not be read or compiled, or the archive can not be written
+     */
+    public static int precompile(Path sourceDir, Path archive, CompilerSettings settings) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(sourceDir)) {
+            files = walk.filter(file -> Files.isRegularFile(file) && file.toString().endsWith(".lua"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        Properties manifest = new Properties();
+        manifest.setProperty(ChunkArchive.CHUNK_NAME, LuaExecutor.FUNCTION_NAME);
+        manifest.setProperty(ChunkArchive.CPU_ACCOUNTING, settings.cpuAccountingMode().name());
+        manifest.setProperty(ChunkArchive.CONST_FOLDING, String.valueOf(settings.constFolding()));
+        manifest.setProperty(ChunkArchive.CONST_CACHING, String.valueOf(settings.constCaching()));
+        manifest.setProperty(ChunkArchive.BYTE_STRINGS, String.valueOf(settings.byteStrings()));
+        manifest.setProperty(ChunkArchive.NODE_SIZE_LIMIT, String.valueOf(settings.nodeSizeLimit()));
+
+        // class files by entry name
+        Map<String, ByteVector> classFiles = new TreeMap<>();
+        LuaCompiler compiler = new LuaCompiler(settings);
+        for (Path file : files) {
+            String script = ChunkCache.read(file);
+            String digest = ChunkCache.digest(script);
+            String path = sourceDir.relativize(file).toString().replace('\\', '/');
+            manifest.setProperty(ChunkArchive.SCRIPT_PREFIX + path, digest);
+            if (manifest.getProperty(ChunkArchive.CLASS_PREFIX + digest) != null) {
+                continue;
+            }
+            CompiledModule module;
+            try {
+                module = compiler.compile(script, LuaExecutor.FUNCTION_NAME, CLASS_PACKAGE + "C" + digest);
+            } catch (Exception | LinkageError e) {
+                throw new IOException("fail to compile " + file + ": " + e.getMessage(), e);
+            }
+            long size = 0;
+            for (Map.Entry<String, ByteVector> entry : module.classMap().entrySet()) {
+                classFiles.put(entry.getKey().replace('.', '/') + ".class", entry.getValue());
+                size += entry.getValue().size();
+            }
+            manifest.setProperty(ChunkArchive.CLASS_PREFIX + digest, module.mainClassName() + " " + size);
+        }
+
+        Path parent = archive.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (JarOutputStream jar = new JarOutputStream(Files.newOutputStream(archive))) {
+            for (Map.Entry<String, ByteVector> entry : classFiles.entrySet()) {
+                jar.putNextEntry(new JarEntry(entry.getKey()));
+                jar.write(entry.getValue().copyToNewArray());
+                jar.closeEntry();
+            }
+            jar.putNextEntry(new JarEntry(ChunkArchive.MANIFEST));
+            manifest.store(jar, "lua chunks compiled ahead of time");
+            jar.closeEntry();
+        }
+        return files.size();
+    }
+}
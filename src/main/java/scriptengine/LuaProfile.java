@@ -0,0 +1,170 @@
+package scriptengine;
+
+import net.sandius.rembulan.StateContext;
+import net.sandius.rembulan.Table;
+import net.sandius.rembulan.env.RuntimeEnvironment;
+import net.sandius.rembulan.env.RuntimeEnvironments;
+import net.sandius.rembulan.lib.BasicLib;
+import net.sandius.rembulan.lib.CoroutineLib;
+import net.sandius.rembulan.lib.DebugLib;
+import net.sandius.rembulan.lib.IoLib;
+import net.sandius.rembulan.lib.MathLib;
+import net.sandius.rembulan.lib.ModuleLib;
+import net.sandius.rembulan.lib.OsLib;
+import net.sandius.rembulan.lib.StringLib;
+import net.sandius.rembulan.lib.TableLib;
+import net.sandius.rembulan.lib.Utf8Lib;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * a named set of standard libraries installed into the env of an executor.
+ * <p>
+ * a state carries a table and a function object for every library function, a profile leaving out the libraries a
+ * script doesn't use makes states smaller and faster to create, and keeps file and process access away from
+ * scripts. {@link #MINIMAL} has the basic functions, string, table and math, {@link #PURE_COMPUTE} adds coroutine
+ * and utf8, {@link #FULL} is the standard library installed by default. custom profiles are registered by name so
+ * engines can select them by the name alone
+ */
+public final class LuaProfile {
+
+    /**
+     * libraries of lua 5.3 in the order they are installed
+     */
+    public enum Library {
+        BASE, PACKAGE, COROUTINE, STRING, MATH, TABLE, IO, OS, UTF8, DEBUG
+    }
+
+    private static final Map<String, LuaProfile> profiles = new ConcurrentHashMap<>();
+
+    public static final LuaProfile MINIMAL = register(of("minimal",
+            Library.BASE, Library.STRING, Library.MATH, Library.TABLE));
+    public static final LuaProfile PURE_COMPUTE = register(of("pure-compute",
+            Library.BASE, Library.COROUTINE, Library.STRING, Library.MATH, Library.TABLE, Library.UTF8));
+    public static final LuaProfile FULL = register(of("full",
+            Library.BASE, Library.PACKAGE, Library.COROUTINE, Library.STRING, Library.MATH, Library.TABLE,
+            Library.IO, Library.OS, Library.UTF8));
+
+    private final String name;
+    private final Set<Library> libraries;
+    /**
+     * frozen base environment of the profile, built on first use
+     */
+    private volatile LuaEnvironment environment;
+
+    private LuaProfile(String name, Set<Library> libraries) {
+        this.name = name;
+        this.libraries = Collections.unmodifiableSet(libraries);
+    }
+
+    /**
+     * define a profile, see {@link #register(LuaProfile)} to select it by name
+     *
+     * @param name      name of the profile
+     * @param libraries libraries of the profile, base functions such as pairs and pcall are in {@link Library#BASE}
+     * @return the profile
+     */
+    public static LuaProfile of(String name, Library... libraries) {
+        if (name == null) throw new NullPointerException("name must not be null");
+        Set<Library> set = EnumSet.noneOf(Library.class);
+        Collections.addAll(set, libraries);
+        return new LuaProfile(name, set);
+    }
+
+    /**
+     * @param profile a profile, replacing any profile of the same name
+     * @return the profile
+     */
+    public static LuaProfile register(LuaProfile profile) {
+        profiles.put(profile.name, profile);
+        return profile;
+    }
+
+    /**
+     * @param name name of a built-in or registered profile
+     * @return the profile
+     * @throws IllegalArgumentException if no profile has the name
+     */
+    public static LuaProfile named(String name) {
+        LuaProfile profile = profiles.get(name);
+        if (profile == null) {
+            throw new IllegalArgumentException("no lua profile named " + name + ", known profiles are " + profiles.keySet());
+        }
+        return profile;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Set<Library> getLibraries() {
+        return libraries;
+    }
+
+    /**
+     * @return the base environment of the profile shared by the JVM, built on first use
+     */
+    public LuaEnvironment environment() {
+        LuaEnvironment result = environment;
+        if (result == null) {
+            synchronized (this) {
+                result = environment;
+                if (result == null) {
+                    environment = result = LuaEnvironment.snapshot(this);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * install the libraries of the profile into a state like {@link net.sandius.rembulan.lib.StandardLibrary} does
+     *
+     * @param state a new state
+     * @return the globals
+     */
+    Table installInto(StateContext state) {
+        RuntimeEnvironment runtime = RuntimeEnvironments.system();
+        Table env = state.newTable();
+        if (libraries.contains(Library.BASE)) {
+            BasicLib.installInto(state, env, runtime, null);
+        }
+        if (libraries.contains(Library.PACKAGE)) {
+            ModuleLib.installInto(state, env, runtime, null, null);
+        }
+        if (libraries.contains(Library.COROUTINE)) {
+            CoroutineLib.installInto(state, env);
+        }
+        if (libraries.contains(Library.STRING)) {
+            StringLib.installInto(state, env);
+        }
+        if (libraries.contains(Library.MATH)) {
+            MathLib.installInto(state, env);
+        }
+        if (libraries.contains(Library.TABLE)) {
+            TableLib.installInto(state, env);
+        }
+        if (libraries.contains(Library.IO)) {
+            IoLib.installInto(state, env, runtime);
+        }
+        if (libraries.contains(Library.OS)) {
+            OsLib.installInto(state, env, runtime);
+        }
+        if (libraries.contains(Library.UTF8)) {
+            Utf8Lib.installInto(state, env);
+        }
+        if (libraries.contains(Library.DEBUG)) {
+            DebugLib.installInto(state, env);
+        }
+        return env;
+    }
+
+    @Override
+    public String toString() {
+        return "LuaProfile(" + name + " " + libraries + ")";
+    }
+}
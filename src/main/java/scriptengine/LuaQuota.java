@@ -0,0 +1,75 @@
+package scriptengine;
+
+/**
+ * limits of the memory a single run or call of an executor may take, see {@link LuaExecutor#setQuota(LuaQuota)}.
+ * <p>
+ * memory is measured by the allocation counter of the thread where the JVM has one, so tables, strings built by
+ * concatenation or string.rep and java values converted for the call all count, garbage included. the counter is
+ * read every {@link #getCheckTicks()} ticks of a script compiled with cpu accounting and whenever tables created by
+ * the call have grown by a sixteenth of the quota, a script over its quota is stopped at its next basic block and
+ * the call fails with {@link exception.LuaQuotaException}. without the counter, entries and strings stored into
+ * tables created by the call are estimated instead. the count of entries of any table created by the call can be
+ * limited as well
+ */
+public final class LuaQuota {
+    private static final long DEFAULT_CHECK_TICKS = 10000L;
+
+    /**
+     * no limits, calls are not accounted
+     */
+    public static final LuaQuota NONE = new LuaQuota(Long.MAX_VALUE, Long.MAX_VALUE, DEFAULT_CHECK_TICKS);
+
+    private final long maxBytes;
+    private final long maxTableEntries;
+    private final long checkTicks;
+
+    private LuaQuota(long maxBytes, long maxTableEntries, long checkTicks) {
+        this.maxBytes = maxBytes;
+        this.maxTableEntries = maxTableEntries;
+        this.checkTicks = checkTicks;
+    }
+
+    /**
+     * @param maxBytes bytes a call may allocate, java values converted for the call included
+     * @return a quota without a limit of table entries
+     */
+    public static LuaQuota ofBytes(long maxBytes) {
+        if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes must be positive");
+        return new LuaQuota(maxBytes, Long.MAX_VALUE, DEFAULT_CHECK_TICKS);
+    }
+
+    /**
+     * @param maxTableEntries entries any table created by a call may have
+     * @return a copy of the quota with the limit
+     */
+    public LuaQuota withMaxTableEntries(long maxTableEntries) {
+        if (maxTableEntries <= 0) throw new IllegalArgumentException("maxTableEntries must be positive");
+        return new LuaQuota(maxBytes, maxTableEntries, checkTicks);
+    }
+
+    /**
+     * @param checkTicks ticks between two reads of the allocation counter, a lower count stops a script sooner
+     * @return a copy of the quota with the interval
+     */
+    public LuaQuota withCheckTicks(long checkTicks) {
+        if (checkTicks <= 0) throw new IllegalArgumentException("checkTicks must be positive");
+        return new LuaQuota(maxBytes, maxTableEntries, checkTicks);
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getMaxTableEntries() {
+        return maxTableEntries;
+    }
+
+    public long getCheckTicks() {
+        return checkTicks;
+    }
+
+    @Override
+    public String toString() {
+        return "LuaQuota(maxBytes=" + maxBytes + ", maxTableEntries=" + maxTableEntries + ", checkTicks=" + checkTicks + ")";
+    }
+}
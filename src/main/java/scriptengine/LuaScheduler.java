@@ -0,0 +1,220 @@
+package scriptengine;
+
+import exception.LuaException;
+import net.sandius.rembulan.exec.CallEventHandler;
+import net.sandius.rembulan.exec.Continuation;
+import net.sandius.rembulan.impl.SchedulingContexts;
+import net.sandius.rembulan.runtime.AsyncTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * a cooperative scheduler running scripts asynchronously on a thread pool.
+ * <p>
+ * a script runs for one slice of ticks at a time, then it is paused and queued behind the other scripts, so a
+ * fixed pool serves many scripts fairly and a runaway script only delays the others. a script calling an
+ * {@link AsyncFunction} is suspended until the future of the function completes and holds no thread meanwhile.
+ * cancelling the future of a script stops it before its next slice
+ */
+public class LuaScheduler {
+    /**
+     * default ticks of a slice, can be set by system property <b>lua.crystal.scheduler.sliceTicks</b>
+     */
+    public static final long DEFAULT_SLICE_TICKS = Long.getLong("lua.crystal.scheduler.sliceTicks", 100000L);
+
+    private static final Logger logger = LoggerFactory.getLogger(LuaScheduler.class);
+
+    private final Executor executor;
+    private final long sliceTicks;
+
+    /**
+     * @param executor   threads running the slices
+     * @param sliceTicks max ticks of a slice
+     */
+    public LuaScheduler(Executor executor, long sliceTicks) {
+        if (executor == null) throw new NullPointerException("executor must not be null");
+        if (sliceTicks < 1) throw new IllegalArgumentException("sliceTicks must be positive");
+        this.executor = executor;
+        this.sliceTicks = sliceTicks;
+    }
+
+    /**
+     * create a scheduler on a fixed pool of daemon threads
+     *
+     * @param threads count of threads
+     * @return a new scheduler
+     */
+    public static LuaScheduler newBounded(int threads) {
+        return new LuaScheduler(Executors.newFixedThreadPool(threads, daemonThreads()), DEFAULT_SLICE_TICKS);
+    }
+
+    /**
+     * create a scheduler starting a virtual thread per slice if the JDK supports virtual threads, otherwise a
+     * bounded scheduler with a thread per processor
+     *
+     * @return a new scheduler
+     */
+    public static LuaScheduler newVirtual() {
+        try {
+            ExecutorService virtual = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            return new LuaScheduler(virtual, DEFAULT_SLICE_TICKS);
+        } catch (ReflectiveOperationException e) {
+            return newBounded(Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    /**
+     * @return the scheduler shared by the JVM, on virtual threads where available, created on first use
+     */
+    public static LuaScheduler shared() {
+        return Shared.INSTANCE;
+    }
+
+    private static ThreadFactory daemonThreads() {
+        AtomicInteger index = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "lua-scheduler-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * schedule a call until it returns
+     *
+     * @param continuation a new or paused call
+     * @return future of the results of the call, failed with {@link LuaException} if the call fails
+     */
+    public CompletableFuture<Object[]> submit(Continuation continuation) {
+        return submit(continuation, null);
+    }
+
+    /**
+     * schedule a call of an executor until it returns, the executor is marked running while a slice runs
+     */
+    CompletableFuture<Object[]> submit(Continuation continuation, LuaExecutor owner) {
+        Task task = new Task(continuation, owner);
+        executor.execute(task);
+        return task.future;
+    }
+
+    /**
+     * @param future future of a call submitted to a scheduler, or of a call which failed before it started
+     * @return future completed when no slice of the call runs any more, so the executor of the call is free again
+     */
+    static CompletableFuture<?> stoppedOf(CompletableFuture<?> future) {
+        return future instanceof ScheduledCall ? ((ScheduledCall) future).stopped : future;
+    }
+
+    /**
+     * future of a scheduled call, a cancelled call may still be in its last slice until it is stopped
+     */
+    private static final class ScheduledCall extends CompletableFuture<Object[]> {
+        private final CompletableFuture<Void> stopped = new CompletableFuture<>();
+    }
+
+    /**
+     * a call running one slice at a time, it is never run by two threads at once. the next slice is scheduled
+     * only when a slice has returned
+     */
+    private class Task implements Runnable, CallEventHandler {
+        private final ScheduledCall future = new ScheduledCall();
+        private final LuaExecutor owner;
+        private Continuation continuation;
+        /**
+         * task the call waits for before its next slice, null if the call is paused or done
+         */
+        private AsyncTask waiting;
+        /**
+         * whether a slice is running, guarded by this
+         */
+        private boolean running;
+
+        Task(Continuation continuation, LuaExecutor owner) {
+            this.continuation = continuation;
+            this.owner = owner;
+            future.whenComplete((results, error) -> stopIfIdle());
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (future.isDone()) {
+                    future.stopped.complete(null);
+                    return;
+                }
+                running = true;
+            }
+            Continuation current = continuation;
+            continuation = null;
+            LuaExecutor outer = owner != null ? owner.enter() : null;
+            try {
+                current.resume(this, SchedulingContexts.newCountDownContext(sliceTicks));
+            } catch (RuntimeException e) {
+                logger.info(e.getMessage(), e);
+                future.completeExceptionally(new LuaException(e.getMessage()));
+            } finally {
+                if (owner != null) {
+                    LuaExecutor.exit(outer);
+                }
+            }
+            AsyncTask task = waiting;
+            waiting = null;
+            synchronized (this) {
+                running = false;
+                if (future.isDone()) {
+                    future.stopped.complete(null);
+                    return;
+                }
+            }
+            if (task != null) {
+                task.execute(() -> executor.execute(this));
+            } else if (continuation != null) {
+                executor.execute(this);
+            }
+        }
+
+        /**
+         * a call cancelled between slices is stopped at once
+         */
+        private synchronized void stopIfIdle() {
+            if (!running) {
+                future.stopped.complete(null);
+            }
+        }
+
+        @Override
+        public void returned(Object id, Object[] result) {
+            future.complete(result);
+        }
+
+        @Override
+        public void failed(Object id, Throwable error) {
+            logger.info(error.getMessage(), error);
+            future.completeExceptionally(new LuaException(error.getMessage()));
+        }
+
+        @Override
+        public void paused(Object id, Continuation next) {
+            continuation = next;
+        }
+
+        @Override
+        public void async(Object id, Continuation next, AsyncTask task) {
+            continuation = next;
+            waiting = task;
+        }
+    }
+
+    private static class Shared {
+        private static final LuaScheduler INSTANCE = newVirtual();
+    }
+}
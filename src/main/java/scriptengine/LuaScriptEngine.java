@@ -1,6 +1,7 @@
 package scriptengine;
 
 import exception.LuaException;
+import net.sandius.rembulan.compiler.CompilerSettings;
 import net.sandius.rembulan.runtime.LuaFunction;
 
 import javax.script.*;
@@ -9,14 +10,153 @@ import java.io.Reader;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Created by JiangCheng on 2017/6/15.
  */
-public class LuaScriptEngine extends AbstractScriptEngine implements Invocable {
-    private LuaExecutor luaExecutor = new LuaExecutor();
+public class LuaScriptEngine extends AbstractScriptEngine implements Invocable, Compilable {
+    /**
+     * count of records run by one task of a parallel batch
+     */
+    private static final int BATCH_SLICE = 256;
+    /**
+     * attribute of a script context, in any scope, holding the {@link CompilerSettings} of scripts evaluated with
+     * the context, overriding the settings of the engine
+     */
+    public static final String COMPILER_SETTINGS = "lua.compilerSettings";
+
+    /**
+     * executors running scripts of the engine. a default engine has a single executor, so functions declared by
+     * eval can be invoked later. the executors of a pooled engine don't share declarations made by eval, functions
+     * used by every call should be declared by preloaded scripts of the pool
+     */
+    private final LuaExecutorPool pool;
+    /**
+     * how userdata passed to lua become tables, applied to every executor running a call of the engine
+     */
+    private volatile ConversionMode conversionMode = ConversionMode.COPY;
+    /**
+     * scheduler of async calls of the engine, the shared one if null
+     */
+    private volatile LuaScheduler scheduler;
+    /**
+     * settings compiling scripts of the engine unless the script context has its own
+     */
+    private volatile CompilerSettings compilerSettings = LuaExecutor.COMPILER_SETTINGS;
+    /**
+     * listener of the executors running calls of the engine
+     */
+    private volatile LuaMetrics metrics = LuaMetrics.NONE;
+    /**
+     * memory limits of every call of the engine
+     */
+    private volatile LuaQuota quota = LuaQuota.NONE;
+
+    public LuaScriptEngine() {
+        this(LuaProfile.FULL);
+    }
+
+    /**
+     * create an engine running scripts on a single executor with the libraries of a profile
+     *
+     * @param profile libraries available to scripts of the engine
+     */
+    public LuaScriptEngine(LuaProfile profile) {
+        this(singleExecutorPool(profile));
+    }
+
+    /**
+     * create a pooled engine, scripts are run by any executor of the pool, so the engine can be used by many
+     * threads at the same time
+     *
+     * @param pool executors running scripts of the engine
+     */
+    public LuaScriptEngine(LuaExecutorPool pool) {
+        if (pool == null) throw new NullPointerException("pool must not be null");
+        this.pool = pool;
+        context.setBindings(createBindings(), ScriptContext.ENGINE_SCOPE);
+    }
+
+    private static LuaExecutorPool singleExecutorPool(LuaProfile profile) {
+        try {
+            return new LuaExecutorPool(1, profile);
+        } catch (LuaException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    /**
+     * @param conversionMode how maps, collections and beans in bindings or arguments become tables,
+     *                       {@link ConversionMode#COPY} by default
+     */
+    public void setConversionMode(ConversionMode conversionMode) {
+        this.conversionMode = conversionMode != null ? conversionMode : ConversionMode.COPY;
+    }
+
+    public ConversionMode getConversionMode() {
+        return conversionMode;
+    }
+
+    /**
+     * @param scheduler scheduler of async calls, {@link LuaScheduler#shared()} by default
+     */
+    public void setScheduler(LuaScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @param compilerSettings settings compiling scripts of the engine, {@link CompilerSettings#defaultSettings()}
+     *                         by default, see {@link LuaExecutor#setCompilerSettings(CompilerSettings)}
+     */
+    public void setCompilerSettings(CompilerSettings compilerSettings) {
+        this.compilerSettings = compilerSettings != null ? compilerSettings : LuaExecutor.COMPILER_SETTINGS;
+    }
+
+    public CompilerSettings getCompilerSettings() {
+        return compilerSettings;
+    }
+
+    /**
+     * @param metrics listener of compilations, calls and conversions of the engine, {@link LuaMetrics#NONE} by
+     *                default
+     */
+    public void setMetrics(LuaMetrics metrics) {
+        this.metrics = metrics != null ? metrics : LuaMetrics.NONE;
+    }
+
+    public LuaMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param quota memory limits of every call of the engine, {@link LuaQuota#NONE} by default. a call over its
+     *              quota fails with a {@link ScriptException} caused by {@link exception.LuaQuotaException}
+     */
+    public void setQuota(LuaQuota quota) {
+        this.quota = quota != null ? quota : LuaQuota.NONE;
+    }
+
+    public LuaQuota getQuota() {
+        return quota;
+    }
+
+    /**
+     * @return the settings held by the context, or the settings of the engine
+     */
+    private CompilerSettings compilerSettingsOf(ScriptContext context) {
+        Object settings = context.getAttribute(COMPILER_SETTINGS);
+        return settings instanceof CompilerSettings ? (CompilerSettings) settings : compilerSettings;
+    }
 
     public void putAll(Map<String, Object> bindings) {
         if (bindings == null || bindings.keySet().size() == 0) {
@@ -30,6 +170,285 @@ public class LuaScriptEngine extends AbstractScriptEngine implements Invocable {
         if (context == null) throw new NullPointerException("context must not be null");
         if (script == null) throw new NullPointerException("script must not be null");
 
+        Bindings global = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+        Bindings engine = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        return withExecutor(executor -> {
+            executor.setCompilerSettings(compilerSettingsOf(context));
+            executor.putScopes(global, engine);
+            return unwrap(executor.call(executor.load(script)));
+        });
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return eval(readScript(reader), context);
+    }
+
+    /**
+     * evaluate a lua source file encoded in UTF-8 with the bindings of the engine, the file is read and compiled
+     * again only after it has changed
+     *
+     * @param file a lua source file
+     * @return results of the file
+     * @throws ScriptException if the file can not be read or compiled, or the script fails
+     */
+    public Object eval(Path file) throws ScriptException {
+        if (file == null) throw new NullPointerException("file must not be null");
+
+        ChunkCache.Chunk chunk = withExecutor(executor -> executor.compile(file));
+        return eval(chunk, context);
+    }
+
+    /**
+     * evaluate a script with the bindings of the engine without blocking the calling thread
+     *
+     * @param script a code chunk
+     * @return future of the result like {@link #eval(String)}, failed with {@link ScriptException} if the script
+     * can not be compiled or fails
+     */
+    public CompletableFuture<Object> evalAsync(String script) {
+        return evalAsync(script, context);
+    }
+
+    /**
+     * evaluate a script with the bindings of the context on the scheduler of the engine. the executor running the
+     * script is borrowed without blocking the calling thread, the script starts when an executor of a bounded pool
+     * is free and the executor is released when the script completes. with a thread-confined pool the future fails
+     * with {@link IllegalStateException}
+     *
+     * @param script  a code chunk
+     * @param context context whose bindings are added into env before the call
+     * @return future of the result like {@link #eval(String, ScriptContext)}
+     */
+    public CompletableFuture<Object> evalAsync(String script, ScriptContext context) {
+        if (context == null) throw new NullPointerException("context must not be null");
+        if (script == null) throw new NullPointerException("script must not be null");
+
+        Bindings global = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+        Bindings engine = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        return withExecutorAsync(executor -> {
+            executor.setCompilerSettings(compilerSettingsOf(context));
+            executor.putScopes(global, engine);
+            return executor.callAsync(executor.load(script));
+        });
+    }
+
+    /**
+     * call a function declared by eval without blocking the calling thread
+     *
+     * @param name name of the function
+     * @param args arguments of the function
+     * @return future of the result like {@link #invokeFunction(String, Object...)}, failed with
+     * {@link NoSuchMethodException} if the function is not declared
+     */
+    public CompletableFuture<Object> invokeFunctionAsync(String name, Object... args) {
+        return withExecutorAsync(executor -> {
+            checkFunction(executor, name);
+            return executor.callAsync(executor.getFunction(name), args);
+        });
+    }
+
+    /**
+     * evaluate a script once for every record with the bindings of the engine, keys of a record are bound as
+     * globals over the bindings. the script is compiled once and run by one executor, only keys whose values differ
+     * from the previous record are bound again
+     *
+     * @param script  a code chunk
+     * @param records key-value records, a record map may be reused for the next record
+     * @return result of every record like {@link #eval(String)}, in order of records
+     * @throws ScriptException if the script can not be compiled or fails for any record
+     */
+    public List<Object> evalBatch(String script, Iterator<? extends Map<String, ?>> records) throws ScriptException {
+        if (script == null) throw new NullPointerException("script must not be null");
+
+        Map<String, Object> luaContext = toLuaContext(context);
+        return withExecutor(executor -> evalBatch(executor, executor.compile(script), records, luaContext));
+    }
+
+    /**
+     * evaluate a script for every record in parallel, records are split into slices run by the workers, every
+     * slice borrows its own executor from the pool, so the parallelism is bounded by the executors of the pool
+     *
+     * @param script  a code chunk
+     * @param records key-value records, every record must be a map of its own
+     * @param workers threads running the slices
+     * @return result of every record like {@link #eval(String)}, in order of records
+     * @throws ScriptException if the script can not be compiled or fails for any record
+     */
+    public List<Object> evalBatch(String script, Iterator<? extends Map<String, ?>> records, ForkJoinPool workers)
+            throws ScriptException {
+        if (script == null) throw new NullPointerException("script must not be null");
+
+        Map<String, Object> luaContext = toLuaContext(context);
+        ChunkCache.Chunk chunk = withExecutor(executor -> executor.compile(script));
+        List<ForkJoinTask<List<Object>>> tasks = new ArrayList<>();
+        while (records.hasNext()) {
+            List<Map<String, ?>> slice = new ArrayList<>(BATCH_SLICE);
+            while (records.hasNext() && slice.size() < BATCH_SLICE) {
+                slice.add(records.next());
+            }
+            tasks.add(workers.submit(() -> withExecutor(
+                    executor -> evalBatch(executor, chunk, slice.iterator(), luaContext))));
+        }
+        List<Object> results = new ArrayList<>();
+        try {
+            for (ForkJoinTask<List<Object>> task : tasks) {
+                results.addAll(task.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ScriptException("interrupted while waiting for the batch");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ScriptException) {
+                throw (ScriptException) e.getCause();
+            }
+            throw new ScriptException(e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+        }
+        return results;
+    }
+
+    private List<Object> evalBatch(LuaExecutor executor, ChunkCache.Chunk chunk,
+                                          Iterator<? extends Map<String, ?>> records, Map<String, Object> luaContext)
+            throws LuaException {
+        executor.putScopes(context.getBindings(ScriptContext.GLOBAL_SCOPE),
+                context.getBindings(ScriptContext.ENGINE_SCOPE));
+        LuaExecutor.Batch batch = executor.batch(chunk, luaContext);
+        List<Object> results = new ArrayList<>();
+        try {
+            while (records.hasNext()) {
+                results.add(unwrap(batch.run(records.next())));
+            }
+        } finally {
+            batch.finish();
+        }
+        return results;
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        if (script == null) throw new NullPointerException("script must not be null");
+
+        return withExecutor(executor -> new LuaCompiledScript(this, executor.compile(script)));
+    }
+
+    @Override
+    public CompiledScript compile(Reader reader) throws ScriptException {
+        return compile(readScript(reader));
+    }
+
+    /**
+     * call a compiled chunk with the bindings of the context, the chunk is not compiled again
+     *
+     * @param chunk   a chunk compiled by this engine
+     * @param context context whose bindings are added into env before the call
+     * @return results of the chunk
+     * @throws ScriptException
+     */
+    Object eval(ChunkCache.Chunk chunk, ScriptContext context) throws ScriptException {
+        if (context == null) throw new NullPointerException("context must not be null");
+
+        Bindings global = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+        Bindings engine = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        return withExecutor(executor -> {
+            executor.putScopes(global, engine);
+            return unwrap(executor.call(executor.load(chunk)));
+        });
+    }
+
+    /**
+     * run a call on an executor borrowed from the pool
+     */
+    <T, E extends Exception> T withExecutor(ExecutorCall<T, E> call) throws ScriptException, E {
+        LuaExecutor executor;
+        try {
+            executor = pool.borrow();
+        } catch (LuaException e) {
+            throw new ScriptException(e.getMessage());
+        }
+        try {
+            executor.setConversionMode(conversionMode);
+            executor.setCompilerSettings(compilerSettingsOf(context));
+            executor.setMetrics(metrics);
+            executor.setQuota(quota);
+            return call.apply(executor);
+        } catch (LuaException e) {
+            ScriptException failure = new ScriptException(e.getMessage());
+            failure.initCause(e);
+            throw failure;
+        } finally {
+            pool.release(executor);
+        }
+    }
+
+    /**
+     * start an async call on an executor borrowed from the pool, the executor is released when the call completes
+     */
+    private CompletableFuture<Object> withExecutorAsync(
+            ExecutorCall<CompletableFuture<Object[]>, NoSuchMethodException> call) {
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        CompletableFuture<LuaExecutor> borrowed = pool.borrowAsync();
+        // cancelling the result gives up the executor not borrowed yet
+        result.whenComplete((value, error) -> borrowed.cancel(false));
+        borrowed.whenComplete((executor, error) -> {
+            if (error instanceof LuaException) {
+                result.completeExceptionally(new ScriptException(error.getMessage()));
+            } else if (error != null) {
+                result.completeExceptionally(error);
+            } else if (result.isDone()) {
+                pool.release(executor);
+            } else {
+                start(executor, call, result);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * start an async call on a borrowed executor and complete the result when the call completes
+     */
+    private void start(LuaExecutor executor, ExecutorCall<CompletableFuture<Object[]>, NoSuchMethodException> call,
+                       CompletableFuture<Object> result) {
+        CompletableFuture<Object[]> future;
+        try {
+            executor.setConversionMode(conversionMode);
+            executor.setCompilerSettings(compilerSettingsOf(context));
+            executor.setMetrics(metrics);
+            executor.setScheduler(scheduler);
+            future = call.apply(executor);
+        } catch (LuaException e) {
+            pool.release(executor);
+            result.completeExceptionally(new ScriptException(e.getMessage()));
+            return;
+        } catch (NoSuchMethodException e) {
+            pool.release(executor);
+            result.completeExceptionally(e);
+            return;
+        }
+        // the executor is released once the script has stopped, a cancelled script may still be in its slice
+        LuaScheduler.stoppedOf(future).whenComplete((ignored, stopError) -> {
+            pool.release(executor);
+            future.whenComplete((results, error) -> {
+                if (error == null) {
+                    result.complete(unwrap(results));
+                } else if (error instanceof LuaException) {
+                    result.completeExceptionally(new ScriptException(error.getMessage()));
+                } else {
+                    result.completeExceptionally(error);
+                }
+            });
+        });
+        // cancelling the result stops the script before its next slice
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                future.cancel(false);
+            }
+        });
+    }
+
+    /**
+     * merge global scope and engine scope of the context, engine scope has higher priority
+     */
+    private static Map<String, Object> toLuaContext(ScriptContext context) {
         Map<String, Object> luaContext = new HashMap<>();
         Bindings bindings = context.getBindings(ScriptContext.GLOBAL_SCOPE);
         if (bindings != null) {
@@ -39,37 +458,42 @@ public class LuaScriptEngine extends AbstractScriptEngine implements Invocable {
         if (bindings != null) {
             luaContext.putAll(bindings);
         }
-        try {
-            Object[] results = luaExecutor.runWithContext(script, luaContext);
-            if (results != null && results.length == 1) {
-                return results[0];
-            } else {
-                return results;
-            }
-        } catch (LuaException e) {
-            throw new ScriptException(e.getMessage());
-        }
+        return luaContext;
     }
 
-    @Override
-    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+    /**
+     * read all the text of a reader, the reader is left open for its owner to close
+     */
+    private static String readScript(Reader reader) throws ScriptException {
         StringBuilder script = new StringBuilder();
-        char[] buffer = new char[200];
+        char[] buffer = new char[8192];
         try {
-            int len = reader.read(buffer, 0, 200);
-            while (len > 0) {
+            for (int len = reader.read(buffer); len >= 0; len = reader.read(buffer)) {
                 script.append(buffer, 0, len);
-                len = reader.read(buffer, 0, 200);
             }
         } catch (IOException e) {
             throw new ScriptException(e.getMessage());
         }
-        return eval(script.toString(), context);
+        return script.toString();
     }
 
+    /**
+     * a single result is returned as it is, otherwise the result array is returned
+     */
+    private static Object unwrap(Object[] results) {
+        if (results != null && results.length == 1) {
+            return results[0];
+        } else {
+            return results;
+        }
+    }
+
+    /**
+     * @return bindings tracking their changes, so evals install only the changed keys
+     */
     @Override
     public Bindings createBindings() {
-        return new SimpleBindings();
+        return new LuaBindings();
     }
 
     @Override
@@ -82,62 +506,58 @@ public class LuaScriptEngine extends AbstractScriptEngine implements Invocable {
         if (!(target instanceof LuaScriptEngine)) {
             throw new ScriptException("the target object is not a class or subclass of LuaScriptEngine");
         }
-        LuaScriptEngine engine = (LuaScriptEngine) target;
-        try {
-            Object[] results = engine.luaExecutor.call(name, args);
-            if (results != null && results.length == 1) {
-                return results[0];
-            } else {
-                return results;
-            }
-        } catch (LuaException e) {
-            throw new ScriptException(e.getMessage());
-        }
+        return ((LuaScriptEngine) target).invokeFunction(name, args);
     }
 
     @Override
     public Object invokeFunction(String name, Object... args) throws ScriptException, NoSuchMethodException {
-        if (luaExecutor.getFunction(name) == null) {
-            Bindings bindings = getBindings(ScriptContext.ENGINE_SCOPE);
-            if (bindings != null && bindings.get(name) instanceof LuaFunction) {
-                luaExecutor.putContext(bindings);
-            } else {
-                throw new NoSuchMethodException("no such method called " + name);
-            }
-        }
-        try {
-            Object[] results = luaExecutor.call(name, args);
-            if (results != null && results.length == 1) {
-                return results[0];
-            } else {
-                return results;
-            }
-        } catch (LuaException e) {
-            throw new ScriptException(e.getMessage());
-        }
+        return withExecutor(executor -> {
+            checkFunction(executor, name);
+            return unwrap(executor.call(name, args));
+        });
     }
 
+    /**
+     * implement an interface by lua functions of the same names, a class is generated for a public interface,
+     * others are implemented by a {@link Proxy}
+     *
+     * @return the implementation, or null if any function is not declared
+     */
     @Override
     public <T> T getInterface(Class<T> clazz) {
         try {
-            Method[] methods = clazz.getDeclaredMethods();
-            for (Method m : methods) {
-                if (luaExecutor.getFunction(m.getName()) == null) {
-                    Bindings bindings = getBindings(ScriptContext.ENGINE_SCOPE);
-                    if (bindings != null && bindings.get(m.getName()) instanceof LuaFunction) {
-                        luaExecutor.putContext(bindings);
-                    } else {
-                        throw new NoSuchMethodException("no such method called " + m.getName());
-                    }
+            Method[] methods = InterfaceBridge.bridgedMethods(clazz);
+            withExecutor(executor -> {
+                for (Method m : methods) {
+                    checkFunction(executor, m.getName());
                 }
+                return null;
+            });
+            T bridge = InterfaceBridge.create(clazz, this);
+            if (bridge != null) {
+                return bridge;
             }
             return (T) Proxy.newProxyInstance(clazz.getClassLoader(), new Class[]{clazz},
-                    new LuaInvocationHandler(luaExecutor));
-        } catch (NoSuchMethodException e) {
+                    new LuaInvocationHandler(this));
+        } catch (NoSuchMethodException | ScriptException e) {
             return null;
         }
     }
 
+    /**
+     * make sure a function is declared in executor's env, functions found in engine scope are added into env
+     */
+    void checkFunction(LuaExecutor executor, String name) throws NoSuchMethodException {
+        if (executor.getFunction(name) == null) {
+            Bindings bindings = getBindings(ScriptContext.ENGINE_SCOPE);
+            if (bindings != null && bindings.get(name) instanceof LuaFunction) {
+                executor.putContext(bindings);
+            } else {
+                throw new NoSuchMethodException("no such method called " + name);
+            }
+        }
+    }
+
     @Override
     public <T> T getInterface(Object target, Class<T> clazz) {
         if (!(target instanceof LuaScriptEngine)) {
@@ -146,17 +566,21 @@ public class LuaScriptEngine extends AbstractScriptEngine implements Invocable {
         return ((LuaScriptEngine) target).getInterface(clazz);
     }
 
+    interface ExecutorCall<T, E extends Exception> {
+        T apply(LuaExecutor executor) throws LuaException, E;
+    }
+
     private static class LuaInvocationHandler implements InvocationHandler {
 
-        private LuaExecutor executor;
+        private LuaScriptEngine engine;
 
-        public LuaInvocationHandler(LuaExecutor luaExecutor) {
-            executor = luaExecutor;
+        public LuaInvocationHandler(LuaScriptEngine luaScriptEngine) {
+            engine = luaScriptEngine;
         }
 
         @Override
         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-            Object[] result = executor.call(method.getName(), args);
+            Object[] result = engine.withExecutor(executor -> executor.call(method.getName(), args));
             if (result != null) {
                 return result[0];
             } else {
@@ -1,5 +1,7 @@
 package scriptengine;
 
+import net.sandius.rembulan.compiler.CompilerSettings;
+
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineFactory;
 import java.util.Arrays;
@@ -19,7 +21,51 @@ public class LuaScriptEngineFactory implements ScriptEngineFactory {
     private static final List<String> ENGINE_MIME_TYPES = Collections.unmodifiableList(Arrays.asList("lua"));
     private static final List<String> ENGINE_NAMES = Collections.unmodifiableList(Arrays.asList("lua", "LUA", "Lua", "Crystal"));
 
-    private static final String THREADING = null;
+    /**
+     * engines are thread-safe, a default engine serializes calls on its single executor while a pooled engine runs
+     * them on many executors at the same time
+     */
+    private static final String THREADING = "MULTITHREADED";
+
+    /**
+     * parameter holding the name of the library profile of new engines
+     */
+    public static final String PROFILE = "lua.profile";
+    /**
+     * system property naming the default profile, e.g. -Dlua.crystal.profile=minimal
+     */
+    private static final String PROFILE_PROPERTY = "lua.crystal.profile";
+
+    /**
+     * settings compiling scripts of the engines created by the factory, the default settings if null
+     */
+    private volatile CompilerSettings compilerSettings;
+    /**
+     * libraries available to scripts of the engines created by the factory
+     */
+    private volatile LuaProfile profile = LuaProfile.named(System.getProperty(PROFILE_PROPERTY, LuaProfile.FULL.getName()));
+
+    /**
+     * @param compilerSettings settings compiling scripts of engines created from now on
+     */
+    public void setCompilerSettings(CompilerSettings compilerSettings) {
+        this.compilerSettings = compilerSettings;
+    }
+
+    public CompilerSettings getCompilerSettings() {
+        return compilerSettings;
+    }
+
+    /**
+     * @param profile libraries available to scripts of engines created from now on, {@link LuaProfile#FULL} if null
+     */
+    public void setProfile(LuaProfile profile) {
+        this.profile = profile != null ? profile : LuaProfile.FULL;
+    }
+
+    public LuaProfile getProfile() {
+        return profile;
+    }
 
     @Override
     public String getEngineName() {
@@ -71,6 +117,8 @@ public class LuaScriptEngineFactory implements ScriptEngineFactory {
                 return getNames().get(0);
             case "THREADING":
                 return THREADING;
+            case PROFILE:
+                return profile.getName();
             default:
                 return null;
         }
@@ -100,6 +148,20 @@ public class LuaScriptEngineFactory implements ScriptEngineFactory {
 
     @Override
     public ScriptEngine getScriptEngine() {
-        return new LuaScriptEngine();
+        LuaScriptEngine engine = new LuaScriptEngine(profile);
+        engine.setCompilerSettings(compilerSettings);
+        return engine;
+    }
+
+    /**
+     * create a pooled engine, the libraries of its scripts are the profile of the pool
+     *
+     * @param pool executors running scripts of the engine
+     * @return an engine whose calls run on executors of the pool
+     */
+    public ScriptEngine getScriptEngine(LuaExecutorPool pool) {
+        LuaScriptEngine engine = new LuaScriptEngine(pool);
+        engine.setCompilerSettings(compilerSettings);
+        return engine;
     }
 }
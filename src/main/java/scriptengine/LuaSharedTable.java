@@ -0,0 +1,502 @@
+package scriptengine;
+
+import net.sandius.rembulan.ByteString;
+import net.sandius.rembulan.Conversions;
+import net.sandius.rembulan.Table;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * a java data set published once as an immutable lua table that any number of executors read without copying.
+ * <p>
+ * maps, collections, arrays, beans and lua tables are encoded with all their nested values into one compact
+ * buffer, equal strings are stored once. the buffer lives on the heap, off the heap or in a memory-mapped file
+ * written by {@link #write(Object, Path)}, so data sets larger than the heap can be shared as well. passing the
+ * shared table to {@link LuaExecutor#putContext(Map)} or as an argument of a call binds the same read-only table in
+ * every state: it is decoded in place when scripts read it, and writes to it or its nested tables raise an error.
+ * keys are strings, numbers and booleans, entries with a nil value are left out, java values which are no lua
+ * numbers, strings, booleans or tables can't be shared. a data set is limited to 2GB
+ */
+public final class LuaSharedTable {
+    private static final int MAGIC = 0x4c554153;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_BYTES = 16;
+    /**
+     * strings up to this length are decoded once and kept, longer strings are copied out on every read
+     */
+    private static final int MAX_CACHED_STRING = 32;
+
+    private final ByteBuffer buffer;
+    private final SharedTable table;
+    /**
+     * short strings decoded so far by ordinal
+     */
+    private final AtomicReferenceArray<ByteString> strings;
+
+    private LuaSharedTable(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.strings = new AtomicReferenceArray<>(buffer.getInt(12));
+        this.table = new SharedTable(this, buffer, buffer.getInt(8));
+    }
+
+    /**
+     * @param data a map, collection, array, bean or lua table
+     * @return the data set encoded into a heap buffer
+     */
+    public static LuaSharedTable of(Object data) {
+        Encoder encoder = new Encoder();
+        encoder.encodeRoot(data);
+        return new LuaSharedTable(ByteBuffer.wrap(Arrays.copyOf(encoder.bytes, encoder.size)));
+    }
+
+    /**
+     * @param data a map, collection, array, bean or lua table
+     * @return the data set encoded into a direct buffer, outside the heap
+     */
+    public static LuaSharedTable offHeap(Object data) {
+        Encoder encoder = new Encoder();
+        encoder.encodeRoot(data);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(encoder.size);
+        buffer.put(encoder.bytes, 0, encoder.size).flip();
+        return new LuaSharedTable(buffer);
+    }
+
+    /**
+     * encode a data set into a file to be mapped by {@link #map(Path)}, in this or another process
+     *
+     * @param data a map, collection, array, bean or lua table
+     * @param file the file, replaced if it exists
+     * @throws IOException if the file can't be written
+     */
+    public static void write(Object data, Path file) throws IOException {
+        Encoder encoder = new Encoder();
+        encoder.encodeRoot(data);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(encoder.bytes, 0, encoder.size);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * @param file a file written by {@link #write(Object, Path)}
+     * @return the data set mapped read-only from the file, pages are loaded by the os as they are read
+     * @throws IOException if the file can't be read or is no shared table
+     */
+    public static LuaSharedTable map(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < FILE_HEADER_BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException("not a shared table: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("not a shared table: " + file);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("unsupported version " + buffer.getInt(4) + " of shared table " + file);
+        }
+        return new LuaSharedTable(buffer);
+    }
+
+    /**
+     * @return bytes of the encoded data set
+     */
+    public int getByteSize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * @return whether the data set is outside the heap, in a direct buffer or a mapped file
+     */
+    public boolean isOffHeap() {
+        return buffer.isDirect();
+    }
+
+    /**
+     * @return the root table, the same for all executors
+     */
+    Table table() {
+        return table;
+    }
+
+    /**
+     * @param payload ordinal and offset of a string
+     * @return the string, the same instance every time if it is short
+     */
+    ByteString string(long payload) {
+        int ordinal = (int) (payload >>> 32);
+        ByteString string = strings.get(ordinal);
+        if (string != null) {
+            return string;
+        }
+        int offset = (int) payload;
+        // ByteString.copyOf(byte[], int, int) takes the range wrong unless it starts at 0, copy it here
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + offset + 4, bytes, 0, bytes.length);
+        } else {
+            ByteBuffer source = buffer.duplicate();
+            source.position(offset + 4);
+            source.get(bytes);
+        }
+        string = ByteString.copyOf(bytes);
+        if (bytes.length <= MAX_CACHED_STRING) {
+            strings.compareAndSet(ordinal, null, string);
+        }
+        return string;
+    }
+
+    /**
+     * writes tables after their strings and nested tables, so a table knows the offsets of all its values when it is
+     * written
+     */
+    private static final class Encoder {
+        private byte[] bytes = new byte[4096];
+        private int size = FILE_HEADER_BYTES;
+        private final Map<ByteString, Long> strings = new HashMap<>();
+        /**
+         * tag and payload of the last encoded value
+         */
+        private byte tag;
+        private long payload;
+
+        void encodeRoot(Object data) {
+            encode(data, 0);
+            if (tag != SharedTable.TABLE) {
+                throw new IllegalArgumentException("a shared table needs a map, collection, array, bean or table, got "
+                        + (data == null ? "nil" : data.getClass().getName()));
+            }
+            ByteBuffer header = ByteBuffer.wrap(bytes);
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putInt(8, (int) payload);
+            header.putInt(12, strings.size());
+        }
+
+        /**
+         * encode a value, leaving its tag and payload in the encoder
+         */
+        private void encode(Object value, int depth) {
+            if (value == null) {
+                set(SharedTable.NIL, 0L);
+            } else if (value instanceof Boolean) {
+                set((Boolean) value ? SharedTable.TRUE : SharedTable.FALSE, 0L);
+            } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+                    || value instanceof Byte) {
+                set(SharedTable.INTEGER, ((Number) value).longValue());
+            } else if (value instanceof Number) {
+                set(SharedTable.FLOAT, Double.doubleToLongBits(((Number) value).doubleValue()));
+            } else if (value instanceof ByteString) {
+                set(SharedTable.STRING, string((ByteString) value));
+            } else if (value instanceof CharSequence || value instanceof Character || value instanceof Enum) {
+                // the bytes ByteString.of would encode, encoded once rather than by every hash and comparison
+                String string = value instanceof Enum ? ((Enum) value).name() : value.toString();
+                set(SharedTable.STRING, string(ByteString.copyOf(string.getBytes(Charset.defaultCharset()))));
+            } else if (value instanceof LuaSharedTable) {
+                throw new IllegalArgumentException("a shared table can't be nested into another");
+            } else if (depth > 1000) {
+                throw new IllegalArgumentException("data nested deeper than 1000 levels, is there a cycle?");
+            } else if (value instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) value;
+                table(map.entrySet().iterator(), map.size(), null, depth);
+            } else if (value instanceof Collection) {
+                Collection<?> collection = (Collection<?>) value;
+                table(null, collection.size(), collection.iterator(), depth);
+            } else if (value.getClass().isArray()) {
+                table(null, Array.getLength(value), new ArrayIterator(value), depth);
+            } else if (value instanceof Table) {
+                table(new TableIterator((Table) value), 16, null, depth);
+            } else {
+                Object converted = LuaConverters.toLua(value, ConversionMode.COPY);
+                if (converted == value) {
+                    throw new IllegalArgumentException("can't share a java value of " + value.getClass().getName());
+                }
+                encode(converted, depth);
+            }
+        }
+
+        private void set(byte tag, long payload) {
+            this.tag = tag;
+            this.payload = payload;
+        }
+
+        /**
+         * @return ordinal and offset of the string, written once
+         */
+        private long string(ByteString string) {
+            Long payload = strings.get(string);
+            if (payload == null) {
+                byte[] content = string.getBytes();
+                int offset = reserve(4 + content.length);
+                putInt(offset, content.length);
+                System.arraycopy(content, 0, bytes, offset + 4, content.length);
+                payload = (long) strings.size() << 32 | offset;
+                strings.put(string, payload);
+            }
+            return payload;
+        }
+
+        /**
+         * encode a table from entries of a map or lua table, or from the elements of a sequence
+         */
+        private void table(Iterator<? extends Map.Entry<?, ?>> entries, int expected, Iterator<?> elements, int depth) {
+            ValueList array = new ValueList(elements != null ? expected : 0);
+            ValueList keys = new ValueList(elements != null ? 0 : expected);
+            ValueList values = new ValueList(elements != null ? 0 : expected);
+            if (elements != null) {
+                long index = 0;
+                while (elements.hasNext()) {
+                    index++;
+                    encode(elements.next(), depth + 1);
+                    if (tag == SharedTable.NIL) {
+                        continue;
+                    }
+                    if (keys.size == 0 && index == array.size + 1) {
+                        array.add(tag, payload);
+                    } else {
+                        values.add(tag, payload);
+                        keys.add(SharedTable.INTEGER, index);
+                    }
+                }
+            } else {
+                while (entries.hasNext()) {
+                    Map.Entry<?, ?> entry = entries.next();
+                    if (entry.getKey() == null) {
+                        continue;
+                    }
+                    encode(entry.getValue(), depth + 1);
+                    if (tag == SharedTable.NIL) {
+                        continue;
+                    }
+                    values.add(tag, payload);
+                    key(entry.getKey());
+                    keys.add(tag, payload);
+                }
+                moveSequence(keys, values, array);
+            }
+            int capacity = keys.size == 0 ? 0 : Integer.highestOneBit(keys.size * 2 - 1) << 1;
+            int offset = reserve(SharedTable.HEADER_BYTES + array.size * SharedTable.VALUE_BYTES
+                    + capacity * SharedTable.SLOT_BYTES);
+            putInt(offset, array.size);
+            putInt(offset + 4, capacity);
+            putInt(offset + 8, keys.size);
+            int position = offset + SharedTable.HEADER_BYTES;
+            for (int i = 0; i < array.size; i++, position += SharedTable.VALUE_BYTES) {
+                putValue(position, array.tags[i], array.payloads[i]);
+            }
+            int mask = capacity - 1;
+            for (int i = 0; i < keys.size; i++) {
+                int slot = SharedTable.slotOf(hashOf(keys.tags[i], keys.payloads[i]), capacity);
+                while (bytes[position + slot * SharedTable.SLOT_BYTES] != SharedTable.NIL) {
+                    slot = (slot + 1) & mask;
+                }
+                int at = position + slot * SharedTable.SLOT_BYTES;
+                putValue(at, keys.tags[i], keys.payloads[i]);
+                putValue(at + SharedTable.VALUE_BYTES, values.tags[i], values.payloads[i]);
+            }
+            set(SharedTable.TABLE, offset);
+        }
+
+        /**
+         * encode a key, integral floats become integers as in lua
+         */
+        private void key(Object key) {
+            if (key instanceof Double || key instanceof Float) {
+                double number = ((Number) key).doubleValue();
+                if (Double.isNaN(number)) {
+                    throw new IllegalArgumentException("a table key can't be NaN");
+                }
+                Long integer = Conversions.integerValueOf(number);
+                if (integer != null) {
+                    set(SharedTable.INTEGER, integer);
+                    return;
+                }
+            }
+            encode(key, 0);
+            if (tag == SharedTable.TABLE) {
+                throw new IllegalArgumentException("a shared table key must be a string, number or boolean, got "
+                        + key.getClass().getName());
+            }
+        }
+
+        /**
+         * move the entries of keys 1..n into the array part
+         */
+        private static void moveSequence(ValueList keys, ValueList values, ValueList array) {
+            int count = 0;
+            for (int i = 0; i < keys.size; i++) {
+                if (keys.tags[i] == SharedTable.INTEGER) {
+                    count++;
+                }
+            }
+            if (count == 0) {
+                return;
+            }
+            long[] integers = new long[count];
+            count = 0;
+            for (int i = 0; i < keys.size; i++) {
+                if (keys.tags[i] == SharedTable.INTEGER) {
+                    integers[count++] = keys.payloads[i];
+                }
+            }
+            Arrays.sort(integers);
+            int length = 0;
+            while (length < count && integers[length] == length + 1) {
+                length++;
+            }
+            if (length == 0) {
+                return;
+            }
+            array.ensure(length);
+            array.size = length;
+            int kept = 0;
+            for (int i = 0; i < keys.size; i++) {
+                if (keys.tags[i] == SharedTable.INTEGER && keys.payloads[i] >= 1 && keys.payloads[i] <= length) {
+                    int index = (int) keys.payloads[i] - 1;
+                    array.tags[index] = values.tags[i];
+                    array.payloads[index] = values.payloads[i];
+                } else {
+                    keys.tags[kept] = keys.tags[i];
+                    keys.payloads[kept] = keys.payloads[i];
+                    values.tags[kept] = values.tags[i];
+                    values.payloads[kept] = values.payloads[i];
+                    kept++;
+                }
+            }
+            keys.size = kept;
+            values.size = kept;
+        }
+
+        private int hashOf(byte tag, long payload) {
+            if (tag != SharedTable.STRING) {
+                return SharedTable.hashOf(tag, payload);
+            }
+            int offset = (int) payload;
+            return ByteString.copyOf(Arrays.copyOfRange(bytes, offset + 4, offset + 4 + getInt(offset))).hashCode();
+        }
+
+        /**
+         * @return offset of the reserved bytes, which are zero
+         */
+        private int reserve(int length) {
+            long end = (long) size + length;
+            if (end > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("a shared table is limited to 2GB");
+            }
+            if (end > bytes.length) {
+                bytes = Arrays.copyOf(bytes, (int) Math.min(Math.max(end, 2L * bytes.length), Integer.MAX_VALUE - 8));
+            }
+            int offset = size;
+            size = (int) end;
+            return offset;
+        }
+
+        private void putValue(int position, byte tag, long payload) {
+            bytes[position] = tag;
+            for (int i = 0; i < 8; i++) {
+                bytes[position + 1 + i] = (byte) (payload >>> (56 - 8 * i));
+            }
+        }
+
+        private void putInt(int position, int value) {
+            for (int i = 0; i < 4; i++) {
+                bytes[position + i] = (byte) (value >>> (24 - 8 * i));
+            }
+        }
+
+        private int getInt(int position) {
+            return (bytes[position] & 0xff) << 24 | (bytes[position + 1] & 0xff) << 16
+                    | (bytes[position + 2] & 0xff) << 8 | bytes[position + 3] & 0xff;
+        }
+    }
+
+    /**
+     * tags and payloads of the keys or values of a table being encoded
+     */
+    private static final class ValueList {
+        byte[] tags;
+        long[] payloads;
+        int size;
+
+        ValueList(int capacity) {
+            tags = new byte[Math.max(capacity, 4)];
+            payloads = new long[tags.length];
+        }
+
+        void add(byte tag, long payload) {
+            ensure(size + 1);
+            tags[size] = tag;
+            payloads[size++] = payload;
+        }
+
+        void ensure(int capacity) {
+            if (capacity > tags.length) {
+                int length = Math.max(capacity, tags.length * 2);
+                tags = Arrays.copyOf(tags, length);
+                payloads = Arrays.copyOf(payloads, length);
+            }
+        }
+    }
+
+    private static final class ArrayIterator implements Iterator<Object> {
+        private final Object array;
+        private final int length;
+        private int index;
+
+        ArrayIterator(Object array) {
+            this.array = array;
+            this.length = Array.getLength(array);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < length;
+        }
+
+        @Override
+        public Object next() {
+            return Array.get(array, index++);
+        }
+    }
+
+    private static final class TableIterator implements Iterator<Map.Entry<Object, Object>> {
+        private final Table table;
+        private Object key;
+
+        TableIterator(Table table) {
+            this.table = table;
+            this.key = table.initialKey();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return key != null;
+        }
+
+        @Override
+        public Map.Entry<Object, Object> next() {
+            Map.Entry<Object, Object> entry = new AbstractMap.SimpleImmutableEntry<>(key, table.rawget(key));
+            key = table.successorKeyOf(key);
+            return entry;
+        }
+    }
+}
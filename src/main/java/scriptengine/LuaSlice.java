@@ -0,0 +1,47 @@
+package scriptengine;
+
+import net.sandius.rembulan.exec.Continuation;
+
+/**
+ * outcome of running a script for one slice of ticks, either the script has returned or it has used up the slice
+ * and is paused, a paused script can be resumed from its continuation by {@link LuaExecutor#resume(Continuation, long)}
+ * on any thread, once at a time
+ */
+public class LuaSlice {
+    private final Object[] results;
+    private final Continuation continuation;
+
+    private LuaSlice(Object[] results, Continuation continuation) {
+        this.results = results;
+        this.continuation = continuation;
+    }
+
+    static LuaSlice returned(Object[] results) {
+        return new LuaSlice(results, null);
+    }
+
+    static LuaSlice paused(Continuation continuation) {
+        return new LuaSlice(null, continuation);
+    }
+
+    /**
+     * @return true if the script has used up its ticks before returning
+     */
+    public boolean isPaused() {
+        return continuation != null;
+    }
+
+    /**
+     * @return results of the script if it has returned, or null if it is paused
+     */
+    public Object[] getResults() {
+        return results;
+    }
+
+    /**
+     * @return continuation of the script if it is paused, or null if it has returned
+     */
+    public Continuation getContinuation() {
+        return continuation;
+    }
+}
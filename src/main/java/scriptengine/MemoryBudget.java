@@ -0,0 +1,124 @@
+package scriptengine;
+
+import exception.LuaQuotaException;
+import net.sandius.rembulan.ByteString;
+import net.sandius.rembulan.LuaRuntimeException;
+import net.sandius.rembulan.runtime.SchedulingContext;
+
+/**
+ * accounting of one call under a {@link LuaQuota}.
+ * <p>
+ * the budget is the scheduling context of the call: ticks registered by the script read the allocation counter of
+ * the thread now and then, and once the quota is exceeded the script is asked to pause, so it is stopped at its next
+ * basic block and can't go on under a pcall. tables created by the call report their new entries, which reads the
+ * counter early when they grow fast and is the estimate of the memory where the counter is missing
+ */
+final class MemoryBudget implements SchedulingContext {
+    /**
+     * estimated bytes of an entry of a table, and of the header of a string value
+     */
+    private static final long ENTRY_BYTES = 48L;
+    private static final long STRING_BYTES = 24L;
+
+    private final LuaQuota quota;
+    /**
+     * allocation counter of the thread at the start of the call, -1 if the thread has none
+     */
+    private final long startAllocated;
+    /**
+     * bytes of the conversions bound for the call before it started
+     */
+    private final long converted;
+    /**
+     * bytes estimated for the entries stored into tables of the call
+     */
+    private long estimated;
+    private long nextEstimateCheck;
+    private final long estimateCheckInterval;
+    private long ticks;
+    private long nextTickCheck;
+
+    private String failure;
+    private long used;
+    private long limit;
+
+    MemoryBudget(LuaQuota quota, long converted) {
+        this.quota = quota;
+        this.converted = converted;
+        this.startAllocated = ThreadAllocations.current();
+        this.estimateCheckInterval = Math.max(4096L, quota.getMaxBytes() / 16);
+        this.nextEstimateCheck = estimateCheckInterval;
+        this.nextTickCheck = quota.getCheckTicks();
+    }
+
+    @Override
+    public void registerTicks(int ticks) {
+        this.ticks += ticks;
+        if (this.ticks >= nextTickCheck) {
+            nextTickCheck = this.ticks + quota.getCheckTicks();
+            check();
+        }
+    }
+
+    @Override
+    public boolean shouldPause() {
+        return failure != null;
+    }
+
+    /**
+     * account a new entry of a table created by the call
+     *
+     * @param entries entries of the table with the new one
+     * @param value   the value stored
+     * @throws LuaRuntimeException if the quota is exceeded
+     */
+    void entryAdded(long entries, Object value) {
+        if (entries > quota.getMaxTableEntries() && failure == null) {
+            exceed("table quota exceeded: more than " + quota.getMaxTableEntries() + " entries in a table",
+                    entries, quota.getMaxTableEntries());
+        }
+        estimated += ENTRY_BYTES;
+        if (value instanceof ByteString) {
+            estimated += STRING_BYTES + ((ByteString) value).length();
+        } else if (value instanceof String) {
+            estimated += STRING_BYTES + 2L * ((String) value).length();
+        }
+        if (estimated >= nextEstimateCheck) {
+            nextEstimateCheck = estimated + estimateCheckInterval;
+            check();
+        }
+        if (failure != null) {
+            throw new LuaRuntimeException(failure);
+        }
+    }
+
+    /**
+     * compare the memory used so far with the quota
+     *
+     * @return whether the call is within its quota
+     */
+    boolean check() {
+        if (failure == null) {
+            long bytes = converted + (startAllocated >= 0 ? ThreadAllocations.current() - startAllocated : estimated);
+            if (bytes > quota.getMaxBytes()) {
+                exceed("memory quota exceeded: " + bytes + " bytes allocated, " + quota.getMaxBytes() + " allowed",
+                        bytes, quota.getMaxBytes());
+            }
+        }
+        return failure == null;
+    }
+
+    boolean isExceeded() {
+        return failure != null;
+    }
+
+    LuaQuotaException toException() {
+        return new LuaQuotaException(failure, used, limit);
+    }
+
+    private void exceed(String failure, long used, long limit) {
+        this.failure = failure;
+        this.used = used;
+        this.limit = limit;
+    }
+}
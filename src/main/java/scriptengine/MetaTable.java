@@ -0,0 +1,659 @@
+package scriptengine;
+
+import net.sandius.rembulan.ByteString;
+import net.sandius.rembulan.Table;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * a table copied from a java map, collection or bean.
+ * <p>
+ * like the tables of lua, values of keys 1..n are kept in a dense array part, other keys go to hash parts split by
+ * key type: integers and floats are stored in open-addressing slots of primitive keys so lookups don't box, strings,
+ * booleans and other keys have their own slots. keys set to nil stay in the hash parts as dead keys until the next
+ * rehash, so a traversal can go on after fields are cleared. keys are traversed by partition, the array part first,
+ * then integer, float, string, boolean and other keys
+ */
+class MetaTable extends Table {
+    private static final Logger logger = LoggerFactory.getLogger(MetaTable.class);
+
+    private static final Object[] EMPTY = {};
+
+    private static final int ARRAY = 0;
+    private static final int LONG = 1;
+    private static final int DOUBLE = 2;
+    private static final int STRING = 3;
+    private static final int BOOL = 4;
+    private static final int OTHER = 5;
+
+    /**
+     * values of keys 1..arraySize, may have holes but the last one is never nil
+     */
+    private Object[] array = EMPTY;
+    private int arraySize;
+
+    /**
+     * hash parts, null until the first key of its type
+     */
+    private LongSlots longSlots;
+    private LongSlots doubleSlots;
+    private ObjectSlots stringSlots;
+    private ObjectSlots otherSlots;
+    private Object trueValue;
+    private Object falseValue;
+
+    /**
+     * the key returned last time by a traversal and the position following it, lets next() go on from the key
+     * without looking it up again
+     */
+    private Object cursorKey;
+    private int cursorPartition;
+    private int cursorPosition;
+
+    MetaTable() {
+        super();
+    }
+
+    MetaTable(Map map) {
+        putAll(map);
+    }
+
+    MetaTable(Collection collection) {
+        addAll(collection);
+    }
+
+    /**
+     * copy the properties of a bean
+     *
+     * @throws IllegalStateException if a getter fails
+     */
+    static MetaTable ofBean(Object bean, BeanAccessor accessor) {
+        MetaTable table = new MetaTable();
+        accessor.forEachProperty(bean, (name, value) -> table.rawset(name, propertyValue(value)));
+        return table;
+    }
+
+    /**
+     * copy the elements of an array of objects or primitives to the array part
+     */
+    static MetaTable ofArray(Object array) {
+        int length = Array.getLength(array);
+        MetaTable table = new MetaTable();
+        table.array = new Object[length];
+        for (int i = 0; i < length; i++) {
+            table.rawset(i + 1, Array.get(array, i));
+        }
+        return table;
+    }
+
+    private void putAll(Map map) {
+        for (Object key : map.keySet()) {
+            rawset(key, map.get(key));
+        }
+    }
+
+    /**
+     * elements are appended to an array part sized for the collection
+     */
+    private void addAll(Collection collection) {
+        if (!collection.isEmpty()) {
+            array = new Object[collection.size()];
+        }
+        long key = 1L;
+        for (Object o : collection) {
+            rawset(key++, o);
+        }
+    }
+
+    /**
+     * copy a java map, collection, array or bean to a table, other values are converted by {@link LuaConverters}
+     *
+     * @param value a java value
+     * @return a table or the value
+     */
+    static Object wrap(Object value) {
+        return LuaConverters.toLua(value, ConversionMode.COPY);
+    }
+
+    /**
+     * values of bean properties which have no table form are stored as lua strings or numbers
+     */
+    private static Object propertyValue(Object value) {
+        if (value instanceof Enum) {
+            return ((Enum) value).name();
+        } else if (value instanceof Date) {
+            return ((Date) value).getTime();
+        } else if (value instanceof Character) {
+            return value.toString();
+        } else {
+            return value;
+        }
+    }
+
+    public <T> T toExactObject(Class<T> clazz) {
+        try {
+            return (T) BeanAccessor.toJava(this, clazz);
+        } catch (RuntimeException e) {
+            logger.info(e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * @return values of integer keys in ascending order of keys
+     */
+    public List toList() {
+        List<Object> list = new ArrayList<>(arraySize);
+        for (int i = 0; i < arraySize; i++) {
+            if (array[i] != null) {
+                list.add(array[i]);
+            }
+        }
+        if (longSlots != null && longSlots.size() > 0) {
+            long[] keys = new long[longSlots.size()];
+            int count = 0;
+            for (int slot = longSlots.nextSlot(0); slot >= 0; slot = longSlots.nextSlot(slot + 1)) {
+                keys[count++] = longSlots.keys[slot];
+            }
+            Arrays.sort(keys, 0, count);
+            for (int i = 0; i < count; i++) {
+                list.add(longSlots.get(keys[i]));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public Object rawget(Object key) {
+        if (key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte) {
+            return rawget(((Number) key).longValue());
+        } else if (key instanceof Double || key instanceof Float) {
+            double d = ((Number) key).doubleValue();
+            if (isIntegral(d)) {
+                return rawget((long) d);
+            }
+            return doubleSlots != null ? doubleSlots.get(Double.doubleToLongBits(d)) : null;
+        } else if (key instanceof String || key instanceof ByteString) {
+            return stringSlots != null ? stringSlots.get(key.toString()) : null;
+        } else if (key instanceof Boolean) {
+            return (Boolean) key ? trueValue : falseValue;
+        } else if (key == null) {
+            return null;
+        } else {
+            return otherSlots != null ? otherSlots.get(key) : null;
+        }
+    }
+
+    @Override
+    public Object rawget(long idx) {
+        if (idx >= 1 && idx <= arraySize) {
+            return array[(int) (idx - 1)];
+        }
+        return longSlots != null ? longSlots.get(idx) : null;
+    }
+
+    @Override
+    public void rawset(Object key, Object value) {
+        if (key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte) {
+            rawset(((Number) key).longValue(), value);
+        } else if (key instanceof Double || key instanceof Float) {
+            double d = ((Number) key).doubleValue();
+            if (Double.isNaN(d)) {
+                throw new IllegalArgumentException("table index is NaN");
+            }
+            if (isIntegral(d)) {
+                rawset((long) d, value);
+                return;
+            }
+            if (doubleSlots == null) {
+                if (value == null) return;
+                doubleSlots = new LongSlots(true);
+            }
+            doubleSlots.put(Double.doubleToLongBits(d), wrap(value));
+        } else if (key instanceof String || key instanceof ByteString) {
+            if (stringSlots == null) {
+                if (value == null) return;
+                stringSlots = new ObjectSlots();
+            }
+            stringSlots.put(key.toString(), wrap(value));
+        } else if (key instanceof Boolean) {
+            if ((Boolean) key) {
+                trueValue = wrap(value);
+            } else {
+                falseValue = wrap(value);
+            }
+        } else if (key != null) {
+            if (otherSlots == null) {
+                if (value == null) return;
+                otherSlots = new ObjectSlots();
+            }
+            otherSlots.put(key, wrap(value));
+        }
+    }
+
+    @Override
+    public void rawset(long idx, Object value) {
+        value = wrap(value);
+        if (idx >= 1 && idx <= arraySize) {
+            array[(int) (idx - 1)] = value;
+            if (value == null && idx == arraySize) {
+                // keep the last value of the array part non-nil
+                while (arraySize > 0 && array[arraySize - 1] == null) {
+                    arraySize--;
+                }
+            }
+        } else if (idx == arraySize + 1 && value != null) {
+            append(value);
+        } else if (longSlots != null) {
+            longSlots.put(idx, value);
+        } else if (value != null) {
+            longSlots = new LongSlots(false);
+            longSlots.put(idx, value);
+        }
+    }
+
+    /**
+     * append a value to the array part, then move the keys following it from the hash part to the array part
+     */
+    private void append(Object value) {
+        if (longSlots != null) {
+            // the key may have been set before the array part reached it
+            longSlots.remove(arraySize + 1);
+        }
+        while (true) {
+            if (arraySize == array.length) {
+                array = Arrays.copyOf(array, Math.max(4, array.length * 2));
+            }
+            array[arraySize++] = value;
+            if (longSlots == null || longSlots.size() == 0) {
+                return;
+            }
+            value = longSlots.get(arraySize + 1);
+            if (value == null) {
+                return;
+            }
+            longSlots.remove(arraySize + 1);
+        }
+    }
+
+    /**
+     * the array part never ends with nil and the key following it is always in the array part, so its size is a
+     * border of the table
+     */
+    @Override
+    public long rawlen() {
+        return arraySize;
+    }
+
+    @Override
+    public Object initialKey() {
+        return keyFrom(ARRAY, 0);
+    }
+
+    @Override
+    public Object successorKeyOf(Object key) {
+        if (key != null && key.equals(cursorKey) && isCursorValid()) {
+            return keyFrom(cursorPartition, cursorPosition);
+        }
+        if (key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte) {
+            return successorKeyOf(((Number) key).longValue());
+        } else if (key instanceof Double || key instanceof Float) {
+            double d = ((Number) key).doubleValue();
+            if (isIntegral(d)) {
+                return successorKeyOf((long) d);
+            }
+            return keyAfterSlot(DOUBLE, doubleSlots != null ? doubleSlots.slotOf(Double.doubleToLongBits(d)) : -1);
+        } else if (key instanceof String || key instanceof ByteString) {
+            return keyAfterSlot(STRING, stringSlots != null ? stringSlots.slotOf(key.toString()) : -1);
+        } else if (key instanceof Boolean) {
+            return keyFrom(BOOL, (Boolean) key ? 1 : 2);
+        } else {
+            return keyAfterSlot(OTHER, otherSlots != null && key != null ? otherSlots.slotOf(key) : -1);
+        }
+    }
+
+    private Object successorKeyOf(long key) {
+        if (key >= 1 && key <= arraySize) {
+            return keyFrom(ARRAY, (int) key);
+        }
+        int slot = longSlots != null ? longSlots.slotOf(key) : -1;
+        if (slot >= 0) {
+            return keyFrom(LONG, slot + 1);
+        } else if (key >= 1 && key <= array.length) {
+            // the key was at the end of the array part and has been set to nil
+            return keyFrom(ARRAY, (int) key);
+        }
+        throw new IllegalArgumentException("invalid key to 'next'");
+    }
+
+    private Object keyAfterSlot(int partition, int slot) {
+        if (slot < 0) {
+            throw new IllegalArgumentException("invalid key to 'next'");
+        }
+        return keyFrom(partition, slot + 1);
+    }
+
+    /**
+     * keys of the array part and booleans never move, a key of a hash part moves only on rehash or removal, so the
+     * cursor holds as long as its slot still has the key
+     */
+    private boolean isCursorValid() {
+        int slot = cursorPosition - 1;
+        switch (cursorPartition) {
+            case LONG:
+                return longSlots.isKeyAt(slot, (Long) cursorKey);
+            case DOUBLE:
+                return doubleSlots.isKeyAt(slot, Double.doubleToLongBits((Double) cursorKey));
+            case STRING:
+                return stringSlots.isKeyAt(slot, cursorKey);
+            case OTHER:
+                return otherSlots.isKeyAt(slot, cursorKey);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * find the first live key from a position of a partition
+     */
+    private Object keyFrom(int partition, int position) {
+        for (int p = partition; p <= OTHER; p++, position = 0) {
+            int slot;
+            switch (p) {
+                case ARRAY:
+                    for (int i = position; i < arraySize; i++) {
+                        if (array[i] != null) {
+                            return moveCursor((long) (i + 1), ARRAY, i + 1);
+                        }
+                    }
+                    break;
+                case LONG:
+                    if (longSlots != null && (slot = longSlots.nextSlot(position)) >= 0) {
+                        return moveCursor(longSlots.keyAt(slot), LONG, slot + 1);
+                    }
+                    break;
+                case DOUBLE:
+                    if (doubleSlots != null && (slot = doubleSlots.nextSlot(position)) >= 0) {
+                        return moveCursor(doubleSlots.keyAt(slot), DOUBLE, slot + 1);
+                    }
+                    break;
+                case STRING:
+                    if (stringSlots != null && (slot = stringSlots.nextSlot(position)) >= 0) {
+                        return moveCursor(stringSlots.keys[slot], STRING, slot + 1);
+                    }
+                    break;
+                case BOOL:
+                    if (position < 1 && trueValue != null) {
+                        return moveCursor(Boolean.TRUE, BOOL, 1);
+                    } else if (position < 2 && falseValue != null) {
+                        return moveCursor(Boolean.FALSE, BOOL, 2);
+                    }
+                    break;
+                default:
+                    if (otherSlots != null && (slot = otherSlots.nextSlot(position)) >= 0) {
+                        return moveCursor(otherSlots.keys[slot], OTHER, slot + 1);
+                    }
+            }
+        }
+        cursorKey = null;
+        return null;
+    }
+
+    private Object moveCursor(Object key, int partition, int position) {
+        cursorKey = key;
+        cursorPartition = partition;
+        cursorPosition = position;
+        return key;
+    }
+
+    private static boolean isIntegral(double d) {
+        return d == Math.rint(d) && d >= Long.MIN_VALUE && d < 0x1p63;
+    }
+
+    @Override
+    protected void setMode(boolean weakKey, boolean weakValue) {
+
+    }
+
+    private static int capacityFor(int size) {
+        int capacity = 8;
+        while (capacity * 3 / 4 <= size) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * open-addressing slots of primitive keys with linear probing, float keys are stored by their bits
+     */
+    private static class LongSlots {
+        private final boolean doubleKeys;
+        private long[] keys = new long[8];
+        private Object[] values = new Object[8];
+        private boolean[] used = new boolean[8];
+        /**
+         * count of used slots including dead keys
+         */
+        private int usedCount;
+        private int size;
+
+        LongSlots(boolean doubleKeys) {
+            this.doubleKeys = doubleKeys;
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        int size() {
+            return size;
+        }
+
+        int slotOf(long key) {
+            int mask = keys.length - 1;
+            for (int i = hash(key) & mask; used[i]; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        Object get(long key) {
+            int slot = slotOf(key);
+            return slot >= 0 ? values[slot] : null;
+        }
+
+        void put(long key, Object value) {
+            int slot = slotOf(key);
+            if (slot >= 0) {
+                if (values[slot] == null) {
+                    if (value == null) return;
+                    size++;
+                } else if (value == null) {
+                    size--;
+                }
+                values[slot] = value;
+                return;
+            }
+            if (value == null) {
+                return;
+            }
+            if (usedCount + 1 > keys.length * 3 / 4) {
+                rehash();
+            }
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (used[i]) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+            used[i] = true;
+            usedCount++;
+            size++;
+        }
+
+        /**
+         * remove a key for good, only allowed when no traversal is going on
+         */
+        void remove(long key) {
+            int i = slotOf(key);
+            if (i < 0) {
+                return;
+            }
+            if (values[i] != null) {
+                size--;
+            }
+            usedCount--;
+            int mask = keys.length - 1;
+            // shift the following keys of the probe sequence back into the hole
+            for (int j = (i + 1) & mask; used[j]; j = (j + 1) & mask) {
+                int home = hash(keys[j]) & mask;
+                if (i <= j ? (i < home && home <= j) : (i < home || home <= j)) {
+                    continue;
+                }
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+            used[i] = false;
+            values[i] = null;
+        }
+
+        /**
+         * resize for the live keys, dead keys are dropped
+         */
+        private void rehash() {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            int capacity = capacityFor(size + 1);
+            keys = new long[capacity];
+            values = new Object[capacity];
+            used = new boolean[capacity];
+            usedCount = 0;
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        /**
+         * @return the first slot of a live key from a position, or -1
+         */
+        int nextSlot(int from) {
+            for (int i = from; i < values.length; i++) {
+                if (values[i] != null) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        boolean isKeyAt(int slot, long key) {
+            return slot < keys.length && used[slot] && keys[slot] == key;
+        }
+
+        Object keyAt(int slot) {
+            return doubleKeys ? (Object) Double.longBitsToDouble(keys[slot]) : (Object) keys[slot];
+        }
+    }
+
+    /**
+     * open-addressing slots of object keys with linear probing
+     */
+    private static class ObjectSlots {
+        private Object[] keys = new Object[8];
+        private Object[] values = new Object[8];
+        private int usedCount;
+        private int size;
+
+        private static int hash(Object key) {
+            int h = key.hashCode() * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        int slotOf(Object key) {
+            int mask = keys.length - 1;
+            for (int i = hash(key) & mask; keys[i] != null; i = (i + 1) & mask) {
+                if (keys[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        Object get(Object key) {
+            int slot = slotOf(key);
+            return slot >= 0 ? values[slot] : null;
+        }
+
+        void put(Object key, Object value) {
+            int slot = slotOf(key);
+            if (slot >= 0) {
+                if (values[slot] == null) {
+                    if (value == null) return;
+                    size++;
+                } else if (value == null) {
+                    size--;
+                }
+                values[slot] = value;
+                return;
+            }
+            if (value == null) {
+                return;
+            }
+            if (usedCount + 1 > keys.length * 3 / 4) {
+                rehash();
+            }
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+            usedCount++;
+            size++;
+        }
+
+        private void rehash() {
+            Object[] oldKeys = keys;
+            Object[] oldValues = values;
+            int capacity = capacityFor(size + 1);
+            keys = new Object[capacity];
+            values = new Object[capacity];
+            usedCount = 0;
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        boolean isKeyAt(int slot, Object key) {
+            return slot < keys.length && key.equals(keys[slot]);
+        }
+
+        int nextSlot(int from) {
+            for (int i = from; i < values.length; i++) {
+                if (values[i] != null) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package scriptengine;
+
+import net.sandius.rembulan.Conversions;
+import net.sandius.rembulan.Table;
+import net.sandius.rembulan.impl.DefaultTable;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * a copy-on-write view of a table shared by many executors.
+ * <p>
+ * reads fall through to the base table, writes go to a local layer created on the first write, keys set to nil
+ * locally hide the keys of the base. tables read from the base are returned as overlays too, so nested tables such
+ * as <b>string</b> or <b>math</b> are never modified through the view. all the overlays of one executor share a map
+ * from base tables to their overlays, which keeps identity of tables, e.g. <b>_G</b> is the overlay of globals
+ */
+class OverlayTable extends Table {
+    private final Table base;
+    /**
+     * overlays of all the base tables seen by one executor
+     */
+    private final Map<Table, OverlayTable> overlays;
+    /**
+     * values written to this table, null until the first write
+     */
+    private Table local;
+    /**
+     * keys of the base set to nil in this table, null until the first removal
+     */
+    private Set<Object> removed;
+
+    OverlayTable(Table base, Map<Table, OverlayTable> overlays) {
+        this.base = base;
+        this.overlays = overlays;
+        overlays.put(base, this);
+        Table metatable = base.getMetatable();
+        if (metatable != null) {
+            super.setMetatable(overlay(metatable, overlays));
+        }
+    }
+
+    /**
+     * get the overlay of a base table seen by one executor, other values are returned as they are
+     */
+    static <T> T overlay(T value, Map<Table, OverlayTable> overlays) {
+        if (!(value instanceof Table)) {
+            return value;
+        }
+        OverlayTable overlay = overlays.get(value);
+        if (overlay == null) {
+            overlay = new OverlayTable((Table) value, overlays);
+        }
+        // an overlay is a table like the value it replaces
+        @SuppressWarnings("unchecked")
+        T result = (T) overlay;
+        return result;
+    }
+
+    @Override
+    public Object rawget(Object key) {
+        if (local != null) {
+            Object value = local.rawget(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        if (removed != null && removed.contains(Conversions.normaliseKey(key))) {
+            return null;
+        }
+        return overlay(base.rawget(key), overlays);
+    }
+
+    @Override
+    public void rawset(Object key, Object value) {
+        if (local == null) {
+            if (value == null && base.rawget(key) == null) {
+                return;
+            }
+            local = new DefaultTable();
+        }
+        local.rawset(key, value);
+        Object normalisedKey = Conversions.normaliseKey(key);
+        if (value == null) {
+            if (base.rawget(key) != null) {
+                if (removed == null) {
+                    removed = new HashSet<>();
+                }
+                removed.add(normalisedKey);
+            }
+        } else if (removed != null) {
+            removed.remove(normalisedKey);
+        }
+    }
+
+    /**
+     * local keys come first, then the keys of the base which are neither overridden nor removed
+     */
+    @Override
+    public Object initialKey() {
+        if (local != null) {
+            Object key = local.initialKey();
+            if (key != null) {
+                return key;
+            }
+        }
+        return visibleBaseKey(base.initialKey());
+    }
+
+    @Override
+    public Object successorKeyOf(Object key) {
+        if (local != null && local.rawget(key) != null) {
+            Object next = local.successorKeyOf(key);
+            return next != null ? next : visibleBaseKey(base.initialKey());
+        }
+        return visibleBaseKey(base.successorKeyOf(key));
+    }
+
+    private Object visibleBaseKey(Object key) {
+        while (key != null && isHidden(key)) {
+            key = base.successorKeyOf(key);
+        }
+        return key;
+    }
+
+    private boolean isHidden(Object baseKey) {
+        return (local != null && local.rawget(baseKey) != null) || (removed != null && removed.contains(baseKey));
+    }
+
+    @Override
+    protected void setMode(boolean weakKey, boolean weakValue) {
+
+    }
+}
@@ -0,0 +1,347 @@
+package scriptengine;
+
+import net.sandius.rembulan.ByteString;
+import net.sandius.rembulan.LuaType;
+import net.sandius.rembulan.Table;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * a table viewing a live java object, nothing is copied when the object is passed to lua.
+ * <p>
+ * reads and writes are delegated to the object on demand, nested maps, lists and beans are wrapped only when
+ * they are read, so the cost of a call depends on the fields actually touched instead of the size of the object.
+ * all the proxies created from one object share a map from java objects to proxies, reading the same nested object
+ * twice returns the same table
+ */
+abstract class ProxyTable extends Table {
+    /**
+     * proxies of all the java objects reached from one root object
+     */
+    protected final Map<Object, ProxyTable> proxies;
+
+    protected ProxyTable(Map<Object, ProxyTable> proxies) {
+        this.proxies = proxies;
+    }
+
+    /**
+     * create a proxy of a java map, list or bean
+     *
+     * @param object a java object
+     * @return the proxy, or null if the object has no table view
+     */
+    static ProxyTable of(Object object) {
+        return of(object, new IdentityHashMap<>());
+    }
+
+    private static ProxyTable of(Object object, Map<Object, ProxyTable> proxies) {
+        ProxyTable proxy = proxies.get(object);
+        if (proxy != null) {
+            return proxy;
+        }
+        // lua may write any key and value, a wrong type fails when the java code reads it back
+        if (object instanceof Map) {
+            @SuppressWarnings("unchecked") Map<Object, Object> map = (Map<Object, Object>) object;
+            proxy = new MapProxy(map, proxies);
+        } else if (object instanceof List) {
+            @SuppressWarnings("unchecked") List<Object> list = (List<Object>) object;
+            proxy = new ListProxy(list, proxies);
+        } else if (LuaType.typeOf(object) == LuaType.USERDATA && !(object instanceof Enum) && !(object instanceof Date)
+                && !object.getClass().isArray() && BeanAccessor.of(object.getClass()).hasProperties()) {
+            proxy = new BeanProxy(object, BeanAccessor.of(object.getClass()), proxies);
+        } else {
+            return null;
+        }
+        proxies.put(object, proxy);
+        return proxy;
+    }
+
+    /**
+     * @return the java object viewed by the proxy
+     */
+    abstract Object target();
+
+    /**
+     * convert a java value read from the object to a lua value, values with a converter, array views and shared
+     * tables are converted by {@link LuaConverters}, maps, lists and beans are wrapped by the proxies of this object
+     */
+    protected Object toLua(Object value) {
+        if (value == null) {
+            return null;
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Float) {
+            return ((Float) value).doubleValue();
+        } else if (value instanceof Enum) {
+            return ((Enum) value).name();
+        } else if (value instanceof Date) {
+            return ((Date) value).getTime();
+        } else if (value instanceof Character) {
+            return value.toString();
+        }
+        if (!LuaConverters.isProxied(value)) {
+            return LuaConverters.toLua(value, ConversionMode.PROXY);
+        }
+        ProxyTable proxy = of(value, proxies);
+        return proxy != null ? proxy : value;
+    }
+
+    /**
+     * convert a lua value written to the object to a java value
+     */
+    protected static Object toJava(Object value) {
+        if (value instanceof ProxyTable) {
+            return ((ProxyTable) value).target();
+        } else if (value instanceof ArrayTable) {
+            return ((ArrayTable) value).storage();
+        } else if (value instanceof ByteString) {
+            return value.toString();
+        } else {
+            return value;
+        }
+    }
+
+    @Override
+    protected void setMode(boolean weakKey, boolean weakValue) {
+
+    }
+
+    /**
+     * keys are the keys of the map, lua strings are looked up as java strings and lua integers also as java ints
+     */
+    private static class MapProxy extends ProxyTable {
+        private final Map<Object, Object> map;
+        /**
+         * cursor of the last traversal, makes each step of pairs() constant time
+         */
+        private Iterator<Object> cursor;
+        private Object cursorKey;
+
+        MapProxy(Map<Object, Object> map, Map<Object, ProxyTable> proxies) {
+            super(proxies);
+            this.map = map;
+        }
+
+        @Override
+        Object target() {
+            return map;
+        }
+
+        private Object javaKey(Object key) {
+            Object javaKey = toJava(key);
+            if (javaKey instanceof Long && !map.containsKey(javaKey)) {
+                long value = (Long) javaKey;
+                if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE && map.containsKey((int) value)) {
+                    return (int) value;
+                }
+            }
+            return javaKey;
+        }
+
+        @Override
+        public Object rawget(Object key) {
+            return toLua(map.get(javaKey(key)));
+        }
+
+        @Override
+        public void rawset(Object key, Object value) {
+            Object javaKey = javaKey(key);
+            if (cursor != null && (value == null || !map.containsKey(javaKey))) {
+                // lua may clear fields during traversal, keep the rest of the traversal away from the map's iterator
+                List<Object> rest = new ArrayList<>();
+                cursor.forEachRemaining(rest::add);
+                cursor = rest.iterator();
+            }
+            if (value == null) {
+                map.remove(javaKey);
+            } else {
+                map.put(javaKey, toJava(value));
+            }
+        }
+
+        @Override
+        public Object initialKey() {
+            cursor = map.keySet().iterator();
+            return advance();
+        }
+
+        @Override
+        public Object successorKeyOf(Object key) {
+            if (cursor == null || cursorKey == null || !cursorKey.equals(key)) {
+                // not the key returned last time, walk to it again
+                cursor = map.keySet().iterator();
+                Object javaKey = javaKey(key);
+                while (cursor.hasNext()) {
+                    if (cursor.next().equals(javaKey)) {
+                        return advance();
+                    }
+                }
+                throw new IllegalArgumentException("invalid key to 'next'");
+            }
+            return advance();
+        }
+
+        private Object advance() {
+            while (cursor.hasNext()) {
+                Object next = cursor.next();
+                if (next != null && map.get(next) != null) {
+                    cursorKey = toLua(next);
+                    return cursorKey;
+                }
+            }
+            cursor = null;
+            cursorKey = null;
+            return null;
+        }
+    }
+
+    /**
+     * keys are the indexes of the list starting from 1
+     */
+    private static class ListProxy extends ProxyTable {
+        private final List<Object> list;
+
+        ListProxy(List<Object> list, Map<Object, ProxyTable> proxies) {
+            super(proxies);
+            this.list = list;
+        }
+
+        @Override
+        Object target() {
+            return list;
+        }
+
+        private static long index(Object key) {
+            if (key instanceof Long || key instanceof Integer) {
+                return ((Number) key).longValue();
+            } else if (key instanceof Double && (Double) key == Math.rint((Double) key)) {
+                return ((Double) key).longValue();
+            } else {
+                return 0;
+            }
+        }
+
+        @Override
+        public Object rawget(Object key) {
+            return rawget(index(key));
+        }
+
+        @Override
+        public Object rawget(long idx) {
+            return idx >= 1 && idx <= list.size() ? toLua(list.get((int) (idx - 1))) : null;
+        }
+
+        @Override
+        public void rawset(Object key, Object value) {
+            long idx = index(key);
+            if (idx < 1) {
+                throw new IllegalArgumentException("a list only accepts positive integer keys");
+            }
+            rawset(idx, value);
+        }
+
+        @Override
+        public void rawset(long idx, Object value) {
+            if (idx >= 1 && idx <= list.size()) {
+                if (value == null && idx == list.size()) {
+                    list.remove(list.size() - 1);
+                } else {
+                    list.set((int) (idx - 1), toJava(value));
+                }
+            } else if (idx == list.size() + 1) {
+                if (value != null) {
+                    list.add(toJava(value));
+                }
+            } else if (value != null) {
+                throw new IllegalArgumentException("a list can only grow by appending");
+            }
+        }
+
+        @Override
+        public long rawlen() {
+            return list.size();
+        }
+
+        @Override
+        public Object initialKey() {
+            return nextIndex(0);
+        }
+
+        @Override
+        public Object successorKeyOf(Object key) {
+            return nextIndex(index(key));
+        }
+
+        private Object nextIndex(long idx) {
+            for (long i = idx + 1; i <= list.size(); i++) {
+                if (list.get((int) (i - 1)) != null) {
+                    return i;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * keys are the property names of the bean
+     */
+    private static class BeanProxy extends ProxyTable {
+        private final Object bean;
+        private final BeanAccessor accessor;
+
+        BeanProxy(Object bean, BeanAccessor accessor, Map<Object, ProxyTable> proxies) {
+            super(proxies);
+            this.bean = bean;
+            this.accessor = accessor;
+        }
+
+        @Override
+        Object target() {
+            return bean;
+        }
+
+        @Override
+        public Object rawget(Object key) {
+            if (!(key instanceof String || key instanceof ByteString)) {
+                return null;
+            }
+            int index = accessor.propertyIndex(key.toString());
+            return index >= 0 ? toLua(accessor.get(bean, index)) : null;
+        }
+
+        @Override
+        public void rawset(Object key, Object value) {
+            if (key == null || !accessor.set(bean, key.toString(), toJava(value))) {
+                throw new IllegalArgumentException("no writable property " + key + " of " + bean.getClass().getName());
+            }
+        }
+
+        @Override
+        public Object initialKey() {
+            return nextProperty(0);
+        }
+
+        @Override
+        public Object successorKeyOf(Object key) {
+            int index = key != null ? accessor.propertyIndex(key.toString()) : -1;
+            if (index < 0) {
+                throw new IllegalArgumentException("invalid key to 'next'");
+            }
+            return nextProperty(index + 1);
+        }
+
+        private Object nextProperty(int index) {
+            for (int i = index; i < accessor.propertyCount(); i++) {
+                if (accessor.get(bean, i) != null) {
+                    return accessor.propertyName(i);
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package scriptengine;
+
+import net.sandius.rembulan.Table;
+import net.sandius.rembulan.TableFactory;
+import net.sandius.rembulan.impl.DefaultTable;
+
+/**
+ * table factory of the state of an executor, tables created while a call is accounted by a {@link MemoryBudget}
+ * count their entries and report new ones to the budget of the running call. other tables are plain rembulan
+ * tables, so an executor without a quota pays nothing
+ */
+final class QuotaTableFactory implements TableFactory {
+    /**
+     * budget of the running call, null between calls
+     */
+    MemoryBudget budget;
+
+    @Override
+    public Table newTable() {
+        return budget != null ? new AccountedTable(this) : new DefaultTable();
+    }
+
+    @Override
+    public Table newTable(int array, int hash) {
+        return newTable();
+    }
+
+    private static final class AccountedTable extends DefaultTable {
+        private final QuotaTableFactory factory;
+        private long entries;
+
+        AccountedTable(QuotaTableFactory factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public void rawset(Object key, Object value) {
+            Object previous = rawget(key);
+            super.rawset(key, value);
+            if (previous == null && value != null) {
+                entries++;
+                MemoryBudget budget = factory.budget;
+                if (budget != null) {
+                    budget.entryAdded(entries, value);
+                }
+            } else if (previous != null && value == null) {
+                entries--;
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package scriptengine;
+
+import net.sandius.rembulan.ByteString;
+import net.sandius.rembulan.Conversions;
+import net.sandius.rembulan.LuaRuntimeException;
+import net.sandius.rembulan.Table;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * a read-only table decoded in place from the buffer of a {@link LuaSharedTable}.
+ * <p>
+ * a table is encoded as its array length, hash capacity and entry count, followed by the values of the array part
+ * 1..n and an open addressing hash of the other entries with linear probing. every key or value takes a tag byte
+ * and an 8 byte payload: the integer, the bits of the float, the offset of a table in the buffer, or the ordinal
+ * and offset of a string. strings are their length followed by their bytes. nothing is decoded ahead of a read,
+ * integers and floats are boxed when they are read, strings are decoded by {@link LuaSharedTable#string(long)}. the view of a nested table is created on first read and reused,
+ * so a nested table is the same lua value every time and in every state
+ */
+final class SharedTable extends Table {
+    static final byte NIL = 0;
+    static final byte FALSE = 1;
+    static final byte TRUE = 2;
+    static final byte INTEGER = 3;
+    static final byte FLOAT = 4;
+    static final byte STRING = 5;
+    static final byte TABLE = 6;
+
+    static final int VALUE_BYTES = 9;
+    static final int SLOT_BYTES = 2 * VALUE_BYTES;
+    static final int HEADER_BYTES = 12;
+
+    private final LuaSharedTable data;
+    private final ByteBuffer buffer;
+    private final int arrayStart;
+    private final int arrayLength;
+    private final int hashStart;
+    private final int capacity;
+    /**
+     * views of nested tables by position of their value, arrays first, created on first read
+     */
+    private volatile AtomicReferenceArray<SharedTable> children;
+
+    SharedTable(LuaSharedTable data, ByteBuffer buffer, int offset) {
+        this.data = data;
+        this.buffer = buffer;
+        this.arrayLength = buffer.getInt(offset);
+        this.capacity = buffer.getInt(offset + 4);
+        this.arrayStart = offset + HEADER_BYTES;
+        this.hashStart = arrayStart + arrayLength * VALUE_BYTES;
+    }
+
+    /**
+     * @param hash     hash code of a key
+     * @param capacity capacity of a hash, a power of two
+     * @return index of the first slot probed for the key
+     */
+    static int slotOf(int hash, int capacity) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash & (capacity - 1);
+    }
+
+    /**
+     * @return hash code of a key other than a string, strings hash as {@link ByteString#hashCode()}
+     */
+    static int hashOf(byte tag, long payload) {
+        return tag == FLOAT ? Double.hashCode(Double.longBitsToDouble(payload)) : Long.hashCode(payload) + tag;
+    }
+
+    @Override
+    public Object rawget(Object key) {
+        if (key instanceof ByteString) {
+            return valueAt(find((ByteString) key));
+        } else if (key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte) {
+            return rawget(((Number) key).longValue());
+        } else if (key instanceof Double || key instanceof Float) {
+            Long index = Conversions.integerValueOf((Number) key);
+            if (index != null) {
+                return rawget(index.longValue());
+            }
+            return valueAt(find(FLOAT, Double.doubleToLongBits(((Number) key).doubleValue())));
+        } else if (key instanceof String) {
+            return valueAt(find(ByteString.of((String) key)));
+        } else if (key instanceof Boolean) {
+            return valueAt(find((Boolean) key ? TRUE : FALSE, 0L));
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public Object rawget(long key) {
+        if (key >= 1 && key <= arrayLength) {
+            return decode(arrayStart + (int) (key - 1) * VALUE_BYTES, (int) (key - 1));
+        }
+        return valueAt(find(INTEGER, key));
+    }
+
+    @Override
+    public void rawset(Object key, Object value) {
+        throw new LuaRuntimeException("attempt to modify a shared table");
+    }
+
+    @Override
+    public void rawset(long key, Object value) {
+        throw new LuaRuntimeException("attempt to modify a shared table");
+    }
+
+    @Override
+    public long rawlen() {
+        return arrayLength;
+    }
+
+    @Override
+    public Table getMetatable() {
+        return null;
+    }
+
+    @Override
+    public Table setMetatable(Table mt) {
+        throw new LuaRuntimeException("cannot change the metatable of a shared table");
+    }
+
+    @Override
+    public Object initialKey() {
+        return arrayLength > 0 ? Long.valueOf(1L) : keyOfSlotFrom(0);
+    }
+
+    @Override
+    public Object successorKeyOf(Object key) {
+        if (key instanceof Long && (Long) key >= 1 && (Long) key <= arrayLength) {
+            long index = (Long) key;
+            return index < arrayLength ? Long.valueOf(index + 1) : keyOfSlotFrom(0);
+        }
+        int slot = findKey(key);
+        if (slot < 0) {
+            throw new IllegalArgumentException("invalid key to 'next'");
+        }
+        return keyOfSlotFrom((slot - hashStart) / SLOT_BYTES + 1);
+    }
+
+    @Override
+    protected void setMode(boolean weakKeys, boolean weakValues) {
+        // entries are never collected
+    }
+
+    private int findKey(Object key) {
+        if (key instanceof ByteString) {
+            return find((ByteString) key);
+        } else if (key instanceof Long) {
+            return find(INTEGER, (Long) key);
+        } else if (key instanceof Double) {
+            return find(FLOAT, Double.doubleToLongBits((Double) key));
+        } else if (key instanceof Boolean) {
+            return find((Boolean) key ? TRUE : FALSE, 0L);
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * @return position of the slot of a key other than a string, or -1 if the table has no such key
+     */
+    private int find(byte tag, long payload) {
+        if (capacity == 0) {
+            return -1;
+        }
+        int mask = capacity - 1;
+        for (int i = slotOf(hashOf(tag, payload), capacity); ; i = (i + 1) & mask) {
+            int slot = hashStart + i * SLOT_BYTES;
+            byte slotTag = buffer.get(slot);
+            if (slotTag == NIL) {
+                return -1;
+            }
+            if (slotTag == tag && buffer.getLong(slot + 1) == payload) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * @return position of the slot of a string key, or -1 if the table has no such key
+     */
+    private int find(ByteString key) {
+        if (capacity == 0) {
+            return -1;
+        }
+        int mask = capacity - 1;
+        for (int i = slotOf(key.hashCode(), capacity); ; i = (i + 1) & mask) {
+            int slot = hashStart + i * SLOT_BYTES;
+            byte slotTag = buffer.get(slot);
+            if (slotTag == NIL) {
+                return -1;
+            }
+            if (slotTag == STRING && stringEquals((int) buffer.getLong(slot + 1), key)) {
+                return slot;
+            }
+        }
+    }
+
+    private boolean stringEquals(int offset, ByteString key) {
+        int length = buffer.getInt(offset);
+        if (length != key.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset + 4 + i) != key.byteAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Object valueAt(int slot) {
+        return slot < 0 ? null : decode(slot + VALUE_BYTES, arrayLength + (slot - hashStart) / SLOT_BYTES);
+    }
+
+    /**
+     * @return key of the first used slot from an index on, or null past the last
+     */
+    private Object keyOfSlotFrom(int index) {
+        for (int i = index; i < capacity; i++) {
+            int slot = hashStart + i * SLOT_BYTES;
+            if (buffer.get(slot) != NIL) {
+                return decode(slot, -1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param position position of the tag of a value
+     * @param child    index of the value among the values of the table, -1 for a key
+     */
+    private Object decode(int position, int child) {
+        long payload = buffer.getLong(position + 1);
+        switch (buffer.get(position)) {
+            case FALSE:
+                return Boolean.FALSE;
+            case TRUE:
+                return Boolean.TRUE;
+            case INTEGER:
+                return payload;
+            case FLOAT:
+                return Double.longBitsToDouble(payload);
+            case STRING:
+                return data.string(payload);
+            case TABLE:
+                return tableAt((int) payload, child);
+            default:
+                return null;
+        }
+    }
+
+    private SharedTable tableAt(int offset, int child) {
+        AtomicReferenceArray<SharedTable> children = this.children;
+        if (children == null) {
+            synchronized (this) {
+                children = this.children;
+                if (children == null) {
+                    children = new AtomicReferenceArray<>(arrayLength + capacity);
+                    this.children = children;
+                }
+            }
+        }
+        SharedTable table = children.get(child);
+        if (table == null) {
+            children.compareAndSet(child, null, new SharedTable(data, buffer, offset));
+            table = children.get(child);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,35 @@
+package scriptengine;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * bytes allocated by the current thread, where the JVM supports it through com.sun.management.ThreadMXBean
+ */
+final class ThreadAllocations {
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private ThreadAllocations() {
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        try {
+            java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+                if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+                    return sunThreads;
+                }
+            }
+        } catch (LinkageError | RuntimeException e) {
+            // not a HotSpot compatible JVM
+        }
+        return null;
+    }
+
+    /**
+     * @return total bytes allocated by the current thread so far, -1 if not supported
+     */
+    static long current() {
+        return THREADS != null ? THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1L;
+    }
+}
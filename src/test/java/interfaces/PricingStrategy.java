@@ -0,0 +1,13 @@
+package interfaces;
+
+import java.util.List;
+
+public interface PricingStrategy {
+    double price(double base, int quantity, boolean member);
+
+    String label(char grade);
+
+    char grade(double total);
+
+    List<Long> tiers(long limit);
+}
@@ -0,0 +1,65 @@
+package tests;
+
+import exception.LuaException;
+import org.junit.Assert;
+import org.junit.Test;
+import scriptengine.LuaArrays;
+import scriptengine.LuaExecutor;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ArrayTableTest {
+
+    @Test
+    public void testReadWriteWithoutCopy() throws LuaException {
+        double[] series = {1.5, 2.5, 3.0};
+        long[] out = new long[3];
+        LuaExecutor executor = new LuaExecutor();
+        Object[] results = executor.run("local xs, out = ... local s = 0 " +
+                "for i = 1, #xs do s = s + xs[i] out[i] = i * 10 end xs[1] = 0 return s, out", series, out);
+        Assert.assertEquals(7.0, results[0]);
+        Assert.assertEquals(0.0, series[0], 0.0);
+        Assert.assertArrayEquals(new long[]{10, 20, 30}, out);
+        Assert.assertSame(out, LuaArrays.toLongArray(results[1]));
+    }
+
+    @Test
+    public void testBytesAndBuffers() throws LuaException {
+        byte[] bytes = {(byte) 0xFF, 1};
+        ByteBuffer direct = ByteBuffer.allocateDirect(4);
+        direct.position(1);
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("bytes", bytes);
+        payload.put("buffer", direct);
+        LuaExecutor executor = new LuaExecutor();
+        Object[] results = executor.run("local t = ... t.buffer[3] = t.bytes[1] return #t.buffer, t.buffer",
+                payload);
+        Assert.assertEquals(3L, results[0]);
+        Assert.assertEquals((byte) 0xFF, direct.get(3));
+        Assert.assertSame(direct, LuaArrays.toByteBuffer(results[1]));
+    }
+
+    @Test(expected = LuaException.class)
+    public void testOutOfRange() throws LuaException {
+        new LuaExecutor().run("local xs = ... xs[3] = 1", (Object) new int[2]);
+    }
+
+    @Test
+    public void testValueOutOfRange() throws LuaException {
+        int[] ints = new int[1];
+        byte[] bytes = new byte[2];
+        Object[] results = new LuaExecutor().run("local ints, bytes = ... " +
+                "local okInt, errInt = pcall(function() ints[1] = 2^40 // 1 end) " +
+                "local okByte, errByte = pcall(function() bytes[1] = 256 end) " +
+                "bytes[1] = -1 bytes[2] = 255 " +
+                "return okInt, errInt, okByte, errByte", ints, bytes);
+        Assert.assertEquals(Boolean.FALSE, results[0]);
+        Assert.assertTrue(results[1].toString(), results[1].toString().contains("value out of range"));
+        Assert.assertEquals(Boolean.FALSE, results[2]);
+        Assert.assertTrue(results[3].toString(), results[3].toString().contains("value out of range"));
+        Assert.assertEquals(0, ints[0]);
+        Assert.assertArrayEquals(new byte[]{-1, -1}, bytes);
+    }
+}
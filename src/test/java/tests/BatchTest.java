@@ -0,0 +1,99 @@
+package tests;
+
+import exception.LuaException;
+import org.junit.Assert;
+import org.junit.Test;
+import scriptengine.LuaExecutor;
+import scriptengine.LuaExecutorPool;
+import scriptengine.LuaScriptEngine;
+
+import javax.script.ScriptException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+public class BatchTest {
+
+    @Test
+    public void testReusedRecordAndMissingKeys() throws ScriptException {
+        LuaScriptEngine engine = new LuaScriptEngine();
+        engine.put("rate", 2L);
+        Map<String, Object> record = new HashMap<>();
+        // the same map is filled again for every record
+        Iterator<Map<String, Object>> iterator = new Iterator<Map<String, Object>>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < 3;
+            }
+
+            @Override
+            public Map<String, Object> next() {
+                record.put("amount", (long) index);
+                if (index == 1) {
+                    record.put("rate", 10L);
+                } else {
+                    record.remove("rate");
+                }
+                index++;
+                return record;
+            }
+        };
+        List<Object> results = engine.evalBatch("return amount * rate", iterator);
+        Assert.assertEquals(Arrays.asList(0L, 10L, 4L), results);
+    }
+
+    @Test
+    public void testParallelBatchKeepsOrder() throws LuaException, ScriptException {
+        LuaScriptEngine engine = new LuaScriptEngine(new LuaExecutorPool(4));
+        List<Map<String, ?>> records = new ArrayList<>();
+        for (long i = 0; i < 2000; i++) {
+            Map<String, Object> record = new HashMap<>();
+            record.put("x", i);
+            records.add(record);
+        }
+        ForkJoinPool workers = new ForkJoinPool(4);
+        List<Object> results = engine.evalBatch("return x * x", records.iterator(), workers);
+        workers.shutdown();
+        Assert.assertEquals(2000, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            Assert.assertEquals((long) i * i, results.get(i));
+        }
+    }
+
+    @Test
+    public void testExecutorBatchIsLazy() throws LuaException {
+        LuaExecutor executor = new LuaExecutor();
+        List<Map<String, ?>> records = new ArrayList<>();
+        records.add(Collections.singletonMap("name", "a"));
+        records.add(Collections.singletonMap("name", "b"));
+        Iterator<Object[]> results = executor.runBatch("return name .. '!'", records.iterator());
+        Assert.assertEquals("a!", results.next()[0].toString());
+        Assert.assertEquals("b!", results.next()[0].toString());
+        Assert.assertFalse(results.hasNext());
+    }
+
+    @Test
+    public void testBindingsRestoredAfterBatch() throws ScriptException {
+        LuaScriptEngine engine = new LuaScriptEngine();
+        engine.put("x", 1L);
+        Map<String, Object> second = new HashMap<>();
+        second.put("x", 200L);
+        second.put("y", 5L);
+        List<Map<String, ?>> records = Arrays.asList(Collections.singletonMap("x", 100L), second);
+        Assert.assertEquals(Arrays.asList(100L, 200L), engine.evalBatch("return x", records.iterator()));
+        Assert.assertEquals(1L, engine.eval("return x"));
+        Assert.assertNull(engine.eval("return y"));
+
+        // a record equal to the previous one is bound again if the chunk has assigned the key
+        records = Arrays.asList(Collections.singletonMap("x", 1L), Collections.singletonMap("x", 1L));
+        Assert.assertEquals(Arrays.asList(2L, 2L), engine.evalBatch("x = x + 1 return x", records.iterator()));
+        Assert.assertEquals(1L, engine.eval("return x"));
+    }
+}
@@ -0,0 +1,171 @@
+package tests;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import exception.LuaException;
+import org.junit.Assert;
+import org.junit.Test;
+import scriptengine.LuaExecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class BeanConversionTest {
+
+    public enum Status {NEW, PAID}
+
+    public static class Item {
+        private String sku;
+        private double price;
+
+        public Item() {
+        }
+
+        Item(String sku, double price) {
+            this.sku = sku;
+            this.price = price;
+        }
+
+        public String getSku() {
+            return sku;
+        }
+
+        public void setSku(String sku) {
+            this.sku = sku;
+        }
+
+        public double getPrice() {
+            return price;
+        }
+
+        public void setPrice(double price) {
+            this.price = price;
+        }
+    }
+
+    public static class Order {
+        public long id;
+        private Status status;
+        private boolean urgent;
+        private List<Item> items = new ArrayList<>();
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public void setStatus(Status status) {
+            this.status = status;
+        }
+
+        public boolean isUrgent() {
+            return urgent;
+        }
+
+        public void setUrgent(boolean urgent) {
+            this.urgent = urgent;
+        }
+
+        public List<Item> getItems() {
+            return items;
+        }
+
+        public void setItems(List<Item> items) {
+            this.items = items;
+        }
+    }
+
+    public static class Account {
+        @JsonProperty("account_id")
+        private long id;
+        @JsonIgnore
+        private String password;
+        private String owner;
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(long id) {
+            this.id = id;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public void setPassword(String password) {
+            this.password = password;
+        }
+
+        @JsonProperty("holder")
+        public String getOwner() {
+            return owner;
+        }
+
+        public void setOwner(String owner) {
+            this.owner = owner;
+        }
+    }
+
+    @Test
+    public void testBeanToTable() throws LuaException {
+        Order order = new Order();
+        order.id = 7;
+        order.status = Status.NEW;
+        order.urgent = true;
+        order.items.add(new Item("a", 1.5));
+        order.items.add(new Item("b", 2.5));
+
+        LuaExecutor executor = new LuaExecutor();
+        executor.putContext(Collections.singletonMap("order", order));
+        Object[] results = executor.run("local total = 0 " +
+                "for i = 1, #order.items do total = total + order.items[i].price end " +
+                "return order.id, order.status, order.urgent, total");
+        Assert.assertEquals(7L, results[0]);
+        Assert.assertEquals("NEW", results[1].toString());
+        Assert.assertEquals(Boolean.TRUE, results[2]);
+        Assert.assertEquals(4.0, results[3]);
+    }
+
+    @Test
+    public void testTableToBean() throws LuaException {
+        Order order = new Order();
+        order.id = 1;
+        order.items.add(new Item("a", 1.5));
+
+        LuaExecutor executor = new LuaExecutor();
+        Object result = executor.run("local order = ... order.id = 2 order.status = 'PAID' " +
+                "order.items[1].price = 3 return order", order)[0];
+        Order converted = LuaExecutor.toJavaObject(result, Order.class);
+        Assert.assertEquals(2L, converted.id);
+        Assert.assertEquals(Status.PAID, converted.getStatus());
+        Assert.assertFalse(converted.isUrgent());
+        Assert.assertEquals(1, converted.getItems().size());
+        Assert.assertEquals("a", converted.getItems().get(0).getSku());
+        Assert.assertEquals(3.0, converted.getItems().get(0).getPrice(), 0.0);
+    }
+
+    @Test
+    public void testJacksonAnnotations() throws LuaException {
+        Account account = new Account();
+        account.id = 9;
+        account.password = "secret";
+        account.owner = "ann";
+
+        LuaExecutor executor = new LuaExecutor();
+        Object[] results = executor.run("local account = ... " +
+                "return account.account_id, account.id, account.password, account.holder, account.owner", account);
+        Assert.assertEquals(9L, results[0]);
+        Assert.assertNull(results[1]);
+        Assert.assertNull(results[2]);
+        Assert.assertEquals("ann", results[3].toString());
+        Assert.assertNull(results[4]);
+
+        Object table = executor.run("return { account_id = 3, password = 'x', holder = 'bob', owner = 'eve' }")[0];
+        Account converted = LuaExecutor.toJavaObject(table, Account.class);
+        Assert.assertEquals(3L, converted.getId());
+        Assert.assertNull(converted.getPassword());
+        Assert.assertEquals("bob", converted.getOwner());
+    }
+}
@@ -0,0 +1,53 @@
+package tests;
+
+import net.sandius.rembulan.Variable;
+import net.sandius.rembulan.compiler.CompilerSettings;
+import net.sandius.rembulan.exec.DirectCallExecutor;
+import net.sandius.rembulan.impl.DefaultTable;
+import net.sandius.rembulan.impl.StateContexts;
+import net.sandius.rembulan.runtime.LuaFunction;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import scriptengine.ChunkArchive;
+import scriptengine.ChunkCache;
+import scriptengine.LuaPrecompiler;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ChunkArchiveTest {
+
+    private static final CompilerSettings SETTINGS = CompilerSettings.defaultSettings();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLoadFromArchive() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        Path rule = dir.resolve("rules/discount.lua");
+        Files.createDirectories(rule.getParent());
+        Files.write(rule, "return 42".getBytes(StandardCharsets.UTF_8));
+        Path jar = dir.resolve("out/chunks.jar");
+
+        Assert.assertEquals(1, LuaPrecompiler.precompile(dir, jar, SETTINGS));
+        ChunkArchive archive = ChunkArchive.open(jar);
+        Assert.assertTrue(archive.getScripts().containsKey("rules/discount.lua"));
+
+        ChunkCache cache = new ChunkCache(16, Long.MAX_VALUE);
+        cache.addArchive(archive);
+        LuaFunction archived = cache.load(new Variable(new DefaultTable()), archive.getChunkName(), rule, SETTINGS);
+        Assert.assertTrue(archived.getClass().getName().startsWith("lua_archive."));
+        Assert.assertEquals(1, cache.getArchiveLoadCount());
+        Assert.assertEquals(42L, DirectCallExecutor.newExecutor().call(StateContexts.newDefaultInstance(), archived)[0]);
+
+        // a changed script is compiled live
+        Files.write(rule, "return 43".getBytes(StandardCharsets.UTF_8));
+        LuaFunction live = cache.load(new Variable(new DefaultTable()), archive.getChunkName(), "return 43", SETTINGS);
+        Assert.assertFalse(live.getClass().getName().startsWith("lua_archive."));
+        Assert.assertEquals(1, cache.getArchiveLoadCount());
+    }
+}
@@ -0,0 +1,92 @@
+package tests;
+
+import net.sandius.rembulan.Variable;
+import net.sandius.rembulan.compiler.CompilerSettings;
+import net.sandius.rembulan.impl.DefaultTable;
+import net.sandius.rembulan.load.LoaderException;
+import net.sandius.rembulan.runtime.LuaFunction;
+import org.junit.Assert;
+import org.junit.Test;
+import scriptengine.ChunkCache;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+public class ChunkCacheTest {
+
+    private static final CompilerSettings SETTINGS = CompilerSettings.defaultSettings();
+
+    @Test
+    public void testHitAndMiss() throws LoaderException {
+        ChunkCache cache = new ChunkCache(16, Long.MAX_VALUE);
+        LuaFunction first = cache.load(new Variable(new DefaultTable()), "chunk", "return 1", SETTINGS);
+        LuaFunction second = cache.load(new Variable(new DefaultTable()), "chunk", "return 1", SETTINGS);
+        Assert.assertNotSame(first, second);
+        Assert.assertSame(first.getClass(), second.getClass());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(1, cache.getHitCount());
+
+        cache.load(new Variable(new DefaultTable()), "chunk", "return 1", CompilerSettings.defaultNoAccountingSettings());
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testEviction() throws LoaderException {
+        ChunkCache cache = new ChunkCache(2, Long.MAX_VALUE);
+        cache.load(new Variable(new DefaultTable()), "chunk", "return 1", SETTINGS);
+        cache.load(new Variable(new DefaultTable()), "chunk", "return 2", SETTINGS);
+        cache.load(new Variable(new DefaultTable()), "chunk", "return 1", SETTINGS);
+        cache.load(new Variable(new DefaultTable()), "chunk", "return 3", SETTINGS);
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictionCount());
+
+        // "return 2" is the least recently used one
+        cache.load(new Variable(new DefaultTable()), "chunk", "return 1", SETTINGS);
+        Assert.assertEquals(1, cache.getEvictionCount());
+        cache.load(new Variable(new DefaultTable()), "chunk", "return 2", SETTINGS);
+        Assert.assertEquals(4, cache.getMissCount());
+
+        cache.setMaxBytes(1);
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testEvictedChunkUnloadable() throws LoaderException, InterruptedException {
+        ChunkCache cache = new ChunkCache(1, Long.MAX_VALUE);
+        WeakReference<ClassLoader> loader = new WeakReference<>(
+                cache.load(new Variable(new DefaultTable()), "chunk", "return 1", SETTINGS).getClass().getClassLoader());
+        cache.load(new Variable(new DefaultTable()), "chunk", "return 2", SETTINGS);
+        for (int i = 0; i < 10 && loader.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(loader.get());
+    }
+
+    @Test
+    public void testFileReadOnlyWhenChanged() throws LoaderException, IOException {
+        ChunkCache cache = new ChunkCache(16, Long.MAX_VALUE);
+        Path file = Files.createTempFile("chunk", ".lua");
+        try {
+            Files.write(file, "\uFEFFreturn 'h\u00e9'".getBytes(StandardCharsets.UTF_8));
+            LuaFunction first = cache.load(new Variable(new DefaultTable()), "chunk", file, SETTINGS);
+            LuaFunction second = cache.load(new Variable(new DefaultTable()), "chunk", file, SETTINGS);
+            Assert.assertSame(first.getClass(), second.getClass());
+            Assert.assertEquals(1, cache.getFileReadCount());
+            Assert.assertEquals(1, cache.getMissCount());
+
+            Files.write(file, "return 2".getBytes(StandardCharsets.UTF_8));
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+            LuaFunction changed = cache.load(new Variable(new DefaultTable()), "chunk", file, SETTINGS);
+            Assert.assertNotSame(first.getClass(), changed.getClass());
+            Assert.assertEquals(2, cache.getFileReadCount());
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
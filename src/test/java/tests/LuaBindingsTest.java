@@ -0,0 +1,63 @@
+package tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+import scriptengine.LuaBindings;
+import scriptengine.LuaScriptEngine;
+
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import java.util.HashMap;
+import java.util.Map;
+
+public class LuaBindingsTest {
+
+    @Test
+    public void testOnlyChangedKeysAreInstalled() throws ScriptException {
+        LuaScriptEngine engine = new LuaScriptEngine();
+        Assert.assertTrue(engine.getBindings(ScriptContext.ENGINE_SCOPE) instanceof LuaBindings);
+        Map<String, Object> order = new HashMap<>();
+        order.put("total", 1L);
+        engine.put("order", order);
+        engine.eval("order.total = 99");
+        // a copied object is copied again, so a write of a script doesn't outlive its eval
+        Assert.assertEquals(1L, engine.eval("return order.total"));
+        order.put("total", 2L);
+        Assert.assertEquals(2L, engine.eval("return order.total"));
+        engine.put("order", new HashMap<String, Object>());
+        Assert.assertNull(engine.eval("return order.total"));
+    }
+
+    @Test
+    public void testRemovedKeysAreCleared() throws ScriptException {
+        LuaScriptEngine engine = new LuaScriptEngine();
+        Bindings global = new SimpleBindings();
+        global.put("x", 1L);
+        engine.setBindings(global, ScriptContext.GLOBAL_SCOPE);
+        engine.put("x", 2L);
+        Assert.assertEquals(2L, engine.eval("return x"));
+        engine.getBindings(ScriptContext.ENGINE_SCOPE).remove("x");
+        Assert.assertEquals(1L, engine.eval("return x"));
+        global.remove("x");
+        Assert.assertNull(engine.eval("return x"));
+
+        // a removed binding gives back the global it shadowed
+        engine.put("print", "x");
+        Assert.assertEquals("string", engine.eval("return type(print)").toString());
+        engine.getBindings(ScriptContext.ENGINE_SCOPE).remove("print");
+        Assert.assertEquals("function", engine.eval("return type(print)").toString());
+    }
+
+    @Test
+    public void testAssignedKeysAreInstalledAgain() throws ScriptException {
+        LuaScriptEngine engine = new LuaScriptEngine();
+        engine.put("limit", 10L);
+        engine.eval("limit = limit * 2");
+        Assert.assertEquals(10L, engine.eval("return limit"));
+        Assert.assertEquals(10L, engine.get("limit"));
+        engine.eval("limit = nil");
+        Assert.assertEquals(10L, engine.eval("return limit"));
+    }
+}
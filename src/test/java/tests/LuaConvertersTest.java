@@ -0,0 +1,73 @@
+package tests;
+
+import exception.LuaException;
+import org.junit.Assert;
+import org.junit.Test;
+import scriptengine.ConversionMode;
+import scriptengine.LuaConverters;
+import scriptengine.LuaExecutor;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+
+public class LuaConvertersTest {
+
+    @Test
+    public void testCustomConverter() throws LuaException {
+        LuaConverters.register(UUID.class, uuid -> Collections.singletonMap("id", uuid.toString()));
+        try {
+            UUID uuid = UUID.randomUUID();
+            LuaExecutor executor = new LuaExecutor();
+            Object[] results = executor.run("local u = ... return u.id", uuid);
+            Assert.assertEquals(uuid.toString(), results[0].toString());
+            executor.setConversionMode(ConversionMode.PROXY);
+            results = executor.run("local u = ... return u.id", uuid);
+            Assert.assertEquals(uuid.toString(), results[0].toString());
+        } finally {
+            LuaConverters.unregister(UUID.class);
+        }
+        Object[] results = new LuaExecutor().run("local u = ... return u.id", UUID.randomUUID());
+        Assert.assertNull(results[0]);
+    }
+
+    public static class Money {
+        private final long cents;
+
+        public Money(long cents) {
+            this.cents = cents;
+        }
+
+        public long getCents() {
+            return cents;
+        }
+    }
+
+    @Test
+    public void testNestedCustomConverter() throws LuaException {
+        LuaConverters.register(Money.class, money -> money.getCents() / 100.0);
+        try {
+            Map<String, Object> order = Collections.singletonMap("price", new Money(1250));
+            LuaExecutor executor = new LuaExecutor();
+            for (ConversionMode mode : ConversionMode.values()) {
+                executor.setConversionMode(mode);
+                Object[] results = executor.run("local d = ... return type(d.price), d.price", order);
+                Assert.assertEquals(mode.toString(), "number", results[0].toString());
+                Assert.assertEquals(12.5, results[1]);
+            }
+        } finally {
+            LuaConverters.unregister(Money.class);
+        }
+    }
+
+    @Test
+    public void testArrays() throws LuaException {
+        LuaExecutor executor = new LuaExecutor();
+        Object[] results = executor.run("local a, b = ... return #a, a[2], #b, b[3]",
+                new String[]{"x", "y"}, new long[]{1, 2, 3});
+        Assert.assertEquals(2L, results[0]);
+        Assert.assertEquals("y", results[1].toString());
+        Assert.assertEquals(3L, results[2]);
+        Assert.assertEquals(3L, results[3]);
+    }
+}
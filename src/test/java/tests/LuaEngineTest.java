@@ -1,11 +1,21 @@
 package tests;
 
+import interfaces.PricingStrategy;
 import interfaces.TestInterface;
+import net.sandius.rembulan.LuaRuntimeException;
 import org.junit.Assert;
 import org.junit.Test;
 import scriptengine.LuaScriptEngine;
 
+import javax.script.CompiledScript;
 import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -58,4 +68,61 @@ public class LuaEngineTest {
         }
     }
 
+    @Test
+    public void testGeneratedInterface() {
+        LuaScriptEngine engine = new LuaScriptEngine();
+        try {
+            engine.eval("function price(base, quantity, member) " +
+                    "local total = base * quantity if member then total = total * 0.5 end return total end " +
+                    "function label(grade) return 'grade ' .. grade end " +
+                    "function tiers(limit) local t = {} for i = 1, limit do t[i] = i * 10 end return t end " +
+                    "function grade(total) if total > 100 then return 'A' elseif total > 0 then return 7 end return {} end");
+            PricingStrategy strategy = engine.getInterface(PricingStrategy.class);
+            Assert.assertNotNull(strategy);
+            Assert.assertFalse(Proxy.isProxyClass(strategy.getClass()));
+            Assert.assertEquals(15.0, strategy.price(3.0, 10, true), 0.0);
+            Assert.assertEquals("grade A", strategy.label('A'));
+            Assert.assertEquals(Arrays.asList(10L, 20L, 30L), strategy.tiers(3));
+            Assert.assertEquals('A', strategy.grade(150.0));
+            Assert.assertEquals('7', strategy.grade(50.0));
+            try {
+                strategy.grade(0.0);
+                Assert.fail();
+            } catch (LuaRuntimeException e) {
+                Assert.assertEquals("character expected, got table", e.getMessage());
+            }
+        } catch (ScriptException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testCompile() {
+        String script = "return price * count";
+        LuaScriptEngine engine = new LuaScriptEngine();
+        try {
+            CompiledScript compiled = engine.compile(script);
+            SimpleBindings bindings = new SimpleBindings();
+            bindings.put("price", 3L);
+            bindings.put("count", 2L);
+            Assert.assertEquals(6L, compiled.eval(bindings));
+            bindings.put("count", 5L);
+            Assert.assertEquals(15L, compiled.eval(bindings));
+        } catch (ScriptException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testEvalFile() throws ScriptException, IOException {
+        Path file = Files.createTempFile("script", ".lua");
+        try {
+            Files.write(file, "\uFEFF-- h\u00e9llo\nreturn greeting .. ' lua'".getBytes(StandardCharsets.UTF_8));
+            LuaScriptEngine engine = new LuaScriptEngine();
+            engine.put("greeting", "hello");
+            Assert.assertEquals("hello lua", engine.eval(file).toString());
+        } finally {
+            Files.delete(file);
+        }
+    }
 }
@@ -0,0 +1,80 @@
+package tests;
+
+import exception.LuaException;
+import org.junit.Assert;
+import org.junit.Test;
+import scriptengine.LuaEnvironment;
+import scriptengine.LuaExecutor;
+import scriptengine.LuaProfile;
+import scriptengine.LuaScriptEngineFactory;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+public class LuaEnvironmentTest {
+
+    @Test
+    public void testStandardLibrary() throws LuaException {
+        LuaExecutor executor = new LuaExecutor(LuaEnvironment.standard());
+        Assert.assertEquals("ABC", executor.run("return ('abc'):upper()")[0].toString());
+        Assert.assertEquals(3L, executor.run("return math.max(1, 3, 2)")[0]);
+        Assert.assertEquals(Boolean.TRUE, executor.run("return _G == _ENV and getmetatable('').__index == string")[0]);
+        Assert.assertEquals(Boolean.TRUE, executor.run("for k in pairs(_G) do if k == 'print' then return true end end")[0]);
+    }
+
+    @Test
+    public void testCopyOnWrite() throws LuaException {
+        LuaEnvironment environment = LuaEnvironment.snapshot();
+        LuaExecutor first = new LuaExecutor(environment);
+        LuaExecutor second = new LuaExecutor(environment);
+        first.run("x = 1 string.custom = 'custom' math = nil");
+        Assert.assertEquals(1L, first.run("return x")[0]);
+        Assert.assertEquals("custom", first.run("return ('a').custom")[0].toString());
+        Assert.assertNull(first.run("return math")[0]);
+
+        Assert.assertNull(second.run("return x")[0]);
+        Assert.assertNull(second.run("return string.custom")[0]);
+        Assert.assertEquals(2L, second.run("return math.abs(-2)")[0]);
+    }
+
+    @Test
+    public void testModulesPerExecutor() throws LuaException {
+        LuaEnvironment environment = LuaEnvironment.snapshot();
+        LuaExecutor first = new LuaExecutor(environment);
+        LuaExecutor second = new LuaExecutor(environment);
+        Object[] results = first.run("package.preload.tax = function() return { rate = 19 } end " +
+                "return require('tax').rate, require('string') == string, package.loaded._G == _G");
+        Assert.assertArrayEquals(new Object[]{19L, true, true}, results);
+
+        results = second.run("return package.loaded.tax, package.preload.tax, pcall(require, 'tax')");
+        Assert.assertNull(results[0]);
+        Assert.assertNull(results[1]);
+        Assert.assertEquals(Boolean.FALSE, results[2]);
+    }
+
+    @Test
+    public void testProfiles() throws LuaException {
+        String libraries = "return string ~= nil, table ~= nil, math ~= nil, coroutine ~= nil, io ~= nil, os ~= nil, require ~= nil";
+        Object[] results = new LuaExecutor(LuaProfile.MINIMAL).run(libraries);
+        Assert.assertArrayEquals(new Object[]{true, true, true, false, false, false, false}, results);
+        results = new LuaExecutor(LuaProfile.PURE_COMPUTE.environment()).run(libraries);
+        Assert.assertArrayEquals(new Object[]{true, true, true, true, false, false, false}, results);
+        results = new LuaExecutor().run(libraries);
+        Assert.assertArrayEquals(new Object[]{true, true, true, true, true, true, true}, results);
+
+        LuaProfile.register(LuaProfile.of("strings", LuaProfile.Library.STRING));
+        results = new LuaExecutor(LuaProfile.named("strings")).run("return pairs, ('abc'):upper()");
+        Assert.assertNull(results[0]);
+        Assert.assertEquals("ABC", results[1].toString());
+    }
+
+    @Test
+    public void testEngineProfile() throws ScriptException {
+        LuaScriptEngineFactory factory = new LuaScriptEngineFactory();
+        Assert.assertEquals("full", factory.getParameter(LuaScriptEngineFactory.PROFILE));
+        factory.setProfile(LuaProfile.MINIMAL);
+        Assert.assertEquals("minimal", factory.getParameter(LuaScriptEngineFactory.PROFILE));
+        ScriptEngine engine = factory.getScriptEngine();
+        Assert.assertEquals(Boolean.TRUE, engine.eval("return os == nil and math.floor(2.5) == 2"));
+    }
+}
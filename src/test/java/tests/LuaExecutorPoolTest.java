@@ -0,0 +1,126 @@
+package tests;
+
+import exception.LuaException;
+import org.junit.Assert;
+import org.junit.Test;
+import scriptengine.LuaExecutor;
+import scriptengine.LuaExecutorPool;
+import scriptengine.LuaFunctions;
+import scriptengine.LuaScriptEngine;
+import scriptengine.LuaScriptEngineFactory;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class LuaExecutorPoolTest {
+
+    private static final String ADD = "testAdd=function(a,b) return a+b end";
+
+    @Test
+    public void testBorrowAndRelease() throws LuaException, NoSuchMethodException {
+        LuaExecutorPool pool = new LuaExecutorPool(2, ADD);
+        LuaExecutor first = pool.borrow();
+        LuaExecutor second = pool.borrow();
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(3L, first.call("testAdd", 1, 2)[0]);
+
+        pool.preload("testSub=function(a,b) return a-b end");
+        pool.release(first);
+        LuaExecutor borrowed = pool.borrow();
+        Assert.assertSame(first, borrowed);
+        Assert.assertEquals(1L, borrowed.call("testSub", 3, 2)[0]);
+        pool.release(borrowed);
+        pool.release(second);
+    }
+
+    @Test
+    public void testThreadConfined() throws Exception {
+        LuaExecutorPool pool = LuaExecutorPool.threadConfined(ADD);
+        LuaExecutor executor = pool.borrow();
+        Assert.assertSame(executor, pool.borrow());
+        ExecutorService threads = Executors.newSingleThreadExecutor();
+        try {
+            Assert.assertNotSame(executor, threads.submit(pool::borrow).get());
+        } finally {
+            threads.shutdown();
+        }
+        try {
+            pool.borrowAsync().join();
+            Assert.fail("borrowAsync of a thread-confined pool must fail");
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testPooledEngine() throws Exception {
+        LuaScriptEngineFactory factory = new LuaScriptEngineFactory();
+        Assert.assertEquals("MULTITHREADED", factory.getParameter("THREADING"));
+        LuaScriptEngine engine = (LuaScriptEngine) factory.getScriptEngine(new LuaExecutorPool(4, ADD));
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                long n = i;
+                results.add(threads.submit(() -> engine.invokeFunction("testAdd", n, 1L)));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                Assert.assertEquals(i + 1L, results.get(i).get());
+            }
+        } finally {
+            threads.shutdown();
+        }
+        ScriptEngine single = factory.getScriptEngine();
+        single.eval(ADD);
+        Assert.assertEquals(5L, ((LuaScriptEngine) single).invokeFunction("testAdd", 2, 3));
+    }
+
+    @Test
+    public void testNestedEval() throws Exception {
+        LuaScriptEngine engine = (LuaScriptEngine) new LuaScriptEngineFactory().getScriptEngine(new LuaExecutorPool(1));
+        engine.put("inner", LuaFunctions.of("inner", () -> {
+            try {
+                return engine.eval("return 41");
+            } catch (ScriptException e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+        ExecutorService threads = Executors.newSingleThreadExecutor();
+        try {
+            Future<Object> result = threads.submit(() -> engine.eval("return inner() + 1"));
+            Assert.assertEquals(42L, result.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals(42L, engine.evalAsync("return inner() + 1").get(10, TimeUnit.SECONDS));
+        } finally {
+            threads.shutdownNow();
+        }
+        // the executor is free again once the outer script returns
+        Assert.assertEquals(1L, engine.eval("return 1"));
+    }
+
+    @Test
+    public void testReleaseRejectsForeignExecutors() throws LuaException {
+        LuaExecutorPool pool = new LuaExecutorPool(1);
+        LuaExecutor executor = pool.borrow();
+        try {
+            pool.release(new LuaExecutor());
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("executor does not belong to the pool", e.getMessage());
+        }
+        pool.release(executor);
+        try {
+            pool.release(executor);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("executor is already released", e.getMessage());
+        }
+        Assert.assertSame(executor, pool.borrow());
+    }
+}
@@ -0,0 +1,73 @@
+package tests;
+
+import exception.LuaException;
+import org.junit.Assert;
+import org.junit.Test;
+import scriptengine.LuaExecutor;
+import scriptengine.LuaFunctions;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LuaFunctionsTest {
+
+    public static String label(String prefix, int id, double price, boolean active) {
+        return prefix + id + ":" + price + (active ? "" : "!");
+    }
+
+    public static long sum(long a, long b, long c, long d, long e, long f, long g) {
+        return a + b + c + d + e + f + g;
+    }
+
+    @Test
+    public void testLambdas() throws LuaException {
+        LuaExecutor executor = new LuaExecutor();
+        executor.register("distance", LuaFunctions.ofDouble("distance", (x, y) -> Math.sqrt(x * x + y * y)));
+        executor.register("twice", LuaFunctions.ofLong("twice", x -> x * 2));
+        executor.register("concat", LuaFunctions.of("concat", (a, b, c) -> "" + a + b + c));
+        executor.register("pair", LuaFunctions.of("pair", a -> new Object[]{a, Arrays.asList(1, 2)}));
+        Object[] results = executor.run("local a, b = pair('x') " +
+                "return distance(3, '4'), twice(21), concat('a', 1, nil), a, #b");
+        Assert.assertEquals(5.0, results[0]);
+        Assert.assertEquals(42L, results[1]);
+        Assert.assertEquals("a1null", results[2].toString());
+        Assert.assertEquals("x", results[3].toString());
+        Assert.assertEquals(2L, results[4]);
+    }
+
+    @Test
+    public void testMethods() throws LuaException {
+        AtomicLong counter = new AtomicLong();
+        LuaExecutor executor = new LuaExecutor();
+        executor.register("label", LuaFunctions.ofStatic(LuaFunctionsTest.class, "label"));
+        executor.register("sum", LuaFunctions.ofStatic(LuaFunctionsTest.class, "sum"));
+        executor.register("hypot", LuaFunctions.ofStatic(Math.class, "hypot"));
+        executor.register("add", LuaFunctions.ofMethod(counter, "addAndGet"));
+        Object[] results = executor.run("add(2) return label('p', 7, 1.5, false), sum(1, 2, 3, 4, 5, 6, 7), " +
+                "hypot(3, 4), add(3.0)");
+        Assert.assertEquals("p7:1.5!", results[0].toString());
+        Assert.assertEquals(28L, results[1]);
+        Assert.assertEquals(5.0, results[2]);
+        Assert.assertEquals(5L, results[3]);
+        Assert.assertEquals(5L, counter.get());
+    }
+
+    @Test
+    public void testBadArgument() {
+        try {
+            LuaFunctions.ofStatic(Math.class, "abs");
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("overloaded"));
+        }
+
+        LuaExecutor executor = new LuaExecutor();
+        executor.register("label", LuaFunctions.ofStatic(LuaFunctionsTest.class, "label"));
+        try {
+            executor.run("return label('p', 1.5, 1, true)");
+            Assert.fail();
+        } catch (LuaException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("bad argument #2 to 'label'"));
+        }
+    }
+}
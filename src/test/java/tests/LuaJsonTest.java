@@ -0,0 +1,91 @@
+package tests;
+
+import com.fasterxml.jackson.core.JsonGenerationException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import exception.LuaException;
+import org.junit.Assert;
+import org.junit.Test;
+import scriptengine.LuaExecutor;
+import scriptengine.LuaJson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class LuaJsonTest {
+
+    public static class Line {
+        private String sku;
+        private long quantity;
+
+        public String getSku() {
+            return sku;
+        }
+
+        public void setSku(String sku) {
+            this.sku = sku;
+        }
+
+        public long getQuantity() {
+            return quantity;
+        }
+
+        public void setQuantity(long quantity) {
+            this.quantity = quantity;
+        }
+    }
+
+    public static class Receipt {
+        public long id;
+        public double total;
+        public List<Line> lines;
+    }
+
+    @Test
+    public void testWriteScriptTable() throws LuaException, IOException {
+        Object result = new LuaExecutor().run("return { id = 7, total = 1.5, paid = true, note = 'say \"hi\"\\n', " +
+                "tags = { 'a', 'b' }, sparse = { [1] = 'x', [3] = 'z' }, empty = {}, " +
+                "lines = { { sku = 'a', quantity = 2 } } }")[0];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LuaJson.write(result, out);
+        Map<?, ?> json = new ObjectMapper().readValue(out.toByteArray(), Map.class);
+        Assert.assertEquals(7, json.get("id"));
+        Assert.assertEquals(1.5, json.get("total"));
+        Assert.assertEquals(Boolean.TRUE, json.get("paid"));
+        Assert.assertEquals("say \"hi\"\n", json.get("note"));
+        Assert.assertEquals(Arrays.asList("a", "b"), json.get("tags"));
+        Assert.assertEquals("x", ((Map<?, ?>) json.get("sparse")).get("1"));
+        Assert.assertEquals("z", ((Map<?, ?>) json.get("sparse")).get("3"));
+        Assert.assertTrue(((Map<?, ?>) json.get("empty")).isEmpty());
+        Assert.assertEquals("a", ((Map<?, ?>) ((List<?>) json.get("lines")).get(0)).get("sku"));
+
+        out.reset();
+        LuaJson.write(new LuaExecutor().run("local values = ... values[2] = 5 return values", new long[]{1, 2, 3})[0], out);
+        Assert.assertEquals("[1,5,3]", out.toString("UTF-8"));
+
+        try {
+            LuaJson.write(new LuaExecutor().run("return { f = print }")[0], out);
+            Assert.fail();
+        } catch (JsonGenerationException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("can't write a function"));
+        }
+    }
+
+    @Test
+    public void testScriptTableToJava() throws LuaException {
+        LuaExecutor executor = new LuaExecutor();
+        Object result = executor.run("return { id = 3, total = 4.5, " +
+                "lines = { { sku = 'a', quantity = 1 }, { sku = 'b', quantity = 2 } } }")[0];
+        Receipt receipt = LuaExecutor.toJavaObject(result, Receipt.class);
+        Assert.assertEquals(3L, receipt.id);
+        Assert.assertEquals(4.5, receipt.total, 0.0);
+        Assert.assertEquals(2, receipt.lines.size());
+        Assert.assertEquals("b", receipt.lines.get(1).getSku());
+        Assert.assertEquals(2L, receipt.lines.get(1).getQuantity());
+
+        List<?> list = LuaExecutor.toJavaList(executor.run("return { 'x', 'y', 3 }")[0]);
+        Assert.assertEquals(Arrays.asList("x", "y", 3L), list);
+    }
+}
@@ -0,0 +1,75 @@
+package tests;
+
+import exception.LuaException;
+import org.junit.Assert;
+import org.junit.Test;
+import scriptengine.ChunkCache;
+import scriptengine.HistogramMetrics;
+import scriptengine.LuaExecutor;
+import scriptengine.LuaHistogram;
+
+import java.util.Collections;
+
+public class LuaMetricsTest {
+
+    @Test
+    public void testExecutorMetrics() throws LuaException {
+        HistogramMetrics metrics = new HistogramMetrics();
+        LuaExecutor executor = new LuaExecutor();
+        executor.setMetrics(metrics);
+        String script = "local t = {} for i = 1, 100 do t[i] = i end return #t + n";
+        executor.putContext(Collections.singletonMap("n", 1L));
+        executor.run(script, Collections.singletonList(1L));
+        executor.run(script);
+        executor.resume(executor.runWithBudget("while true do end", 1000).getContinuation(), 1000);
+
+        Assert.assertEquals(1, metrics.getBindingNanos().getCount());
+        Assert.assertEquals(1, metrics.getArgumentNanos().getCount());
+        Assert.assertEquals(3, metrics.getCacheHitCount() + metrics.getCacheMissCount());
+        Assert.assertEquals(2, metrics.getPauseCount());
+        Assert.assertEquals(1, metrics.getResumeCount());
+        Assert.assertEquals(1, metrics.getCallNanos().size());
+        Assert.assertEquals(2, metrics.getCallNanos().values().iterator().next().getCount());
+        Assert.assertTrue(metrics.dump().contains("call ns "));
+    }
+
+    @Test
+    public void testScriptsNamedByDigest() throws LuaException, NoSuchMethodException {
+        HistogramMetrics metrics = new HistogramMetrics(false, 4);
+        LuaExecutor executor = new LuaExecutor();
+        executor.setMetrics(metrics);
+        executor.run("function twice(x) return 2 * x end");
+        executor.call("twice", 1L);
+        String name = metrics.getCompileNanos().keySet().iterator().next();
+        Assert.assertEquals(16, name.length());
+        Assert.assertTrue(metrics.getCallNanos().containsKey(name));
+        Assert.assertTrue(metrics.getCallNanos().containsKey(name + "$0"));
+
+        // the same script in another executor has the same name even if it is compiled again
+        ChunkCache.shared().clear();
+        LuaExecutor other = new LuaExecutor();
+        other.setMetrics(metrics);
+        other.run("function twice(x) return 2 * x end");
+        Assert.assertEquals(2, metrics.getCallNanos().get(name).getCount());
+
+        for (int i = 0; i < 20; i++) {
+            executor.run("return " + i);
+        }
+        Assert.assertTrue(metrics.getCompileNanos().size() <= 4);
+        Assert.assertTrue(metrics.getCallNanos().size() <= 4);
+        Assert.assertEquals(2, metrics.getCallNanos().get(name).getCount());
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LuaHistogram histogram = new LuaHistogram();
+        for (long i = 1; i <= 100000; i++) {
+            histogram.record(i * 1000);
+        }
+        Assert.assertEquals(100000, histogram.getCount());
+        Assert.assertEquals(100000000L, histogram.getMax());
+        Assert.assertEquals(50000000L, histogram.getValueAtPercentile(50), 50000000L / 64);
+        Assert.assertEquals(99000000L, histogram.getValueAtPercentile(99), 99000000L / 64);
+        Assert.assertEquals(1000L, histogram.getValueAtPercentile(0), 1000L / 64);
+    }
+}
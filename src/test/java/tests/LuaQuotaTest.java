@@ -0,0 +1,63 @@
+package tests;
+
+import exception.LuaException;
+import exception.LuaQuotaException;
+import net.sandius.rembulan.runtime.LuaFunction;
+import org.junit.Assert;
+import org.junit.Test;
+import scriptengine.LuaExecutor;
+import scriptengine.LuaQuota;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class LuaQuotaTest {
+
+    @Test
+    public void testMemoryQuota() throws LuaException {
+        LuaExecutor executor = new LuaExecutor();
+        executor.setQuota(LuaQuota.ofBytes(1 << 20).withCheckTicks(50));
+        Assert.assertEquals(1024L, executor.run("local s = 'x' for i = 1, 10 do s = s .. s end return #s")[0]);
+        try {
+            executor.run("local s = 'x' for i = 1, 24 do s = s .. s end return #s");
+            Assert.fail();
+        } catch (LuaQuotaException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("memory quota exceeded"));
+            Assert.assertEquals(1 << 20, e.getLimit());
+        }
+        Assert.assertEquals(2L, executor.run("return 1 + 1")[0]);
+    }
+
+    @Test
+    public void testTableQuotaNotCaughtByPcall() throws LuaException {
+        LuaExecutor executor = new LuaExecutor();
+        executor.setQuota(LuaQuota.ofBytes(64 << 20).withMaxTableEntries(1000));
+        Assert.assertEquals(1000L, executor.run("local t = {} for i = 1, 1000 do t[i] = i end return #t")[0]);
+        try {
+            executor.run("local ok = pcall(function() local t = {} for i = 1, 100000 do t[i] = i end end) return ok");
+            Assert.fail();
+        } catch (LuaQuotaException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("table quota exceeded"));
+            Assert.assertEquals(1001L, e.getUsed());
+        }
+    }
+
+    @Test
+    public void testConversionQuota() throws LuaException {
+        Map<String, Object> payload = new HashMap<>();
+        for (int i = 0; i < 10000; i++) {
+            payload.put("key" + i, "value" + i);
+        }
+        LuaExecutor executor = new LuaExecutor();
+        LuaFunction function = executor.load("local t = ... return t.key1");
+        executor.setQuota(LuaQuota.ofBytes(64 << 10));
+        try {
+            executor.call(function, payload);
+            Assert.fail();
+        } catch (LuaQuotaException e) {
+            Assert.assertTrue(e.getUsed() > e.getLimit());
+        }
+        executor.setQuota(null);
+        Assert.assertEquals("value1", executor.call(function, payload)[0].toString());
+    }
+}
@@ -0,0 +1,116 @@
+package tests;
+
+import net.sandius.rembulan.runtime.LuaFunction;
+import org.junit.Assert;
+import org.junit.Test;
+import scriptengine.AsyncFunction;
+import scriptengine.LuaEnvironment;
+import scriptengine.LuaExecutor;
+import scriptengine.LuaExecutorPool;
+import scriptengine.LuaScheduler;
+import scriptengine.LuaScriptEngine;
+import scriptengine.LuaScriptEngineFactory;
+
+import javax.script.ScriptException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class LuaSchedulerTest {
+
+    @Test
+    public void testAsyncFunctionHoldsNoThread() throws Exception {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        LuaFunction slowDouble = new AsyncFunction() {
+            @Override
+            protected CompletionStage<?> call(Object[] args) {
+                CompletableFuture<Object> future = new CompletableFuture<>();
+                long value = ((Number) args[0]).longValue();
+                timer.schedule(() -> future.complete(value * 2), 50, TimeUnit.MILLISECONDS);
+                return future;
+            }
+        };
+        LuaScheduler scheduler = LuaScheduler.newBounded(2);
+        List<CompletableFuture<Object[]>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (long i = 0; i < 100; i++) {
+            LuaExecutor executor = new LuaExecutor(LuaEnvironment.standard());
+            executor.setScheduler(scheduler);
+            executor.putContext(Collections.singletonMap("slowDouble", slowDouble));
+            futures.add(executor.runAsync("return slowDouble(...) + 1", i));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            Assert.assertEquals(i * 2L + 1, futures.get(i).get(10, TimeUnit.SECONDS)[0]);
+        }
+        // 100 calls of 50ms on 2 threads would take 2.5s if each call held a thread
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        timer.shutdown();
+    }
+
+    @Test
+    public void testRunawayScriptIsTimeSliced() throws Exception {
+        LuaScheduler scheduler = LuaScheduler.newBounded(1);
+        LuaExecutor runaway = new LuaExecutor(LuaEnvironment.standard());
+        runaway.setScheduler(scheduler);
+        CompletableFuture<Object[]> endless = runaway.runAsync("while true do end");
+
+        LuaExecutor executor = new LuaExecutor(LuaEnvironment.standard());
+        executor.setScheduler(scheduler);
+        Assert.assertEquals(3L, executor.runAsync("return 1 + 2").get(10, TimeUnit.SECONDS)[0]);
+        Assert.assertFalse(endless.isDone());
+        endless.cancel(false);
+    }
+
+    @Test
+    public void testEngineEvalAsync() throws Exception {
+        LuaScriptEngine engine = new LuaScriptEngine();
+        engine.put("x", 20L);
+        Assert.assertEquals(22L, engine.evalAsync("return x + 2").get(10, TimeUnit.SECONDS));
+        try {
+            engine.evalAsync("error('boom')").get(10, TimeUnit.SECONDS);
+            Assert.fail("a failed script must fail its future");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof ScriptException);
+        }
+    }
+
+    @Test
+    public void testEvalAsyncWaitsForExecutorWithoutBlocking() throws Exception {
+        CompletableFuture<Object> gate = new CompletableFuture<>();
+        LuaScriptEngine engine = (LuaScriptEngine) new LuaScriptEngineFactory().getScriptEngine(new LuaExecutorPool(1));
+        engine.put("gate", new AsyncFunction() {
+            @Override
+            protected CompletionStage<?> call(Object[] args) {
+                return gate;
+            }
+        });
+        CompletableFuture<Object> first = engine.evalAsync("return gate()");
+        long start = System.nanoTime();
+        CompletableFuture<Object> cancelled = engine.evalAsync("return 2");
+        CompletableFuture<Object> second = engine.evalAsync("return 3");
+        // the only executor is held by the first script, the next ones wait in the pool instead of the caller
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        Assert.assertFalse(second.isDone());
+        cancelled.cancel(false);
+
+        gate.complete(1L);
+        Assert.assertEquals(1L, first.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(3L, second.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(4L, engine.eval("return 4"));
+    }
+
+    @Test(timeout = 10000)
+    public void testCancelledEvalAsyncReleasesExecutor() throws Exception {
+        LuaScriptEngine engine = new LuaScriptEngine();
+        CompletableFuture<Object> endless = engine.evalAsync("while true do end");
+        Thread.sleep(50);
+        Assert.assertTrue(endless.cancel(true));
+        Assert.assertEquals(42L, engine.eval("return 42"));
+    }
+}
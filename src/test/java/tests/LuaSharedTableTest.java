@@ -0,0 +1,104 @@
+package tests;
+
+import exception.LuaException;
+import org.junit.Assert;
+import org.junit.Test;
+import scriptengine.ConversionMode;
+import scriptengine.LuaExecutor;
+import scriptengine.LuaSharedTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class LuaSharedTableTest {
+
+    private static Map<String, Object> referenceData() {
+        Map<String, Object> countries = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            Map<String, Object> country = new HashMap<>();
+            country.put("code", "C" + i);
+            country.put("rate", i * 0.5);
+            country.put("zone", i % 3 == 0 ? "eu" : "other");
+            countries.put("C" + i, country);
+        }
+        Map<Object, Object> sparse = new HashMap<>();
+        sparse.put(1, "one");
+        sparse.put(2, "two");
+        sparse.put(10, "ten");
+        sparse.put(true, "yes");
+        Map<String, Object> data = new HashMap<>();
+        data.put("countries", countries);
+        data.put("brackets", Arrays.asList(100L, 200L, 500L));
+        data.put("sparse", sparse);
+        return data;
+    }
+
+    private static void assertReadable(LuaSharedTable shared) throws LuaException {
+        for (int i = 0; i < 2; i++) {
+            LuaExecutor executor = new LuaExecutor();
+            executor.putContext(Collections.singletonMap("ref", shared));
+            Object[] results = executor.run("local n = 0 for _ in pairs(ref.countries) do n = n + 1 end " +
+                    "local sum = 0 for _, b in ipairs(ref.brackets) do sum = sum + b end " +
+                    "return ref.countries.C42.rate, ref.countries.C42.zone, n, sum, #ref.sparse, ref.sparse[10], " +
+                    "ref.sparse[true], ref.countries.C7 == ref.countries.C7, ref.missing");
+            Assert.assertEquals(21.0, results[0]);
+            Assert.assertEquals("eu", results[1].toString());
+            Assert.assertEquals(1000L, results[2]);
+            Assert.assertEquals(800L, results[3]);
+            Assert.assertEquals(2L, results[4]);
+            Assert.assertEquals("ten", results[5].toString());
+            Assert.assertEquals("yes", results[6].toString());
+            Assert.assertEquals(Boolean.TRUE, results[7]);
+            Assert.assertNull(results[8]);
+        }
+    }
+
+    @Test
+    public void testSharedAcrossExecutors() throws LuaException {
+        LuaSharedTable shared = LuaSharedTable.of(referenceData());
+        Assert.assertFalse(shared.isOffHeap());
+        assertReadable(shared);
+
+        LuaExecutor executor = new LuaExecutor();
+        Object[] results = executor.run("local ref = ... " +
+                "local ok, err = pcall(function() ref.countries.C1.rate = 0 end) " +
+                "return ok, tostring(err), ref.countries.C1.rate", shared);
+        Assert.assertEquals(Boolean.FALSE, results[0]);
+        Assert.assertTrue(results[1].toString(), results[1].toString().contains("shared table"));
+        Assert.assertEquals(0.5, results[2]);
+    }
+
+    @Test
+    public void testNestedInProxy() throws LuaException {
+        Map<String, Object> tax = new HashMap<>();
+        tax.put("de", 19L);
+        LuaSharedTable shared = LuaSharedTable.of(tax);
+        Map<String, Object> data = Collections.singletonMap("tax", shared);
+        LuaExecutor executor = new LuaExecutor();
+        for (ConversionMode mode : ConversionMode.values()) {
+            executor.setConversionMode(mode);
+            Object[] results = executor.run("local d = ... return d.tax.de", data);
+            Assert.assertEquals(mode.toString(), 19L, results[0]);
+        }
+    }
+
+    @Test
+    public void testOffHeapAndMapped() throws LuaException, IOException {
+        LuaSharedTable offHeap = LuaSharedTable.offHeap(referenceData());
+        Assert.assertTrue(offHeap.isOffHeap());
+        assertReadable(offHeap);
+
+        Path file = File.createTempFile("shared", ".lua-table").toPath();
+        file.toFile().deleteOnExit();
+        LuaSharedTable.write(referenceData(), file);
+        LuaSharedTable mapped = LuaSharedTable.map(file);
+        Assert.assertTrue(mapped.isOffHeap());
+        Assert.assertEquals(offHeap.getByteSize(), mapped.getByteSize());
+        assertReadable(mapped);
+    }
+}
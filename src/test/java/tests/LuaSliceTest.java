@@ -0,0 +1,48 @@
+package tests;
+
+import exception.LuaException;
+import net.sandius.rembulan.compiler.CompilerSettings;
+import org.junit.Assert;
+import org.junit.Test;
+import scriptengine.LuaExecutor;
+import scriptengine.LuaSlice;
+
+public class LuaSliceTest {
+
+    @Test
+    public void testRunawayScriptIsPaused() throws LuaException {
+        LuaExecutor executor = new LuaExecutor();
+        LuaSlice slice = executor.runWithBudget("while true do end", 10000);
+        Assert.assertTrue(slice.isPaused());
+        Assert.assertNull(slice.getResults());
+        slice = executor.resume(slice.getContinuation(), 10000);
+        Assert.assertTrue(slice.isPaused());
+    }
+
+    @Test
+    public void testResumeUntilReturned() throws LuaException {
+        LuaExecutor executor = new LuaExecutor();
+        LuaSlice slice = executor.runWithBudget("local n = ... local s = 0 for i = 1, n do s = s + i end return s",
+                1000, 100000L);
+        int slices = 1;
+        while (slice.isPaused()) {
+            slice = executor.resume(slice.getContinuation(), 1000);
+            slices++;
+        }
+        Assert.assertTrue(slices > 1);
+        Assert.assertEquals(5000050000L, slice.getResults()[0]);
+    }
+
+    @Test
+    public void testBudgetNeedsCpuAccounting() throws LuaException {
+        String script = "local s = 0 for i = 1, 100000 do s = s + i end return s";
+        LuaExecutor executor = new LuaExecutor();
+        executor.setCompilerSettings(CompilerSettings.defaultNoAccountingSettings());
+        LuaSlice slice = executor.runWithBudget(script, 1000);
+        Assert.assertFalse(slice.isPaused());
+        Assert.assertEquals(5000050000L, slice.getResults()[0]);
+
+        executor.setCompilerSettings(null);
+        Assert.assertTrue(executor.runWithBudget(script, 1000).isPaused());
+    }
+}
@@ -0,0 +1,64 @@
+package tests;
+
+import exception.LuaException;
+import org.junit.Assert;
+import org.junit.Test;
+import scriptengine.LuaExecutor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MetaTableTest {
+
+    @Test
+    public void testArrayAndHashParts() throws LuaException {
+        List<Object> list = new ArrayList<>();
+        for (long i = 1; i <= 1000; i++) {
+            list.add(i);
+        }
+        LuaExecutor executor = new LuaExecutor();
+        Object[] results = executor.run("local t = ... " +
+                "t[1002] = 1002 t[1001] = 1001 t[1.5] = 'half' t[2.0] = 'two' " +
+                "local s = 0 for i = 1, #t do if type(t[i]) == 'number' then s = s + t[i] end end " +
+                "return #t, s, t[1.5], t[2]", list);
+        Assert.assertEquals(1002L, results[0]);
+        Assert.assertEquals(500500L + 1001 + 1002 - 2, results[1]);
+        Assert.assertEquals("half", results[2].toString());
+        Assert.assertEquals("two", results[3].toString());
+    }
+
+    @Test
+    public void testTraversalClearingFields() throws LuaException {
+        Map<Object, Object> map = new LinkedHashMap<>();
+        map.put(1L, "a");
+        map.put(2L, "b");
+        map.put(10L, "c");
+        map.put(2.5, "d");
+        map.put("e", "e");
+        map.put(true, "f");
+        LuaExecutor executor = new LuaExecutor();
+        Object[] results = executor.run("local t = ... local n = 0 " +
+                "for k, v in pairs(t) do n = n + 1 t[k] = nil end " +
+                "return n, next(t)", map);
+        Assert.assertEquals(6L, results[0]);
+        Assert.assertNull(results[1]);
+    }
+
+    @Test
+    public void testTraversalOrder() throws LuaException {
+        Map<Object, Object> map = new LinkedHashMap<>();
+        map.put(true, 1L);
+        map.put("s", 2L);
+        map.put(2.5, 3L);
+        map.put(100L, 4L);
+        map.put(2L, 5L);
+        map.put(1L, 6L);
+        LuaExecutor executor = new LuaExecutor();
+        Object[] results = executor.run("local t = ... local keys = {} " +
+                "for k in pairs(t) do keys[#keys + 1] = tostring(k) end " +
+                "return table.concat(keys, ',')", map);
+        Assert.assertEquals("1,2,100,2.5,s,true", results[0].toString());
+    }
+}
@@ -0,0 +1,96 @@
+package tests;
+
+import exception.LuaException;
+import org.junit.Assert;
+import org.junit.Test;
+import scriptengine.ConversionMode;
+import scriptengine.LuaExecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ProxyTableTest {
+
+    public static class Line {
+        private String sku;
+        private long quantity;
+
+        public String getSku() {
+            return sku;
+        }
+
+        public void setSku(String sku) {
+            this.sku = sku;
+        }
+
+        public long getQuantity() {
+            return quantity;
+        }
+
+        public void setQuantity(long quantity) {
+            this.quantity = quantity;
+        }
+    }
+
+    private static LuaExecutor proxyExecutor() {
+        LuaExecutor executor = new LuaExecutor();
+        executor.setConversionMode(ConversionMode.PROXY);
+        return executor;
+    }
+
+    @Test
+    public void testReadAndWriteThrough() throws LuaException {
+        Map<String, Object> order = new HashMap<>();
+        List<Object> lines = new ArrayList<>();
+        Line line = new Line();
+        line.setSku("a");
+        line.setQuantity(2);
+        lines.add(line);
+        order.put("lines", lines);
+        order.put("id", 7);
+
+        LuaExecutor executor = proxyExecutor();
+        executor.putContext(Collections.singletonMap("order", order));
+        Object[] results = executor.run("local l = order.lines[1] " +
+                "l.quantity = l.quantity + 1 order.status = 'done' " +
+                "order.lines[#order.lines + 1] = 'extra' " +
+                "return order.id, l.sku, order.lines == order.lines, #order.lines");
+        Assert.assertEquals(7L, results[0]);
+        Assert.assertEquals("a", results[1]);
+        Assert.assertEquals(Boolean.TRUE, results[2]);
+        Assert.assertEquals(2L, results[3]);
+
+        Assert.assertEquals(3L, line.getQuantity());
+        Assert.assertEquals("done", order.get("status"));
+        Assert.assertEquals("extra", lines.get(1));
+    }
+
+    @Test
+    public void testPairs() throws LuaException {
+        Map<String, Object> prices = new LinkedHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            prices.put("p" + i, (long) i);
+        }
+        LuaExecutor executor = proxyExecutor();
+        Object[] results = executor.run("local prices = ... local n, total = 0, 0 " +
+                "for k, v in pairs(prices) do n = n + 1 total = total + v if v % 2 == 0 then prices[k] = nil end end " +
+                "return n, total", prices);
+        Assert.assertEquals(100L, results[0]);
+        Assert.assertEquals(4950L, results[1]);
+        Assert.assertEquals(50, prices.size());
+    }
+
+    @Test
+    public void testResultConversion() throws LuaException {
+        Line line = new Line();
+        line.setSku("a");
+        LuaExecutor executor = proxyExecutor();
+        Object result = executor.run("return ...", line)[0];
+        Assert.assertSame(line, LuaExecutor.toJavaObject(result, Line.class));
+    }
+
+}